@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.benchmark;
+
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkNode;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.network.Client;
+import org.terasology.network.NetworkMode;
+import org.terasology.network.NetworkSystem;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Local stand-ins for the engine services, so that the benchmarks and the simulator run headless, without the engine
+ * context. Only the methods used by the transport system are supported.
+ */
+public final class EngineStandIns {
+    private EngineStandIns() {
+    }
+
+    /**
+     * Game time, that only advances when told to.
+     */
+    public static final class Clock {
+        public long gameTime;
+    }
+
+    public static Time time(Clock clock) {
+        return proxy(Time.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getGameTimeInMs":
+                    return clock.gameTime;
+                case "getGameTime":
+                    return clock.gameTime / 1000f;
+                default:
+                    return identityMethod(proxy, method.getName(), args);
+            }
+        });
+    }
+
+    /**
+     * Entity manager creating entities in the store. There are no players, so no client entities are ever found.
+     */
+    public static EntityManager entityManager(SimulatedEntities entities) {
+        return proxy(EntityManager.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "create":
+                    if (args == null) {
+                        return entities.create();
+                    }
+                    return identityMethod(proxy, method.getName(), args);
+                case "getEntitiesWith":
+                    return Collections.emptyList();
+                default:
+                    return identityMethod(proxy, method.getName(), args);
+            }
+        });
+    }
+
+    /**
+     * Network system of a single player game, without any remote clients.
+     */
+    public static NetworkSystem networkSystem() {
+        return proxy(NetworkSystem.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getMode":
+                    return NetworkMode.NONE;
+                case "getPlayers":
+                    return Collections.emptyList();
+                default:
+                    return identityMethod(proxy, method.getName(), args);
+            }
+        });
+    }
+
+    /**
+     * Network system of a headless server, with a single remote client connected.
+     */
+    public static NetworkSystem headlessServer() {
+        Client client = proxy(Client.class, (proxy, method, args) -> {
+            if (method.getName().equals("isLocal")) {
+                return false;
+            }
+            return identityMethod(proxy, method.getName(), args);
+        });
+        return proxy(NetworkSystem.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getMode":
+                    return NetworkMode.DEDICATED_SERVER;
+                case "getPlayers":
+                    return Collections.singletonList(client);
+                default:
+                    return identityMethod(proxy, method.getName(), args);
+            }
+        });
+    }
+
+    /**
+     * Network used only as a key, with the specified nodes. The collection is not copied, changes to it are visible
+     * through the network.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends NetworkNode> Network2<T> network(Collection<T> nodes) {
+        return proxy(Network2.class, (proxy, method, args) -> {
+            if (method.getName().equals("getNetworkingNodes")) {
+                return nodes;
+            }
+            return identityMethod(proxy, method.getName(), args);
+        });
+    }
+
+    public static void inject(Object target, String fieldName, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to inject " + fieldName, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> T read(Object target, String fieldName) {
+        try {
+            Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            return (T) field.get(target);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to read " + fieldName, e);
+        }
+    }
+
+    private static Object identityMethod(Object proxy, String methodName, Object[] args) {
+        switch (methodName) {
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            case "toString":
+                return "StandIn@" + Integer.toHexString(System.identityHashCode(proxy));
+            default:
+                throw new UnsupportedOperationException(methodName + " is not supported by the stand-in");
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(EngineStandIns.class.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+}
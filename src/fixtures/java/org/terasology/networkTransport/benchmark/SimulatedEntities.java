@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.benchmark;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+import java.util.Collection;
+
+/**
+ * In-memory entity store backing the entity manager stand-in. Entities exist until destroyed, there is no storage -
+ * the simulator keeps the entities of unloaded chunks itself.
+ */
+public final class SimulatedEntities {
+    private final TLongObjectMap<SimulatedEntity> entities = new TLongObjectHashMap<>();
+    private long nextId = 1;
+
+    SimulatedEntity create() {
+        SimulatedEntity entity = new SimulatedEntity(this, nextId++);
+        entities.put(entity.getId(), entity);
+        return entity;
+    }
+
+    boolean exists(long id) {
+        return entities.containsKey(id);
+    }
+
+    void destroy(long id) {
+        entities.remove(id);
+    }
+
+    public int size() {
+        return entities.size();
+    }
+
+    Collection<SimulatedEntity> getEntities() {
+        return entities.valueCollection();
+    }
+}
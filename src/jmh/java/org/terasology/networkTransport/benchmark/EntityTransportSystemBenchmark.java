@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+import org.terasology.networkTransport.entity.system.EntityTransportNetworkNode;
+import org.terasology.networkTransport.entity.system.LinearTransportRoute;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the transport system with 10k to 500k items routed through networks of 1k to 1M nodes. Run with
+ * <code>-prof gc</code> to get the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class EntityTransportSystemBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int nodeCount;
+
+    @Param({"10000", "500000"})
+    public int itemCount;
+
+    private TransportFixture fixture;
+    private Network2<EntityTransportNetworkNode> network;
+    private int nextItem;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fixture = new TransportFixture(nodeCount, itemCount);
+        network = fixture.getNetwork();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void rerouteItem() {
+        int item = nextItem;
+        nextItem = (nextItem + 1) % itemCount;
+        LinearTransportRoute route = fixture.routes[(item * 7) % fixture.routes.length];
+        fixture.system.rerouteItemThroughNetwork(TransportFixture.TRANSPORTER_TYPE, network, fixture.itemIds[item], route,
+                route.getTransportDuration());
+    }
+
+    /**
+     * Removes the middle node (splitting the network in two and moving all the items into the first part), adds it
+     * back (merging the parts) and flushes the modification notifications.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void splitAndMerge() {
+        EntityTransportNetworkNode middleNode = fixture.nodes[nodeCount / 2];
+        fixture.blockNetwork.removeNetworkingBlock(middleNode, NetworkChangeReason.WORLD_CHANGE);
+        fixture.blockNetwork.addNetworkingBlock(middleNode, NetworkChangeReason.WORLD_CHANGE);
+        fixture.system.update(0);
+        network = fixture.getNetwork();
+    }
+
+    /**
+     * Saves all the items in flight, each through an entity created for the save and destroyed afterwards.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int saveItems() {
+        fixture.system.preSave();
+        int savedEntityCount = fixture.entities.size();
+        fixture.system.postSave();
+        return savedEntityCount;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.networkTransport.entity.system.LinearTransportRoute;
+import org.terasology.networkTransport.entity.system.LinearTransportRouteCodec;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures position lookups on short and long routes, and encoding/decoding routes, as done for each routed entity
+ * when saving and loading.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinearTransportRouteBenchmark {
+    private static final long MILLIS_PER_UNIT = 100;
+
+    @Param({"2", "16", "1024"})
+    public int pointCount;
+
+    private LinearTransportRoute route;
+    private String encodedRoute;
+    private Vector3f out = new Vector3f();
+    private long progress;
+
+    @Setup
+    public void setup() {
+        route = new LinearTransportRoute(new Vector3f(0, 0, 0), MILLIS_PER_UNIT);
+        for (int i = 1; i < pointCount; i++) {
+            // Turning every few blocks, so the route has many segments
+            route.addPoint(new Vector3f(i - i / 3, 0, i / 3));
+        }
+        route.seal();
+        encodedRoute = LinearTransportRouteCodec.encode(route);
+    }
+
+    @Benchmark
+    public Vector3f getPosition() {
+        progress = (progress + 37) % (route.getTransportDuration() + 1);
+        return route.getPosition(progress, out);
+    }
+
+    @Benchmark
+    public Vector3f getPositionAllocating() {
+        progress = (progress + 37) % (route.getTransportDuration() + 1);
+        return route.getPosition(progress);
+    }
+
+    @Benchmark
+    public String encode() {
+        return LinearTransportRouteCodec.encode(route);
+    }
+
+    @Benchmark
+    public LinearTransportRoute decode() {
+        return LinearTransportRouteCodec.decode(encodedRoute, MILLIS_PER_UNIT);
+    }
+}
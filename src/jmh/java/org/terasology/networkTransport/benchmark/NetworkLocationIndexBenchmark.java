@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.benchmark;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.entity.system.EntityTransportNetworkNode;
+import org.terasology.networkTransport.network.NetworkLocationIndex;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures finding the network at a location, with networks of 1k to 1M nodes in total split into 64-node lines.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NetworkLocationIndexBenchmark {
+    private static final int LINE_LENGTH = 64;
+    private static final int LOOKUP_COUNT = 4096;
+
+    @Param({"1000", "100000", "1000000"})
+    public int nodeCount;
+
+    private NetworkLocationIndex<EntityTransportNetworkNode> networkLocationIndex;
+    private Vector3i[] lookups;
+    private int nextLookup;
+
+    @Setup
+    public void setup() {
+        byte sides = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+        networkLocationIndex = new NetworkLocationIndex<>();
+        int lineCount = (nodeCount + LINE_LENGTH - 1) / LINE_LENGTH;
+        int side = (int) Math.ceil(Math.sqrt(lineCount));
+        for (int line = 0; line < lineCount; line++) {
+            List<EntityTransportNetworkNode> nodes = Lists.newArrayListWithCapacity(LINE_LENGTH);
+            for (int x = 0; x < LINE_LENGTH; x++) {
+                nodes.add(new EntityTransportNetworkNode(new Vector3i((line % side) * LINE_LENGTH + x, 0, line / side), sides, sides));
+            }
+            Network2<EntityTransportNetworkNode> network = EngineStandIns.network(nodes);
+            networkLocationIndex.nodesAdded(network, nodes);
+        }
+
+        Random random = new Random(0);
+        lookups = new Vector3i[LOOKUP_COUNT];
+        for (int i = 0; i < LOOKUP_COUNT; i++) {
+            int line = random.nextInt(lineCount);
+            lookups[i] = new Vector3i((line % side) * LINE_LENGTH + random.nextInt(LINE_LENGTH), 0, line / side);
+        }
+    }
+
+    @Benchmark
+    public Network2<EntityTransportNetworkNode> findNetworkAt() {
+        Vector3i location = lookups[nextLookup];
+        nextLookup = (nextLookup + 1) % LOOKUP_COUNT;
+        return networkLocationIndex.getNetworkAt(location, Side.LEFT, true);
+    }
+}
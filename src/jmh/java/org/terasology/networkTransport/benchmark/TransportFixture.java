@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.benchmark;
+
+import com.google.common.collect.Sets;
+import org.terasology.blockNetwork.EfficientBlockNetwork;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.entity.system.EntityTransportAuthoritySystem;
+import org.terasology.networkTransport.entity.system.EntityTransportHandler;
+import org.terasology.networkTransport.entity.system.EntityTransportNetworkNode;
+import org.terasology.networkTransport.entity.system.LinearTransportRoute;
+import org.terasology.networkTransport.entity.system.RoutedEntity;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transport system running on engine stand-ins, with a single straight network and lightweight items routed along
+ * its first part. Items are lightweight, the entity manager stand-in only creates the entities the items are saved
+ * through.
+ */
+final class TransportFixture {
+    static final String TRANSPORTER_TYPE = "benchmark";
+    static final long MILLIS_PER_UNIT = 100;
+    static final int ROUTE_LENGTH = 16;
+    private static final int MAX_ROUTE_STARTS = 1024;
+
+    final EngineStandIns.Clock clock = new EngineStandIns.Clock();
+    final SimulatedEntities entities = new SimulatedEntities();
+    final EntityTransportAuthoritySystem system = new EntityTransportAuthoritySystem();
+    final EfficientBlockNetwork<EntityTransportNetworkNode> blockNetwork;
+    final EntityTransportNetworkNode[] nodes;
+    final LinearTransportRoute[] routes;
+    final long[] itemIds;
+
+    TransportFixture(int nodeCount, int itemCount) {
+        EngineStandIns.inject(system, "time", EngineStandIns.time(clock));
+        EngineStandIns.inject(system, "networkSystem", EngineStandIns.networkSystem());
+        EngineStandIns.inject(system, "entityManager", EngineStandIns.entityManager(entities));
+        system.initialise();
+        system.registerEntityTransportHandler(TRANSPORTER_TYPE, new NoOpHandler());
+        Map<String, EfficientBlockNetwork<EntityTransportNetworkNode>> networks = EngineStandIns.read(system, "entityTransportNetworks");
+        blockNetwork = networks.get(TRANSPORTER_TYPE);
+
+        byte sides = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+        nodes = new EntityTransportNetworkNode[nodeCount];
+        Set<EntityTransportNetworkNode> nodeSet = Sets.newHashSetWithExpectedSize(nodeCount);
+        for (int x = 0; x < nodeCount; x++) {
+            nodes[x] = new EntityTransportNetworkNode(new Vector3i(x, 0, 0), sides, sides);
+            nodeSet.add(nodes[x]);
+        }
+        blockNetwork.addNetworkingBlocks(nodeSet, NetworkChangeReason.WORLD_CHANGE);
+
+        // Routes stay in the first half of the network, so that splitting it in the middle does not remove any item
+        int routeStarts = Math.max(1, Math.min(MAX_ROUTE_STARTS, nodeCount / 2 - ROUTE_LENGTH));
+        routes = new LinearTransportRoute[routeStarts];
+        for (int start = 0; start < routeStarts; start++) {
+            LinearTransportRoute route = new LinearTransportRoute(new Vector3f(start, 0, 0), MILLIS_PER_UNIT);
+            for (int x = start + 1; x < start + ROUTE_LENGTH; x++) {
+                route.addPoint(new Vector3f(x, 0, 0));
+            }
+            route.seal();
+            routes[start] = route;
+        }
+
+        Network2<EntityTransportNetworkNode> network = getNetwork();
+        itemIds = new long[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            LinearTransportRoute route = routes[i % routeStarts];
+            itemIds[i] = system.routeItemThroughNetwork(TRANSPORTER_TYPE, network, null, route, route.getTransportDuration());
+        }
+    }
+
+    Network2<EntityTransportNetworkNode> getNetwork() {
+        return system.findNetworkAt(TRANSPORTER_TYPE, new Vector3i(0, 0, 0), Side.RIGHT, true);
+    }
+
+    private static final class NoOpHandler implements EntityTransportHandler {
+        @Override
+        public void networkModified(Network2<EntityTransportNetworkNode> network, Collection<RoutedEntity> routedEntities) {
+        }
+
+        @Override
+        public void entityDiscoveredInNetwork(EntityRef entity, Network2<EntityTransportNetworkNode> network, long progress) {
+        }
+
+        @Override
+        public void entityMovedBetweenNetworks(EntityRef entity, long progress, Network2<EntityTransportNetworkNode> fromNetwork,
+                                               Network2<EntityTransportNetworkNode> toNetwork) {
+        }
+
+        @Override
+        public void entityRemovedFromNetwork(EntityRef entity, long progress, Network2<EntityTransportNetworkNode> network) {
+        }
+
+        @Override
+        public void entityArrived(EntityRef entity) {
+        }
+
+        @Override
+        public boolean routedItemArrived(Object payload) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.energy.component;
+
+import org.terasology.entitySystem.Component;
+import org.terasology.world.block.RequiresBlockLifecycleEvents;
+
+@RequiresBlockLifecycleEvents
+public class EnergyTransporterComponent implements Component {
+    public String transporterType;
+    public byte connectionSides;
+    /**
+     * Amount of energy the block adds to the buffer of the network it is part of.
+     */
+    public float capacity;
+}
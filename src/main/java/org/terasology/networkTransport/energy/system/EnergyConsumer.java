@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.energy.system;
+
+public interface EnergyConsumer {
+    /**
+     * Called once per tick for each consumer attached to a network.
+     *
+     * @param deltaMillis Game time (in milliseconds) since the last tick.
+     * @return Energy the consumer would like to receive.
+     */
+    float getEnergyDemand(long deltaMillis);
+
+    /**
+     * Called right after the demands of all the consumers in the network are known. If the network does not have
+     * enough energy, all the consumers receive the same fraction of their demand.
+     *
+     * @param energy Energy supplied to the consumer, never more than it demanded.
+     */
+    void energySupplied(float energy);
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.energy.system;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.terasology.blockNetwork.BlockNetworkUtil;
+import org.terasology.blockNetwork.EfficientBlockNetwork;
+import org.terasology.blockNetwork.EfficientNetworkTopologyListener;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.energy.component.EnergyTransporterComponent;
+import org.terasology.networkTransport.network.BlockLocations;
+import org.terasology.networkTransport.network.NetworkLocationIndex;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+import org.terasology.world.WorldProvider;
+import org.terasology.world.block.BeforeDeactivateBlocks;
+import org.terasology.world.block.Block;
+import org.terasology.world.block.BlockComponent;
+import org.terasology.world.block.OnActivatedBlocks;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transports energy through networks of blocks. Each network has a single aggregate buffer, all the blocks contribute
+ * their capacity to, and producers and consumers attached to the network's blocks exchange energy with.
+ * <p>
+ * When a network splits, the stored energy is divided between the resulting networks in proportion to their capacity,
+ * when networks merge, their stored energy is summed.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(EnergyTransportRegistry.class)
+public class EnergyTransportAuthoritySystem extends BaseComponentSystem implements EnergyTransportRegistry, UpdateSubscriberSystem {
+    @In
+    private WorldProvider worldProvider;
+    @In
+    private Time time;
+
+    private Map<String, EfficientBlockNetwork<EnergyTransportNetworkNode>> energyTransportNetworks = Maps.newHashMap();
+
+    private Map<String, NetworkLocationIndex<EnergyTransportNetworkNode>> energyNetworkLocationIndices = Maps.newHashMap();
+
+    private Map<String, Map<Network2<EnergyTransportNetworkNode>, NetworkEnergyBuffer>> energyNetworkBuffers = Maps.newHashMap();
+
+    private Map<String, TLongObjectMap<List<EnergyAttachment>>> energyAttachments = Maps.newHashMap();
+
+    private long lastUpdateTime;
+
+    @Override
+    public void initialise() {
+        lastUpdateTime = time.getGameTimeInMs();
+    }
+
+    /**
+     * Exchanges energy between producers, consumers and buffers of all the networks.
+     *
+     * @param delta The time (in seconds) since the last engine update.
+     */
+    @Override
+    public void update(float delta) {
+        long gameTime = time.getGameTimeInMs();
+        long deltaMillis = gameTime - lastUpdateTime;
+        lastUpdateTime = gameTime;
+        if (deltaMillis <= 0) {
+            return;
+        }
+        for (Map<Network2<EnergyTransportNetworkNode>, NetworkEnergyBuffer> buffersOfType : energyNetworkBuffers.values()) {
+            for (NetworkEnergyBuffer buffer : buffersOfType.values()) {
+                buffer.tick(deltaMillis);
+            }
+        }
+    }
+
+    @Override
+    public void registerEnergyTransporterType(String transporterType) {
+        EfficientBlockNetwork<EnergyTransportNetworkNode> blockNetwork = new EfficientBlockNetwork<>();
+        energyTransportNetworks.put(transporterType, blockNetwork);
+        energyNetworkLocationIndices.put(transporterType, new NetworkLocationIndex<>());
+        energyNetworkBuffers.put(transporterType, Maps.newHashMap());
+        energyAttachments.put(transporterType, new TLongObjectHashMap<>());
+        blockNetwork.addTopologyListener(new TransporterTypeNetworkTopologyListener(transporterType));
+    }
+
+    @Override
+    public Network2<EnergyTransportNetworkNode> findNetworkAt(String transporterType, Vector3i location) {
+        return energyNetworkLocationIndices.get(transporterType).getNetworkAt(location);
+    }
+
+    @Override
+    public void addEnergyProducer(String transporterType, Vector3i location, EnergyProducer producer) {
+        addAttachment(transporterType, new EnergyAttachment(BlockLocations.pack(location), producer, null));
+    }
+
+    @Override
+    public void removeEnergyProducer(String transporterType, Vector3i location, EnergyProducer producer) {
+        removeAttachment(transporterType, location, producer);
+    }
+
+    @Override
+    public void addEnergyConsumer(String transporterType, Vector3i location, EnergyConsumer consumer) {
+        addAttachment(transporterType, new EnergyAttachment(BlockLocations.pack(location), null, consumer));
+    }
+
+    @Override
+    public void removeEnergyConsumer(String transporterType, Vector3i location, EnergyConsumer consumer) {
+        removeAttachment(transporterType, location, consumer);
+    }
+
+    @Override
+    public float getStoredEnergy(String transporterType, Network2<EnergyTransportNetworkNode> network) {
+        NetworkEnergyBuffer buffer = getBuffer(transporterType, network);
+        return buffer != null ? buffer.getStored() : 0;
+    }
+
+    @Override
+    public float getEnergyCapacity(String transporterType, Network2<EnergyTransportNetworkNode> network) {
+        NetworkEnergyBuffer buffer = getBuffer(transporterType, network);
+        return buffer != null ? buffer.getCapacity() : 0;
+    }
+
+    NetworkEnergyBuffer getBuffer(String transporterType, Network2<EnergyTransportNetworkNode> network) {
+        return energyNetworkBuffers.get(transporterType).get(network);
+    }
+
+    private void addAttachment(String transporterType, EnergyAttachment attachment) {
+        validateTransporterType(transporterType);
+        TLongObjectMap<List<EnergyAttachment>> attachmentsOfType = energyAttachments.get(transporterType);
+        List<EnergyAttachment> attachmentsAtLocation = attachmentsOfType.get(attachment.location);
+        if (attachmentsAtLocation == null) {
+            attachmentsAtLocation = Lists.newArrayListWithCapacity(1);
+            attachmentsOfType.put(attachment.location, attachmentsAtLocation);
+        }
+        attachmentsAtLocation.add(attachment);
+
+        Network2<EnergyTransportNetworkNode> network = energyNetworkLocationIndices.get(transporterType).getNetworkAt(
+                BlockLocations.unpackX(attachment.location), BlockLocations.unpackY(attachment.location), BlockLocations.unpackZ(attachment.location));
+        if (network != null) {
+            NetworkEnergyBuffer buffer = energyNetworkBuffers.get(transporterType).get(network);
+            if (buffer != null) {
+                buffer.attach(attachment);
+            }
+        }
+    }
+
+    private void removeAttachment(String transporterType, Vector3i location, Object producerOrConsumer) {
+        validateTransporterType(transporterType);
+        long packedLocation = BlockLocations.pack(location);
+        TLongObjectMap<List<EnergyAttachment>> attachmentsOfType = energyAttachments.get(transporterType);
+        List<EnergyAttachment> attachmentsAtLocation = attachmentsOfType.get(packedLocation);
+        if (attachmentsAtLocation != null) {
+            Iterator<EnergyAttachment> iterator = attachmentsAtLocation.iterator();
+            while (iterator.hasNext()) {
+                EnergyAttachment attachment = iterator.next();
+                if (attachment.producer == producerOrConsumer || attachment.consumer == producerOrConsumer) {
+                    if (attachment.buffer != null) {
+                        attachment.buffer.detach(attachment);
+                    }
+                    iterator.remove();
+                    break;
+                }
+            }
+            if (attachmentsAtLocation.isEmpty()) {
+                attachmentsOfType.remove(packedLocation);
+            }
+        }
+    }
+
+    @ReceiveEvent
+    public void prefabTransporterLoaded(OnActivatedBlocks event, EntityRef blockTypeEntity, EnergyTransporterComponent energyTransporter) {
+        String transporterType = energyTransporter.transporterType;
+        validateTransporterType(transporterType);
+        Set<EnergyTransportNetworkNode> transportNodes = Sets.newHashSet();
+        for (Vector3i location : event.getBlockPositions()) {
+            transportNodes.add(toNode(location, worldProvider.getBlock(location), energyTransporter));
+        }
+        energyTransportNetworks.get(transporterType).addNetworkingBlocks(transportNodes, NetworkChangeReason.CHUNK_EVENT);
+    }
+
+    @ReceiveEvent
+    public void prefabTransporterUnloaded(BeforeDeactivateBlocks event, EntityRef blockTypeEntity, EnergyTransporterComponent energyTransporter) {
+        String transporterType = energyTransporter.transporterType;
+        validateTransporterType(transporterType);
+        Set<EnergyTransportNetworkNode> transportNodes = Sets.newHashSet();
+        for (Vector3i location : event.getBlockPositions()) {
+            transportNodes.add(toNode(location, worldProvider.getBlock(location), energyTransporter));
+        }
+        energyTransportNetworks.get(transporterType).removeNetworkingBlocks(transportNodes, NetworkChangeReason.CHUNK_EVENT);
+    }
+
+    @ReceiveEvent
+    public void transporterAdded(OnActivatedComponent event, EntityRef blockEntity, EnergyTransporterComponent energyTransporter, BlockComponent block) {
+        String transporterType = energyTransporter.transporterType;
+        validateTransporterType(transporterType);
+        Vector3i location = new Vector3i(block.getPosition());
+        energyTransportNetworks.get(transporterType).addNetworkingBlock(toNode(location, block.getBlock(), energyTransporter),
+                NetworkChangeReason.WORLD_CHANGE);
+    }
+
+    @ReceiveEvent
+    public void transporterUpdated(OnChangedComponent event, EntityRef blockEntity, EnergyTransporterComponent energyTransporter, BlockComponent block) {
+        String transporterType = energyTransporter.transporterType;
+        validateTransporterType(transporterType);
+        Vector3i location = new Vector3i(block.getPosition());
+        EfficientBlockNetwork<EnergyTransportNetworkNode> energyTransportNetwork = energyTransportNetworks.get(transporterType);
+        Collection<EnergyTransportNetworkNode> oldTransportNodes = energyTransportNetwork.getNetworkingNodesAt(location);
+        if (oldTransportNodes.size() > 0) {
+            energyTransportNetwork.removeNetworkingBlocks(oldTransportNodes, NetworkChangeReason.WORLD_CHANGE);
+        }
+        energyTransportNetwork.addNetworkingBlock(toNode(location, block.getBlock(), energyTransporter), NetworkChangeReason.WORLD_CHANGE);
+    }
+
+    @ReceiveEvent
+    public void transporterRemoved(BeforeDeactivateComponent event, EntityRef blockEntity, EnergyTransporterComponent energyTransporter, BlockComponent block) {
+        String transporterType = energyTransporter.transporterType;
+        validateTransporterType(transporterType);
+        Vector3i location = new Vector3i(block.getPosition());
+        energyTransportNetworks.get(transporterType).removeNetworkingBlock(toNode(location, block.getBlock(), energyTransporter),
+                NetworkChangeReason.WORLD_CHANGE);
+    }
+
+    private EnergyTransportNetworkNode toNode(Vector3i location, Block block, EnergyTransporterComponent energyTransporter) {
+        byte connections = BlockNetworkUtil.getResultConnections(block, energyTransporter.connectionSides);
+        return new EnergyTransportNetworkNode(location, connections, energyTransporter.capacity);
+    }
+
+    private void validateTransporterType(String transporterType) {
+        if (!energyTransportNetworks.containsKey(transporterType)) {
+            throw new IllegalStateException("Unable to locate energy transporter type " + transporterType);
+        }
+    }
+
+    final class TransporterTypeNetworkTopologyListener implements EfficientNetworkTopologyListener<EnergyTransportNetworkNode> {
+        private String transporterType;
+
+        TransporterTypeNetworkTopologyListener(String transporterType) {
+            this.transporterType = transporterType;
+        }
+
+        @Override
+        public void networkAdded(Network2<EnergyTransportNetworkNode> network, NetworkChangeReason reason) {
+            energyNetworkLocationIndices.get(transporterType).networkAdded(network);
+            if (!energyNetworkBuffers.get(transporterType).containsKey(network)) {
+                createBuffer(network);
+            }
+        }
+
+        @Override
+        public void networkRemoved(Network2<EnergyTransportNetworkNode> network, NetworkChangeReason reason) {
+            energyNetworkLocationIndices.get(transporterType).networkRemoved(network);
+            NetworkEnergyBuffer buffer = energyNetworkBuffers.get(transporterType).remove(network);
+            if (buffer != null) {
+                buffer.detachAll();
+            }
+        }
+
+        @Override
+        public void networkSplit(Network2<EnergyTransportNetworkNode> oldNetwork,
+                                 Set<? extends Network2<EnergyTransportNetworkNode>> resultNetworks, NetworkChangeReason reason) {
+            energyNetworkLocationIndices.get(transporterType).networkSplit(oldNetwork, resultNetworks);
+            Map<Network2<EnergyTransportNetworkNode>, NetworkEnergyBuffer> buffersOfType = energyNetworkBuffers.get(transporterType);
+            NetworkEnergyBuffer oldBuffer = buffersOfType.remove(oldNetwork);
+            float oldCapacity = 0;
+            float oldStored = 0;
+            if (oldBuffer != null) {
+                oldCapacity = oldBuffer.getCapacity();
+                oldStored = oldBuffer.getStored();
+                // Detached before any result buffer attaches, so that all the producers and consumers can move over
+                oldBuffer.detachAll();
+            }
+
+            for (Network2<EnergyTransportNetworkNode> resultNetwork : resultNetworks) {
+                NetworkEnergyBuffer resultBuffer = buffersOfType.get(resultNetwork);
+                if (resultBuffer == null) {
+                    resultBuffer = createBuffer(resultNetwork);
+                } else {
+                    // The buffer was created while the old buffer still held the attachments at its locations
+                    for (EnergyTransportNetworkNode node : resultNetwork.getNetworkingNodes()) {
+                        attachUnattached(resultBuffer, BlockLocations.pack(node.location));
+                    }
+                }
+                if (oldCapacity > 0) {
+                    resultBuffer.setStored(oldStored * resultBuffer.getCapacity() / oldCapacity);
+                }
+            }
+        }
+
+        @Override
+        public void networksMerged(Set<? extends Network2<EnergyTransportNetworkNode>> oldNetworks,
+                                   Network2<EnergyTransportNetworkNode> newNetwork, NetworkChangeReason reason) {
+            energyNetworkLocationIndices.get(transporterType).networksMerged(oldNetworks, newNetwork);
+            Map<Network2<EnergyTransportNetworkNode>, NetworkEnergyBuffer> buffersOfType = energyNetworkBuffers.get(transporterType);
+            float stored = 0;
+            for (Network2<EnergyTransportNetworkNode> oldNetwork : oldNetworks) {
+                NetworkEnergyBuffer oldBuffer = buffersOfType.remove(oldNetwork);
+                if (oldBuffer != null) {
+                    stored += oldBuffer.getStored();
+                    oldBuffer.detachAll();
+                }
+            }
+            NetworkEnergyBuffer newBuffer = buffersOfType.remove(newNetwork);
+            if (newBuffer != null) {
+                stored += newBuffer.getStored();
+                newBuffer.detachAll();
+            }
+            createBuffer(newNetwork).setStored(stored);
+        }
+
+        @Override
+        public void networkingNodesAdded(Network2<EnergyTransportNetworkNode> network, Set<EnergyTransportNetworkNode> networkingNodes, NetworkChangeReason reason) {
+            energyNetworkLocationIndices.get(transporterType).nodesAdded(network, networkingNodes);
+            NetworkEnergyBuffer buffer = energyNetworkBuffers.get(transporterType).get(network);
+            if (buffer == null) {
+                createBuffer(network);
+            } else {
+                for (EnergyTransportNetworkNode node : networkingNodes) {
+                    buffer.addCapacity(node.capacity);
+                    attachUnattached(buffer, BlockLocations.pack(node.location));
+                }
+            }
+        }
+
+        @Override
+        public void networkingNodesRemoved(Network2<EnergyTransportNetworkNode> network, Set<EnergyTransportNetworkNode> networkingNodes, NetworkChangeReason reason) {
+            NetworkLocationIndex<EnergyTransportNetworkNode> networkLocationIndex = energyNetworkLocationIndices.get(transporterType);
+            networkLocationIndex.nodesRemoved(network, networkingNodes);
+            NetworkEnergyBuffer buffer = energyNetworkBuffers.get(transporterType).get(network);
+            if (buffer != null) {
+                TLongObjectMap<List<EnergyAttachment>> attachmentsOfType = energyAttachments.get(transporterType);
+                for (EnergyTransportNetworkNode node : networkingNodes) {
+                    buffer.removeCapacity(node.capacity);
+                    long location = BlockLocations.pack(node.location);
+                    List<EnergyAttachment> attachmentsAtLocation = attachmentsOfType.get(location);
+                    if (attachmentsAtLocation != null && !networkLocationIndex.hasNodeOfNetworkAt(location, network)) {
+                        for (EnergyAttachment attachment : attachmentsAtLocation) {
+                            if (attachment.buffer == buffer) {
+                                buffer.detach(attachment);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Creates the buffer of the network with the capacity of all its nodes, attaching all the unattached producers
+         * and consumers at the nodes' locations.
+         */
+        private NetworkEnergyBuffer createBuffer(Network2<EnergyTransportNetworkNode> network) {
+            NetworkEnergyBuffer buffer = new NetworkEnergyBuffer();
+            for (EnergyTransportNetworkNode node : network.getNetworkingNodes()) {
+                buffer.addCapacity(node.capacity);
+                attachUnattached(buffer, BlockLocations.pack(node.location));
+            }
+            energyNetworkBuffers.get(transporterType).put(network, buffer);
+            return buffer;
+        }
+
+        private void attachUnattached(NetworkEnergyBuffer buffer, long location) {
+            List<EnergyAttachment> attachmentsAtLocation = energyAttachments.get(transporterType).get(location);
+            if (attachmentsAtLocation != null) {
+                for (EnergyAttachment attachment : attachmentsAtLocation) {
+                    if (attachment.buffer == null) {
+                        buffer.attach(attachment);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.energy.system;
+
+import org.terasology.blockNetwork.Network2;
+import org.terasology.math.geom.Vector3i;
+
+public interface EnergyTransportRegistry {
+    void registerEnergyTransporterType(String transporterType);
+
+    Network2<EnergyTransportNetworkNode> findNetworkAt(String transporterType, Vector3i location);
+
+    /**
+     * Attaches the producer to the network with a node at the specified location. If there is no such network (yet),
+     * the producer gets attached, once a network appears at that location.
+     *
+     * @param transporterType
+     * @param location
+     * @param producer
+     */
+    void addEnergyProducer(String transporterType, Vector3i location, EnergyProducer producer);
+
+    void removeEnergyProducer(String transporterType, Vector3i location, EnergyProducer producer);
+
+    /**
+     * Attaches the consumer to the network with a node at the specified location. If there is no such network (yet),
+     * the consumer gets attached, once a network appears at that location.
+     *
+     * @param transporterType
+     * @param location
+     * @param consumer
+     */
+    void addEnergyConsumer(String transporterType, Vector3i location, EnergyConsumer consumer);
+
+    void removeEnergyConsumer(String transporterType, Vector3i location, EnergyConsumer consumer);
+
+    /**
+     * @return Energy stored in the network, or 0 if there is no such network.
+     */
+    float getStoredEnergy(String transporterType, Network2<EnergyTransportNetworkNode> network);
+
+    /**
+     * @return Total capacity of all the blocks of the network, or 0 if there is no such network.
+     */
+    float getEnergyCapacity(String transporterType, Network2<EnergyTransportNetworkNode> network);
+}
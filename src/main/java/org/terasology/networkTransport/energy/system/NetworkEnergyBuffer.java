@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.energy.system;
+
+import com.google.common.collect.Lists;
+
+import java.util.List;
+
+/**
+ * Aggregate energy buffer of a single network. All the storage capacity of the network's blocks is pooled into it, and
+ * all the producers and consumers attached to the network exchange energy only with it, so a tick costs
+ * O(producers + consumers), no matter how many blocks the network consists of.
+ */
+public class NetworkEnergyBuffer {
+    private float capacity;
+    private float stored;
+    private List<EnergyAttachment> producers = Lists.newArrayList();
+    private List<EnergyAttachment> consumers = Lists.newArrayList();
+    private float[] demands = new float[16];
+
+    public float getCapacity() {
+        return capacity;
+    }
+
+    public float getStored() {
+        return stored;
+    }
+
+    public int getProducerCount() {
+        return producers.size();
+    }
+
+    public int getConsumerCount() {
+        return consumers.size();
+    }
+
+    void setStored(float stored) {
+        this.stored = Math.max(0, Math.min(stored, capacity));
+    }
+
+    void addCapacity(float addedCapacity) {
+        capacity += addedCapacity;
+    }
+
+    /**
+     * Reduces the capacity of the buffer, any energy above the new capacity is lost.
+     */
+    void removeCapacity(float removedCapacity) {
+        capacity = Math.max(0, capacity - removedCapacity);
+        stored = Math.min(stored, capacity);
+    }
+
+    void attach(EnergyAttachment attachment) {
+        List<EnergyAttachment> attachments = attachment.producer != null ? producers : consumers;
+        attachment.buffer = this;
+        attachment.slot = attachments.size();
+        attachments.add(attachment);
+    }
+
+    void detach(EnergyAttachment attachment) {
+        List<EnergyAttachment> attachments = attachment.producer != null ? producers : consumers;
+        EnergyAttachment last = attachments.remove(attachments.size() - 1);
+        if (last != attachment) {
+            last.slot = attachment.slot;
+            attachments.set(attachment.slot, last);
+        }
+        attachment.buffer = null;
+    }
+
+    void detachAll() {
+        for (EnergyAttachment producer : producers) {
+            producer.buffer = null;
+        }
+        for (EnergyAttachment consumer : consumers) {
+            consumer.buffer = null;
+        }
+        producers.clear();
+        consumers.clear();
+    }
+
+    /**
+     * Collects the energy from all the producers and distributes it (together with the stored energy) to all the
+     * consumers. Energy left over is stored, up to the capacity of the buffer. Producers and consumers must not be
+     * attached or detached from within the callbacks.
+     */
+    public void tick(long deltaMillis) {
+        float available = stored;
+        for (EnergyAttachment producer : producers) {
+            available += Math.max(0, producer.producer.produceEnergy(deltaMillis));
+        }
+
+        int consumerCount = consumers.size();
+        if (demands.length < consumerCount) {
+            demands = new float[Math.max(consumerCount, demands.length * 2)];
+        }
+        float totalDemand = 0;
+        for (int i = 0; i < consumerCount; i++) {
+            float demand = Math.max(0, consumers.get(i).consumer.getEnergyDemand(deltaMillis));
+            demands[i] = demand;
+            totalDemand += demand;
+        }
+        if (totalDemand > 0) {
+            float ratio = Math.min(1, available / totalDemand);
+            for (int i = 0; i < consumerCount; i++) {
+                consumers.get(i).consumer.energySupplied(demands[i] * ratio);
+            }
+            available = Math.max(0, available - totalDemand);
+        }
+        stored = Math.min(available, capacity);
+    }
+}
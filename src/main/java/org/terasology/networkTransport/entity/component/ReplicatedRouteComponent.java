@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.component;
+
+import org.terasology.entitySystem.Component;
+import org.terasology.network.Replicate;
+
+/**
+ * Route of a routed entity replicated to the clients, so that they can compute the position of the entity locally
+ * from the game time, instead of receiving its location continuously. It changes only when the entity is routed or
+ * rerouted.
+ */
+public class ReplicatedRouteComponent implements Component {
+    /**
+     * Block path of the route, encoded with LinearTransportRouteCodec.
+     */
+    @Replicate
+    public String path;
+    @Replicate
+    public long millisPerUnit;
+    /**
+     * Game time (in milliseconds) when the entity started its route.
+     */
+    @Replicate
+    public long routingStart;
+}
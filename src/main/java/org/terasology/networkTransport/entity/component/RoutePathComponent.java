@@ -0,0 +1,31 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.component;
+
+import org.terasology.entitySystem.Component;
+
+/**
+ * Compact form of the route of a stored routed entity, so that it can resume its route after being loaded, without
+ * the route being planned again.
+ */
+public class RoutePathComponent implements Component {
+    /**
+     * Block path of the route, encoded with LinearTransportRouteCodec.
+     */
+    public String path;
+    public long millisPerUnit;
+    public long duration;
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+/**
+ * Items on the conveyors of a single network, kept in primitive arrays indexed by the order of the network's blocks.
+ * Each block holds a fixed number of slots in a ring buffer, slot 0 being the entry and the last slot being the exit
+ * of the block. Each block has at most one next block, that its exit leads into.
+ * <p>
+ * A step moves every item one slot forward, unless the slot ahead is taken. Blocks are stepped downstream first, so
+ * that a saturated conveyor moves as a whole. A block, which whole content moves, is advanced by rotating its ring
+ * buffer, so the cost of a step depends on the number of blocks, not on the number of items. Within loops, one block
+ * is stepped before the block its exit leads into, so an item passing that point can move two slots in one step.
+ */
+public class ConveyorNetworkState {
+    public static final int NO_ITEM = 0;
+    public static final int NO_NODE = -1;
+    public static final byte NO_SIDE = -1;
+
+    private final int nodeCount;
+    private final int slotsPerNode;
+    private final long[] locations;
+    private final int[] next;
+    private final byte[] exitSides;
+    private final int[] order;
+
+    private final int[] slots;
+    private final int[] heads;
+    private final int[] nodeItemCounts;
+    private int itemCount;
+
+    private final TLongIntMap nodesByLocation;
+
+    /**
+     * @param locations Locations of the blocks, packed with {@link org.terasology.networkTransport.network.BlockLocations#pack}.
+     * @param next      Index of the block the exit of each block leads into, or -1.
+     * @param exitSides Ordinal of the side each block outputs to, or -1.
+     */
+    public ConveyorNetworkState(long[] locations, int[] next, byte[] exitSides, int slotsPerNode) {
+        this.nodeCount = locations.length;
+        this.slotsPerNode = slotsPerNode;
+        this.locations = locations;
+        this.next = next;
+        this.exitSides = exitSides;
+        this.slots = new int[nodeCount * slotsPerNode];
+        this.heads = new int[nodeCount];
+        this.nodeItemCounts = new int[nodeCount];
+        this.nodesByLocation = new TLongIntHashMap(nodeCount, 0.5f, Long.MIN_VALUE, NO_NODE);
+        for (int i = 0; i < nodeCount; i++) {
+            nodesByLocation.put(locations[i], i);
+        }
+        this.order = computeOrder();
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getSlotsPerNode() {
+        return slotsPerNode;
+    }
+
+    /**
+     * @return Index of the block at the location packed with
+     * {@link org.terasology.networkTransport.network.BlockLocations#pack}, or -1 if there is no such block.
+     */
+    public int getNodeIndex(long location) {
+        return nodesByLocation.get(location);
+    }
+
+    public long getLocation(int node) {
+        return locations[node];
+    }
+
+    public int getNext(int node) {
+        return next[node];
+    }
+
+    public byte getExitSide(int node) {
+        return exitSides[node];
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public int getItemCount(int node) {
+        return nodeItemCounts[node];
+    }
+
+    public int getItem(int node, int slot) {
+        return slots[slotIndex(node, slot)];
+    }
+
+    /**
+     * Puts the item into the entry slot of the block.
+     *
+     * @return If the item was put, <code>false</code> if the slot is taken.
+     */
+    public boolean insert(int node, int item) {
+        int index = slotIndex(node, 0);
+        if (slots[index] != NO_ITEM) {
+            return false;
+        }
+        slots[index] = item;
+        nodeItemCounts[node]++;
+        itemCount++;
+        return true;
+    }
+
+    public boolean isEntryFree(int node) {
+        return slots[slotIndex(node, 0)] == NO_ITEM;
+    }
+
+    /**
+     * Puts the item into the slot of the block, replacing any item in it.
+     */
+    public void setItem(int node, int slot, int item) {
+        int index = slotIndex(node, slot);
+        if (slots[index] != NO_ITEM) {
+            nodeItemCounts[node]--;
+            itemCount--;
+        }
+        slots[index] = item;
+        if (item != NO_ITEM) {
+            nodeItemCounts[node]++;
+            itemCount++;
+        }
+    }
+
+    /**
+     * Removes the item from the slot of the block.
+     *
+     * @return The removed item or {@link #NO_ITEM}.
+     */
+    public int takeItem(int node, int slot) {
+        int index = slotIndex(node, slot);
+        int item = slots[index];
+        if (item != NO_ITEM) {
+            slots[index] = NO_ITEM;
+            nodeItemCounts[node]--;
+            itemCount--;
+        }
+        return item;
+    }
+
+    /**
+     * Moves all the items by one slot, where possible. Items in the exit slots of the blocks without a next block are
+     * passed to the delivery, and stay in place if not accepted.
+     */
+    public void step(Delivery delivery) {
+        for (int i = 0; i < nodeCount; i++) {
+            int node = order[i];
+            if (nodeItemCounts[node] > 0) {
+                stepNode(node, delivery);
+            }
+        }
+    }
+
+    private void stepNode(int node, Delivery delivery) {
+        int exitIndex = slotIndex(node, slotsPerNode - 1);
+        int item = slots[exitIndex];
+        boolean exitFree = true;
+        if (item != NO_ITEM) {
+            int nextNode = next[node];
+            if (nextNode != NO_NODE) {
+                int entryIndex = slotIndex(nextNode, 0);
+                if (slots[entryIndex] == NO_ITEM) {
+                    slots[entryIndex] = item;
+                    nodeItemCounts[nextNode]++;
+                } else {
+                    exitFree = false;
+                }
+            } else if (delivery.deliver(node, item)) {
+                itemCount--;
+            } else {
+                exitFree = false;
+            }
+            if (exitFree) {
+                slots[exitIndex] = NO_ITEM;
+                nodeItemCounts[node]--;
+            }
+        }
+
+        if (exitFree) {
+            // Everything moves forward, the emptied exit slot becomes the entry slot
+            heads[node] = heads[node] == 0 ? slotsPerNode - 1 : heads[node] - 1;
+        } else {
+            // Items queued behind the blocked exit stay, the ones behind the first gap move into it
+            int gap = slotsPerNode - 2;
+            while (gap >= 0 && slots[slotIndex(node, gap)] != NO_ITEM) {
+                gap--;
+            }
+            if (gap >= 0) {
+                for (int slot = gap; slot > 0; slot--) {
+                    slots[slotIndex(node, slot)] = slots[slotIndex(node, slot - 1)];
+                }
+                slots[slotIndex(node, 0)] = NO_ITEM;
+            }
+        }
+    }
+
+    private int slotIndex(int node, int slot) {
+        int index = heads[node] + slot;
+        if (index >= slotsPerNode) {
+            index -= slotsPerNode;
+        }
+        return node * slotsPerNode + index;
+    }
+
+    /**
+     * Orders the blocks so that each block comes after the block its exit leads into. Starts at the ends of the
+     * conveyors and walks them backwards, each loop is entered at an arbitrary block.
+     */
+    private int[] computeOrder() {
+        int[] predecessorStart = new int[nodeCount + 1];
+        for (int i = 0; i < nodeCount; i++) {
+            if (next[i] != NO_NODE) {
+                predecessorStart[next[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            predecessorStart[i + 1] += predecessorStart[i];
+        }
+        int[] predecessors = new int[predecessorStart[nodeCount]];
+        int[] predecessorFill = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            if (next[i] != NO_NODE) {
+                predecessors[predecessorStart[next[i]] + predecessorFill[next[i]]++] = i;
+            }
+        }
+
+        int[] result = new int[nodeCount];
+        boolean[] ordered = new boolean[nodeCount];
+        int orderedCount = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            if (next[i] == NO_NODE) {
+                result[orderedCount++] = i;
+                ordered[i] = true;
+            }
+        }
+        int processed = 0;
+        int[] walkStamps = new int[nodeCount];
+        int start = 0;
+        while (true) {
+            while (processed < orderedCount) {
+                int node = result[processed++];
+                for (int p = predecessorStart[node]; p < predecessorStart[node + 1]; p++) {
+                    int predecessor = predecessors[p];
+                    if (!ordered[predecessor]) {
+                        result[orderedCount++] = predecessor;
+                        ordered[predecessor] = true;
+                    }
+                }
+            }
+            while (start < nodeCount && ordered[start]) {
+                start++;
+            }
+            if (start == nodeCount) {
+                return result;
+            }
+            // Not reachable backwards from the end of any conveyor, so following the exits leads into a loop
+            int node = start;
+            while (walkStamps[node] != start + 1) {
+                walkStamps[node] = start + 1;
+                node = next[node];
+            }
+            result[orderedCount++] = node;
+            ordered[node] = true;
+        }
+    }
+
+    public interface Delivery {
+        /**
+         * @return If the item was accepted and should be removed from the network.
+         */
+        boolean deliver(int node, int item);
+    }
+}
@@ -0,0 +1,515 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.terasology.blockNetwork.EfficientNetworkTopologyListener;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.network.BlockLocations;
+import org.terasology.networkTransport.network.NetworkLocationIndex;
+
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transport of a single transporter type using the slotted conveyor model. All the blocks at a location act as
+ * a single conveyor block, that leads into the first neighbour accepting input from its output sides.
+ * <p>
+ * Items are identified by handles into a payload pool shared by all the networks of the type. On topology changes the
+ * items are kept per block location, until the states of the networks now containing these locations are rebuilt
+ * (before the next step), items left in locations no longer part of any network are reported as removed with the
+ * reason of the change, that took them out of their network.
+ * <p>
+ * Topology changes caused by the handler while the networks are being stepped (e.g. the handler placing or removing
+ * blocks when an item is delivered) are deferred until the step is finished.
+ */
+final class ConveyorTransport implements EfficientNetworkTopologyListener<EntityTransportNetworkNode>, ConveyorNetworkState.Delivery {
+    private static final Side[] SIDES = Side.values();
+    private static final int MAX_STEPS_PER_UPDATE = 8;
+
+    private final ConveyorTransportHandler handler;
+    private final NetworkLocationIndex<EntityTransportNetworkNode> networkLocationIndex;
+    private final TransportMetrics metrics;
+    private final int slotsPerBlock;
+    private final long stepMillis;
+
+    private Map<Network2<EntityTransportNetworkNode>, ConveyorNetworkState> states = Maps.newLinkedHashMap();
+    private Set<Network2<EntityTransportNetworkNode>> dirtyNetworks = Sets.newLinkedHashSet();
+    private TLongObjectMap<CarriedItems> carriedItems = new TLongObjectHashMap<>();
+    private List<Runnable> deferredTopologyEvents = Lists.newArrayList();
+
+    private Object[] payloads = new Object[16];
+    private int[] freeItems = new int[16];
+    private int freeItemCount;
+    private int nextItem = 1;
+
+    private long lastStepTime = -1;
+    private boolean stepping;
+    private Network2<EntityTransportNetworkNode> steppedNetwork;
+    private ConveyorNetworkState steppedState;
+
+    private Vector3i locationCache = new Vector3i();
+    private Vector3f positionCache = new Vector3f();
+
+    ConveyorTransport(ConveyorTransportHandler handler, NetworkLocationIndex<EntityTransportNetworkNode> networkLocationIndex,
+                      TransportMetrics metrics, int slotsPerBlock, long stepMillis) {
+        this.handler = handler;
+        this.networkLocationIndex = networkLocationIndex;
+        this.metrics = metrics;
+        this.slotsPerBlock = slotsPerBlock;
+        this.stepMillis = stepMillis;
+    }
+
+    /**
+     * Rebuilds the states of the networks modified since the last update and advances all the networks by as many
+     * steps as fit into the elapsed time. If the updates fall too far behind, the missed steps are dropped.
+     */
+    void update(long gameTime) {
+        rebuildDirtyStates();
+        if (lastStepTime == -1) {
+            lastStepTime = gameTime;
+            return;
+        }
+        int steps = 0;
+        while (gameTime - lastStepTime >= stepMillis && steps < MAX_STEPS_PER_UPDATE) {
+            if (steps > 0) {
+                // Apply the topology changes made by the handler during the previous step
+                rebuildDirtyStates();
+            }
+            step();
+            lastStepTime += stepMillis;
+            steps++;
+        }
+        if (gameTime - lastStepTime >= stepMillis) {
+            lastStepTime = gameTime;
+        }
+    }
+
+    private void step() {
+        stepping = true;
+        try {
+            for (Map.Entry<Network2<EntityTransportNetworkNode>, ConveyorNetworkState> stateEntry : states.entrySet()) {
+                steppedNetwork = stateEntry.getKey();
+                steppedState = stateEntry.getValue();
+                steppedState.step(this);
+            }
+        } finally {
+            stepping = false;
+            steppedNetwork = null;
+            steppedState = null;
+            processDeferredTopologyEvents();
+        }
+    }
+
+    private void processDeferredTopologyEvents() {
+        if (!deferredTopologyEvents.isEmpty()) {
+            for (Runnable topologyEvent : deferredTopologyEvents) {
+                topologyEvent.run();
+            }
+            deferredTopologyEvents.clear();
+        }
+    }
+
+    @Override
+    public boolean deliver(int node, int item) {
+        byte exitSide = steppedState.getExitSide(node);
+        long handlerStart = System.nanoTime();
+        boolean accepted = handler.itemDelivered(steppedNetwork, unpack(steppedState.getLocation(node)),
+                exitSide != ConveyorNetworkState.NO_SIDE ? SIDES[exitSide] : null, payloads[item]);
+        metrics.recordHandlerCall(steppedNetwork, System.nanoTime() - handlerStart);
+        if (accepted) {
+            releaseItem(item);
+            metrics.recordArrival();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return If the item was inserted into the entry slot of the block at the location.
+     */
+    boolean insert(Vector3i location, Object payload) {
+        Network2<EntityTransportNetworkNode> network = networkLocationIndex.getNetworkAt(location);
+        if (network == null) {
+            return false;
+        }
+        if (dirtyNetworks.contains(network)) {
+            // States can't be rebuilt, while the networks are being stepped
+            if (stepping) {
+                return false;
+            }
+            dirtyNetworks.remove(network);
+            rebuildState(network);
+        }
+        ConveyorNetworkState state = states.get(network);
+        int node = state != null ? state.getNodeIndex(BlockLocations.pack(location)) : ConveyorNetworkState.NO_NODE;
+        if (node == ConveyorNetworkState.NO_NODE || !state.isEntryFree(node)) {
+            return false;
+        }
+        state.insert(node, allocateItem(payload));
+        metrics.recordRouted();
+        return true;
+    }
+
+    Collection<Network2<EntityTransportNetworkNode>> getNetworks() {
+        return Collections.unmodifiableCollection(states.keySet());
+    }
+
+    int getItemCount(Network2<EntityTransportNetworkNode> network) {
+        ConveyorNetworkState state = states.get(network);
+        return state != null ? state.getItemCount() : 0;
+    }
+
+    /**
+     * Writes the positions of the items in the network (or in all the networks, if <code>null</code>) within the
+     * region (if specified) into the position buffer, and their handles into the id buffer.
+     *
+     * @return Number of items written.
+     */
+    int fillPositions(Network2<EntityTransportNetworkNode> network, Vector3f regionMin, Vector3f regionMax,
+                      FloatBuffer positionBuffer, LongBuffer idBuffer) {
+        if (network != null) {
+            ConveyorNetworkState state = states.get(network);
+            return state != null ? fillPositions(state, regionMin, regionMax, positionBuffer, idBuffer) : 0;
+        }
+        int written = 0;
+        for (ConveyorNetworkState state : states.values()) {
+            written += fillPositions(state, regionMin, regionMax, positionBuffer, idBuffer);
+        }
+        return written;
+    }
+
+    private int fillPositions(ConveyorNetworkState state, Vector3f regionMin, Vector3f regionMax, FloatBuffer positionBuffer, LongBuffer idBuffer) {
+        int written = 0;
+        for (int node = 0; node < state.getNodeCount(); node++) {
+            if (state.getItemCount(node) == 0) {
+                continue;
+            }
+            long location = state.getLocation(node);
+            byte exitSide = state.getExitSide(node);
+            int dx = 0;
+            int dy = 0;
+            int dz = 0;
+            if (exitSide != ConveyorNetworkState.NO_SIDE) {
+                Vector3i direction = SIDES[exitSide].getVector3i();
+                dx = direction.x;
+                dy = direction.y;
+                dz = direction.z;
+            }
+            for (int slot = 0; slot < slotsPerBlock; slot++) {
+                int item = state.getItem(node, slot);
+                if (item == ConveyorNetworkState.NO_ITEM) {
+                    continue;
+                }
+                if (positionBuffer.remaining() < 3 || !idBuffer.hasRemaining()) {
+                    return written;
+                }
+                // Slots are spread evenly along the block, from the entry side to the exit side
+                float offset = (slot + 0.5f) / slotsPerBlock - 0.5f;
+                positionCache.set(BlockLocations.unpackX(location) + dx * offset, BlockLocations.unpackY(location) + dy * offset,
+                        BlockLocations.unpackZ(location) + dz * offset);
+                if (regionMin != null
+                        && (positionCache.x < regionMin.x || positionCache.y < regionMin.y || positionCache.z < regionMin.z
+                        || positionCache.x > regionMax.x || positionCache.y > regionMax.y || positionCache.z > regionMax.z)) {
+                    continue;
+                }
+                positionBuffer.put(positionCache.x).put(positionCache.y).put(positionCache.z);
+                idBuffer.put(item);
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private void rebuildDirtyStates() {
+        if (!dirtyNetworks.isEmpty()) {
+            for (Network2<EntityTransportNetworkNode> network : dirtyNetworks) {
+                rebuildState(network);
+            }
+            dirtyNetworks.clear();
+        }
+        if (!carriedItems.isEmpty()) {
+            TLongObjectIterator<CarriedItems> iterator = carriedItems.iterator();
+            while (iterator.hasNext()) {
+                iterator.advance();
+                CarriedItems carried = iterator.value();
+                for (int item : carried.items) {
+                    if (item != ConveyorNetworkState.NO_ITEM) {
+                        itemRemovedFromNetwork(iterator.key(), item, carried.reason);
+                    }
+                }
+            }
+            carriedItems.clear();
+        }
+    }
+
+    private void rebuildState(Network2<EntityTransportNetworkNode> network) {
+        EntityTransportNetworkNode[] nodes = network.getNetworkingNodes().toArray(new EntityTransportNetworkNode[0]);
+        Arrays.sort(nodes, Comparator.comparingLong(node -> BlockLocations.pack(node.location)));
+
+        long[] locations = new long[nodes.length];
+        byte[] inputSides = new byte[nodes.length];
+        byte[] outputSides = new byte[nodes.length];
+        int nodeCount = 0;
+        for (EntityTransportNetworkNode node : nodes) {
+            long location = BlockLocations.pack(node.location);
+            if (nodeCount == 0 || locations[nodeCount - 1] != location) {
+                locations[nodeCount++] = location;
+            }
+            inputSides[nodeCount - 1] |= node.inputSides;
+            outputSides[nodeCount - 1] |= node.outputSides;
+        }
+        locations = Arrays.copyOf(locations, nodeCount);
+        TLongIntMap nodesByLocation = new TLongIntHashMap(nodeCount, 0.5f, Long.MIN_VALUE, ConveyorNetworkState.NO_NODE);
+        for (int i = 0; i < nodeCount; i++) {
+            nodesByLocation.put(locations[i], i);
+        }
+
+        int[] next = new int[nodeCount];
+        byte[] exitSides = new byte[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            next[i] = ConveyorNetworkState.NO_NODE;
+            exitSides[i] = ConveyorNetworkState.NO_SIDE;
+            int x = BlockLocations.unpackX(locations[i]);
+            int y = BlockLocations.unpackY(locations[i]);
+            int z = BlockLocations.unpackZ(locations[i]);
+            for (Side side : SIDES) {
+                if (SideBitFlag.hasSide(outputSides[i], side)) {
+                    if (exitSides[i] == ConveyorNetworkState.NO_SIDE) {
+                        exitSides[i] = (byte) side.ordinal();
+                    }
+                    Vector3i direction = side.getVector3i();
+                    int neighbour = nodesByLocation.get(BlockLocations.pack(x + direction.x, y + direction.y, z + direction.z));
+                    if (neighbour != ConveyorNetworkState.NO_NODE && SideBitFlag.hasSide(inputSides[neighbour], side.reverse())) {
+                        next[i] = neighbour;
+                        exitSides[i] = (byte) side.ordinal();
+                        break;
+                    }
+                }
+            }
+        }
+
+        ConveyorNetworkState state = new ConveyorNetworkState(locations, next, exitSides, slotsPerBlock);
+        for (int i = 0; i < nodeCount; i++) {
+            CarriedItems carried = carriedItems.remove(locations[i]);
+            if (carried != null) {
+                for (int slot = 0; slot < slotsPerBlock; slot++) {
+                    state.setItem(i, slot, carried.items[slot]);
+                }
+            }
+        }
+        states.put(network, state);
+    }
+
+    /**
+     * Removes the state of the network, keeping its items by location, until the states of the networks now
+     * containing these locations are rebuilt. The reason is reported for the items, that end up outside of all the
+     * networks.
+     */
+    private void carryItems(Network2<EntityTransportNetworkNode> network, NetworkChangeReason reason) {
+        ConveyorNetworkState state = states.remove(network);
+        if (state != null) {
+            for (int node = 0; node < state.getNodeCount(); node++) {
+                if (state.getItemCount(node) > 0) {
+                    int[] items = new int[slotsPerBlock];
+                    for (int slot = 0; slot < slotsPerBlock; slot++) {
+                        items[slot] = state.getItem(node, slot);
+                    }
+                    carriedItems.put(state.getLocation(node), new CarriedItems(items, reason));
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the items in the blocks at the locations of the nodes, unless the network still has a node there.
+     */
+    private void removeItemsAt(Network2<EntityTransportNetworkNode> network, Collection<EntityTransportNetworkNode> nodes, NetworkChangeReason reason) {
+        ConveyorNetworkState state = states.get(network);
+        if (state == null) {
+            return;
+        }
+        for (EntityTransportNetworkNode node : nodes) {
+            long location = BlockLocations.pack(node.location);
+            int index = state.getNodeIndex(location);
+            if (index != ConveyorNetworkState.NO_NODE && !networkLocationIndex.hasNodeOfNetworkAt(location, network)) {
+                removeItems(state, index, reason);
+            }
+        }
+    }
+
+    private void removeItems(ConveyorNetworkState state, int node, NetworkChangeReason reason) {
+        for (int slot = 0; slot < slotsPerBlock && state.getItemCount(node) > 0; slot++) {
+            int item = state.takeItem(node, slot);
+            if (item != ConveyorNetworkState.NO_ITEM) {
+                itemRemovedFromNetwork(state.getLocation(node), item, reason);
+            }
+        }
+    }
+
+    /**
+     * Releases the item and passes it to the handler. The call is not recorded for any network, as the network of the
+     * item is usually gone by then.
+     */
+    private void itemRemovedFromNetwork(long location, int item, NetworkChangeReason reason) {
+        Object payload = releaseItem(item);
+        long handlerStart = System.nanoTime();
+        handler.itemRemovedFromNetwork(unpack(location), payload, reason);
+        metrics.recordHandlerCall(null, System.nanoTime() - handlerStart);
+    }
+
+    private int allocateItem(Object payload) {
+        int item;
+        if (freeItemCount > 0) {
+            item = freeItems[--freeItemCount];
+        } else {
+            item = nextItem++;
+            if (item >= payloads.length) {
+                payloads = Arrays.copyOf(payloads, payloads.length * 2);
+            }
+        }
+        payloads[item] = payload;
+        return item;
+    }
+
+    private Object releaseItem(int item) {
+        Object payload = payloads[item];
+        payloads[item] = null;
+        if (freeItemCount == freeItems.length) {
+            freeItems = Arrays.copyOf(freeItems, freeItems.length * 2);
+        }
+        freeItems[freeItemCount++] = item;
+        return payload;
+    }
+
+    private Vector3i unpack(long location) {
+        locationCache.set(BlockLocations.unpackX(location), BlockLocations.unpackY(location), BlockLocations.unpackZ(location));
+        return locationCache;
+    }
+
+    @Override
+    public void networkAdded(Network2<EntityTransportNetworkNode> network, NetworkChangeReason reason) {
+        if (stepping) {
+            deferredTopologyEvents.add(() -> networkAdded(network, reason));
+            return;
+        }
+        networkLocationIndex.networkAdded(network);
+        dirtyNetworks.add(network);
+    }
+
+    @Override
+    public void networkRemoved(Network2<EntityTransportNetworkNode> network, NetworkChangeReason reason) {
+        if (stepping) {
+            deferredTopologyEvents.add(() -> networkRemoved(network, reason));
+            return;
+        }
+        networkLocationIndex.networkRemoved(network);
+        dirtyNetworks.remove(network);
+        ConveyorNetworkState state = states.remove(network);
+        if (state != null) {
+            for (int node = 0; node < state.getNodeCount(); node++) {
+                removeItems(state, node, reason);
+            }
+        }
+    }
+
+    @Override
+    public void networkSplit(Network2<EntityTransportNetworkNode> oldNetwork, Set<? extends Network2<EntityTransportNetworkNode>> resultNetworks,
+                             NetworkChangeReason reason) {
+        if (stepping) {
+            Set<Network2<EntityTransportNetworkNode>> resultNetworksCopy = Sets.newHashSet(resultNetworks);
+            deferredTopologyEvents.add(() -> networkSplit(oldNetwork, resultNetworksCopy, reason));
+            return;
+        }
+        networkLocationIndex.networkSplit(oldNetwork, resultNetworks);
+        carryItems(oldNetwork, reason);
+        dirtyNetworks.remove(oldNetwork);
+        dirtyNetworks.addAll(resultNetworks);
+    }
+
+    @Override
+    public void networksMerged(Set<? extends Network2<EntityTransportNetworkNode>> oldNetworks, Network2<EntityTransportNetworkNode> newNetwork,
+                               NetworkChangeReason reason) {
+        if (stepping) {
+            Set<Network2<EntityTransportNetworkNode>> oldNetworksCopy = Sets.newHashSet(oldNetworks);
+            deferredTopologyEvents.add(() -> networksMerged(oldNetworksCopy, newNetwork, reason));
+            return;
+        }
+        networkLocationIndex.networksMerged(oldNetworks, newNetwork);
+        for (Network2<EntityTransportNetworkNode> oldNetwork : oldNetworks) {
+            carryItems(oldNetwork, reason);
+            dirtyNetworks.remove(oldNetwork);
+        }
+        carryItems(newNetwork, reason);
+        dirtyNetworks.add(newNetwork);
+    }
+
+    @Override
+    public void networkingNodesAdded(Network2<EntityTransportNetworkNode> network, Set<EntityTransportNetworkNode> networkingNodes,
+                                     NetworkChangeReason reason) {
+        if (stepping) {
+            Set<EntityTransportNetworkNode> networkingNodesCopy = Sets.newHashSet(networkingNodes);
+            deferredTopologyEvents.add(() -> networkingNodesAdded(network, networkingNodesCopy, reason));
+            return;
+        }
+        networkLocationIndex.nodesAdded(network, networkingNodes);
+        carryItems(network, reason);
+        dirtyNetworks.add(network);
+    }
+
+    @Override
+    public void networkingNodesRemoved(Network2<EntityTransportNetworkNode> network, Set<EntityTransportNetworkNode> networkingNodes,
+                                       NetworkChangeReason reason) {
+        if (stepping) {
+            Set<EntityTransportNetworkNode> networkingNodesCopy = Sets.newHashSet(networkingNodes);
+            deferredTopologyEvents.add(() -> networkingNodesRemoved(network, networkingNodesCopy, reason));
+            return;
+        }
+        networkLocationIndex.nodesRemoved(network, networkingNodes);
+        removeItemsAt(network, networkingNodes, reason);
+        carryItems(network, reason);
+        dirtyNetworks.add(network);
+    }
+
+    private static final class CarriedItems {
+        private final int[] items;
+        private final NetworkChangeReason reason;
+
+        private CarriedItems(int[] items, NetworkChangeReason reason) {
+            this.items = items;
+            this.reason = reason;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+import org.terasology.math.Side;
+import org.terasology.math.geom.Vector3i;
+
+/**
+ * Handler of a transporter type using the slotted conveyor model, see
+ * {@link EntityTransportRegistry#registerConveyorTransportHandler(String, ConveyorTransportHandler, int, long)}.
+ */
+public interface ConveyorTransportHandler {
+    /**
+     * Called when an item reaches the exit of a block, that does not lead into another block of the network. If the
+     * item is not accepted, it stays in the block and the items behind it queue up. Changes of the networks caused
+     * by the handler take effect after all the networks of the transporter type were stepped.
+     *
+     * @param network
+     * @param location Location of the block (the passed instance is reused).
+     * @param exitSide Side the block outputs to, or <code>null</code> if it has no output side.
+     * @param payload
+     * @return If the item was accepted and should be removed from the network.
+     */
+    boolean itemDelivered(Network2<EntityTransportNetworkNode> network, Vector3i location, Side exitSide, Object payload);
+
+    /**
+     * Called when an item is removed from the network, because the block it was in was removed (WORLD_CHANGE) or
+     * unloaded (CHUNK_EVENT). In the latter case it's up to the handler to store the item, if it should be kept.
+     *
+     * @param location
+     * @param payload
+     * @param reason
+     */
+    void itemRemovedFromNetwork(Vector3i location, Object payload, NetworkChangeReason reason);
+}
@@ -15,10 +15,19 @@
  */
 package org.terasology.networkTransport.entity.system;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.iterator.TObjectLongIterator;
+import gnu.trove.map.TLongLongMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.terasology.blockNetwork.BlockNetworkUtil;
@@ -37,16 +46,21 @@ import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
 import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
-import org.terasology.logic.delay.DelayManager;
-import org.terasology.logic.delay.DelayedActionTriggeredEvent;
 import org.terasology.logic.location.LocationComponent;
 import org.terasology.math.Side;
-import org.terasology.math.SideBitFlag;
 import org.terasology.math.geom.Vector3f;
 import org.terasology.math.geom.Vector3i;
+import org.terasology.network.ClientComponent;
+import org.terasology.network.NetworkComponent;
+import org.terasology.network.NetworkMode;
+import org.terasology.network.NetworkSystem;
 import org.terasology.networkTransport.entity.component.EntityTransporterComponent;
+import org.terasology.networkTransport.entity.component.ReplicatedRouteComponent;
+import org.terasology.networkTransport.entity.component.RoutePathComponent;
 import org.terasology.networkTransport.entity.component.RoutedEntityComponent;
 import org.terasology.networkTransport.entity.component.RoutingProgressComponent;
+import org.terasology.networkTransport.network.BlockLocations;
+import org.terasology.networkTransport.network.NetworkLocationIndex;
 import org.terasology.registry.In;
 import org.terasology.registry.Share;
 import org.terasology.world.WorldProvider;
@@ -55,16 +69,29 @@ import org.terasology.world.block.Block;
 import org.terasology.world.block.BlockComponent;
 import org.terasology.world.block.OnActivatedBlocks;
 
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
 
 @RegisterSystem(RegisterMode.AUTHORITY)
 @Share(EntityTransportRegistry.class)
 public class EntityTransportAuthoritySystem extends BaseComponentSystem implements EntityTransportRegistry, UpdateSubscriberSystem {
     private static final Logger logger = LoggerFactory.getLogger(EntityTransportAuthoritySystem.class);
-    private static final String ARRIVAL_ACTION_ID = "NetworkTransport:Arrival";
+    private static final long ARRIVAL_TICK_MILLIS = 10;
+    private static final long DEFAULT_PENDING_LOAD_TIME_BUDGET = 2000000;
+    private static final byte NO_CONNECTIONS_CACHED = -1;
+    private static final long DORMANCY_CHECK_INTERVAL = 1000;
+    private static final long DEFAULT_DORMANCY_IDLE_TIME = 30000;
+    private static final float DEFAULT_DORMANCY_DISTANCE = 96;
 
     @In
     private WorldProvider worldProvider;
@@ -73,77 +100,403 @@ public class EntityTransportAuthoritySystem extends BaseComponentSystem implemen
     @In
     private Time time;
     @In
-    private DelayManager delayManager;
+    private NetworkSystem networkSystem;
 
     private Map<String, EntityTransportHandler> entityTransportRegistry = Maps.newHashMap();
 
     private Map<String, EfficientBlockNetwork<EntityTransportNetworkNode>> entityTransportNetworks = Maps.newHashMap();
 
-    private Map<String, Map<Network2<EntityTransportNetworkNode>, Collection<RoutedEntity>>> entityNetworkRoutedEntities = Maps.newHashMap();
+    private Map<String, NetworkLocationIndex<EntityTransportNetworkNode>> entityNetworkLocationIndices = Maps.newHashMap();
 
-    private Multimap<String, EntityRef> pendingLoadedUnassignedEntities = HashMultimap.create();
+    private Map<String, EntityTransportRoutePlanner> entityTransportRoutePlanners = Maps.newHashMap();
+
+    private ForkJoinPool routePlanningPool;
+    private ConcurrentLinkedQueue<PlannedRoute> plannedRoutes = new ConcurrentLinkedQueue<>();
+
+    private Map<String, Map<Network2<EntityTransportNetworkNode>, RoutedEntityStore>> entityNetworkRoutedEntities = Maps.newHashMap();
+
+    private Map<String, TransportMetrics> transportMetrics = Maps.newHashMap();
+
+    private Map<String, ConveyorTransport> conveyorTransports = Maps.newLinkedHashMap();
+
+    private TObjectLongMap<String> itemStackingWindows = new TObjectLongHashMap<>();
+    private Map<String, Map<TransportRoute, OpenPacket>> openPackets = Maps.newHashMap();
+    private TLongLongMap stackedItemPackets = new TLongLongHashMap();
+    private TLongObjectMap<TLongSet> packetStackedItems = new TLongObjectHashMap<>();
+
+    private Map<String, Map<Network2<EntityTransportNetworkNode>, NetworkModification>> pendingNetworkModifications = Maps.newHashMap();
+
+    private PendingLoadedEntities pendingLoadedUnassignedEntities = new PendingLoadedEntities();
+    private long pendingLoadTimeBudget = DEFAULT_PENDING_LOAD_TIME_BUDGET;
+    private TLongObjectMap<Network2<EntityTransportNetworkNode>> pendingGroupNetworks = new TLongObjectHashMap<>();
+
+    private Vector3f positionCache = new Vector3f();
+
+    private Map<Block, byte[]> connectionsCache = Maps.newHashMap();
+    private Set<EntityTransportNetworkNode> transportNodesCache = Sets.newHashSet();
+
+    private TimingWheel<ScheduledArrival> arrivalWheel;
+    private TLongObjectMap<TimingWheel.Timer<ScheduledArrival>> arrivalTimers = new TLongObjectHashMap<>();
+    private List<ScheduledArrival> arrivedBuffer = Lists.newArrayList();
+    private Map<Network2<EntityTransportNetworkNode>, TLongObjectMap<ArrivalGroup>> arrivalGroupsByNetwork = Maps.newHashMap();
+    private List<ArrivalGroup> arrivalGroups = Lists.newArrayList();
+
+    private Map<Network2<EntityTransportNetworkNode>, NetworkActivity> networkActivities = Maps.newHashMap();
+    private long dormancyIdleTime = DEFAULT_DORMANCY_IDLE_TIME;
+    private float dormancyDistance = DEFAULT_DORMANCY_DISTANCE;
+    private long nextDormancyCheck;
+    private List<Vector3f> playerPositions = Lists.newArrayList();
+
+    private boolean replicatingRoutes;
+
+    private long nextRoutedItemId = -1;
+    private List<EntityRef> savedItemEntities = Lists.newArrayList();
+
+    @Override
+    public void initialise() {
+        long gameTime = time.getGameTimeInMs();
+        arrivalWheel = new TimingWheel<>(ARRIVAL_TICK_MILLIS, gameTime);
+        nextDormancyCheck = gameTime + DORMANCY_CHECK_INTERVAL;
+        routePlanningPool = new ForkJoinPool();
+    }
+
+    @Override
+    public void shutdown() {
+        routePlanningPool.shutdown();
+    }
 
     /**
-     * Merges all the pending (loaded) entities into their networks.
+     * Notifies about all the entities that arrived at their destination and about all the networks modified during
+     * the tick, and merges the pending (loaded) entities into their networks, as many as fit into the time budget.
+     * Once in a while, idle networks far from players go dormant and dormant networks close to players wake up. Without
+     * any players, no network goes dormant.
+     * Routes planned asynchronously since the last tick are applied first. Routes are replicated only while there are
+     * remote clients, when the first one connects, the routes of all the routed entities are replicated at once.
+     * Routes planned during the tick, that no entity started using, are evicted from the route caches at the end.
      *
      * @param delta The time (in seconds) since the last engine update.
      */
     @Override
     public void update(float delta) {
-        if (!pendingLoadedUnassignedEntities.isEmpty()) {
-            for (Map.Entry<String, EntityRef> transportTypeEntityEntry : pendingLoadedUnassignedEntities.entries()) {
-                String transportType = transportTypeEntityEntry.getKey();
-                EntityRef entity = transportTypeEntityEntry.getValue();
+        long gameTime = time.getGameTimeInMs();
+        boolean replicatedRoutes = replicatingRoutes;
+        replicatingRoutes = networkSystem.getMode() != NetworkMode.NONE && networkSystem.getPlayers().iterator().hasNext();
+        if (replicatingRoutes && !replicatedRoutes) {
+            replicateAllRoutes();
+        }
+        applyPlannedRoutes();
+        if (gameTime >= nextDormancyCheck) {
+            updateDormancy(gameTime);
+            nextDormancyCheck = gameTime + DORMANCY_CHECK_INTERVAL;
+        }
 
-                mergeRoutedEntityIntoNetwork(transportType, entity);
-                entity.destroy();
-            }
-            pendingLoadedUnassignedEntities.clear();
+        processArrivals();
+        notifyNetworksModified();
+        processPendingLoadedEntities();
+        for (ConveyorTransport conveyorTransport : conveyorTransports.values()) {
+            conveyorTransport.update(gameTime);
+        }
+        closeOpenPackets(gameTime);
+        for (EntityTransportRoutePlanner routePlanner : entityTransportRoutePlanners.values()) {
+            routePlanner.evictUnusedRoutes();
+        }
+
+        for (Map.Entry<String, TransportMetrics> metricsOfType : transportMetrics.entrySet()) {
+            TransportMetrics metrics = metricsOfType.getValue();
+            metrics.sampleRates(gameTime);
+            metrics.setPendingLoadBacklog(pendingLoadedUnassignedEntities.size(metricsOfType.getKey()));
         }
     }
 
     /**
      * Unloads all entities from routed networks. This is to have consistent state between games recovered from crash
-     * (from auto-save) and games that just unloaded all chunks (game exit).
+     * (from auto-save) and games that just unloaded all chunks (game exit). Lightweight items stay lightweight - an
+     * entity is created for each item only to be saved, and destroyed again in {@link #postSave()}.
      */
     @Override
     public void preSave() {
-        for (Map<Network2<EntityTransportNetworkNode>, Collection<RoutedEntity>> routedEntitiesInNetworksOfType : entityNetworkRoutedEntities.values()) {
-            for (Collection<RoutedEntity> routedEntitiesInNetwork : routedEntitiesInNetworksOfType.values()) {
-                for (RoutedEntity routedEntity : routedEntitiesInNetwork) {
-                    updateEntityForStoring(routedEntity, routedEntity.entity);
+        for (Map.Entry<String, Map<Network2<EntityTransportNetworkNode>, RoutedEntityStore>> routedEntitiesOfType : entityNetworkRoutedEntities.entrySet()) {
+            String transporterType = routedEntitiesOfType.getKey();
+            for (RoutedEntityStore routedEntitiesInNetwork : routedEntitiesOfType.getValue().values()) {
+                for (int slot = 0; slot < routedEntitiesInNetwork.size(); slot++) {
+                    long id = routedEntitiesInNetwork.getId(slot);
+                    long routingStart = routedEntitiesInNetwork.getRoutingStart(slot);
+                    TransportRoute transportRoute = routedEntitiesInNetwork.getTransportRoute(slot);
+                    long duration = getArrivalTime(id, transportRoute, routingStart) - routingStart;
+                    if (id >= 0) {
+                        updateEntityForStoring(transportRoute, routingStart, duration, routedEntitiesInNetwork.getEntity(slot));
+                    } else {
+                        for (int i = 0; i < routedEntitiesInNetwork.getCount(slot); i++) {
+                            EntityRef savedEntity = createRoutedEntity(transporterType, routedEntitiesInNetwork.getPayload(slot));
+                            updateEntityForStoring(transportRoute, routingStart, duration, savedEntity);
+                            savedItemEntities.add(savedEntity);
+                        }
+                    }
                 }
             }
         }
     }
 
     /**
-     * Loads all entities into networks that have been temporarily removed from them, due to saving.
+     * Destroys the entities created for saving the lightweight items.
      */
     @Override
     public void postSave() {
-        for (Map<Network2<EntityTransportNetworkNode>, Collection<RoutedEntity>> routedEntitiesInNetworksOfType : entityNetworkRoutedEntities.values()) {
-            for (Collection<RoutedEntity> routedEntitiesInNetwork : routedEntitiesInNetworksOfType.values()) {
-                for (RoutedEntity routedEntity : routedEntitiesInNetwork) {
-                    long transportDuration = routedEntity.transportRoute.getTransportDuration();
-                    long progress = routedEntity.entity.getComponent(RoutingProgressComponent.class).progress;
-                    delayManager.addDelayedAction(routedEntity.entity, ARRIVAL_ACTION_ID, transportDuration - progress);
+        for (EntityRef savedEntity : savedItemEntities) {
+            savedEntity.destroy();
+        }
+        savedItemEntities.clear();
+    }
+
+    /**
+     * Freezes the idle networks far from all the players and wakes up the dormant networks close to any of them. When
+     * there are no players (e.g. a headless server with chunks kept loaded by other relevance regions), there is no
+     * position to tell the distance from, so all the networks are kept awake.
+     */
+    private void updateDormancy(long gameTime) {
+        for (EntityRef clientEntity : entityManager.getEntitiesWith(ClientComponent.class)) {
+            LocationComponent location = clientEntity.getComponent(ClientComponent.class).character.getComponent(LocationComponent.class);
+            if (location != null) {
+                playerPositions.add(location.getWorldPosition());
+            }
+        }
+        boolean observed = !playerPositions.isEmpty();
+        for (Map.Entry<String, Map<Network2<EntityTransportNetworkNode>, RoutedEntityStore>> routedEntitiesOfType : entityNetworkRoutedEntities.entrySet()) {
+            String transporterType = routedEntitiesOfType.getKey();
+            Map<Network2<EntityTransportNetworkNode>, NetworkModification> modifications = pendingNetworkModifications.get(transporterType);
+            for (Map.Entry<Network2<EntityTransportNetworkNode>, RoutedEntityStore> routedEntitiesEntry : routedEntitiesOfType.getValue().entrySet()) {
+                Network2<EntityTransportNetworkNode> network = routedEntitiesEntry.getKey();
+                NetworkActivity activity = getNetworkActivity(network);
+                boolean nearPlayer = !observed || activity.isNearAny(network, playerPositions, dormancyDistance);
+                if (activity.dormant) {
+                    if (nearPlayer) {
+                        wakeNetwork(transporterType, network);
+                    }
+                } else if (!nearPlayer && gameTime - activity.lastInputTime >= dormancyIdleTime && !modifications.containsKey(network)) {
+                    freezeNetwork(network, routedEntitiesEntry.getValue());
                 }
             }
         }
+        playerPositions.clear();
     }
 
-    private void mergeRoutedEntityIntoNetwork(String transportType, EntityRef entity) {
+    /**
+     * Cancels the arrivals of all the entities in the network (keeping their arrival times in the timers) and drops
+     * the block index of the network's store, so that the network costs nothing per tick, until it wakes up. The
+     * entities keep their slots in the store and their timers, so the memory held is not reduced.
+     */
+    private void freezeNetwork(Network2<EntityTransportNetworkNode> network, RoutedEntityStore routedEntities) {
+        for (int slot = 0; slot < routedEntities.size(); slot++) {
+            arrivalWheel.cancel(arrivalTimers.get(routedEntities.getId(slot)));
+        }
+        routedEntities.setIndexed(false);
+        getNetworkActivity(network).dormant = true;
+    }
+
+    /**
+     * Reschedules the arrivals of all the entities in a dormant network. Positions of the entities are computed from
+     * their routing start, so only the arrivals have to be caught up with - all the arrivals that happened while the
+     * network was dormant are dispatched at once, on the next tick.
+     */
+    private void wakeNetwork(String transporterType, Network2<EntityTransportNetworkNode> network) {
+        NetworkActivity activity = networkActivities.get(network);
+        if (activity == null || !activity.dormant) {
+            return;
+        }
+        activity.dormant = false;
+        RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(transporterType).get(network);
+        if (routedEntities != null) {
+            routedEntities.setIndexed(true);
+            for (int slot = 0; slot < routedEntities.size(); slot++) {
+                TimingWheel.Timer<ScheduledArrival> timer = arrivalTimers.get(routedEntities.getId(slot));
+                arrivalWheel.reschedule(timer, timer.getExpireTime());
+            }
+        }
+    }
+
+    /**
+     * Wakes the network up (if dormant) and notes the input, that keeps it from going dormant.
+     */
+    private void networkInput(String transporterType, Network2<EntityTransportNetworkNode> network) {
+        wakeNetwork(transporterType, network);
+        getNetworkActivity(network).lastInputTime = time.getGameTimeInMs();
+    }
+
+    private NetworkActivity getNetworkActivity(Network2<EntityTransportNetworkNode> network) {
+        NetworkActivity activity = networkActivities.get(network);
+        if (activity == null) {
+            activity = new NetworkActivity(time.getGameTimeInMs());
+            networkActivities.put(network, activity);
+        }
+        return activity;
+    }
+
+    private void processArrivals() {
+        arrivalWheel.advance(time.getGameTimeInMs(), arrivedBuffer);
+        if (!arrivedBuffer.isEmpty()) {
+            for (ScheduledArrival arrival : arrivedBuffer) {
+                arrivalTimers.remove(arrival.id);
+                RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(arrival.transporterType).get(arrival.network);
+                int slot = routedEntities.getSlot(arrival.id);
+                EntityRef entity = routedEntities.getEntity(slot);
+                Object payload = routedEntities.getPayload(slot);
+                TransportRoute transportRoute = routedEntities.getTransportRoute(slot);
+                int count = routedEntities.getCount(slot);
+                entityTransportRoutePlanners.get(arrival.transporterType).releaseRoute(transportRoute);
+                routedEntities.remove(arrival.id);
+                transportMetrics.get(arrival.transporterType).recordArrivals(count);
+
+                Vector3f destination = transportRoute.getPosition(transportRoute.getTransportDuration(), positionCache);
+                long destinationBlock = BlockLocations.pack(destination);
+                if (arrival.id < 0) {
+                    forgetStackedItems(arrival.id);
+                    // Packets are split back into items, each arriving on its own
+                    EntityTransportHandler entityTransportHandler = entityTransportRegistry.get(arrival.transporterType);
+                    for (int i = 0; i < count; i++) {
+                        long handlerStart = System.nanoTime();
+                        boolean handled = entityTransportHandler.routedItemArrived(payload);
+                        recordHandlerCall(arrival.transporterType, arrival.network, handlerStart);
+                        if (!handled) {
+                            getArrivalGroup(arrival.transporterType, arrival.network, destinationBlock).entities.add(
+                                    createRoutedEntity(arrival.transporterType, payload));
+                        }
+                    }
+                } else {
+                    getArrivalGroup(arrival.transporterType, arrival.network, destinationBlock).entities.add(entity);
+                }
+            }
+            arrivedBuffer.clear();
+
+            for (ArrivalGroup arrivalGroup : arrivalGroups) {
+                long handlerStart = System.nanoTime();
+                entityTransportRegistry.get(arrivalGroup.transporterType).entitiesArrived(arrivalGroup.network, arrivalGroup.entities);
+                recordHandlerCall(arrivalGroup.transporterType, arrivalGroup.network, handlerStart);
+                for (EntityRef entity : arrivalGroup.entities) {
+                    entity.destroy();
+                }
+            }
+            arrivalGroups.clear();
+            arrivalGroupsByNetwork.clear();
+        }
+    }
+
+    private ArrivalGroup getArrivalGroup(String transporterType, Network2<EntityTransportNetworkNode> network, long destination) {
+        TLongObjectMap<ArrivalGroup> networkArrivalGroups = arrivalGroupsByNetwork.get(network);
+        if (networkArrivalGroups == null) {
+            networkArrivalGroups = new TLongObjectHashMap<>();
+            arrivalGroupsByNetwork.put(network, networkArrivalGroups);
+        }
+        ArrivalGroup arrivalGroup = networkArrivalGroups.get(destination);
+        if (arrivalGroup == null) {
+            arrivalGroup = new ArrivalGroup(transporterType, network);
+            networkArrivalGroups.put(destination, arrivalGroup);
+            arrivalGroups.add(arrivalGroup);
+        }
+        return arrivalGroup;
+    }
+
+    /**
+     * Notifies the handlers about all the modifications buffered during the tick, once per modified network.
+     */
+    private void notifyNetworksModified() {
+        for (Map.Entry<String, Map<Network2<EntityTransportNetworkNode>, NetworkModification>> modificationsOfType : pendingNetworkModifications.entrySet()) {
+            String transporterType = modificationsOfType.getKey();
+            Map<Network2<EntityTransportNetworkNode>, NetworkModification> modifications = modificationsOfType.getValue();
+            if (!modifications.isEmpty()) {
+                EntityTransportHandler entityTransportHandler = entityTransportRegistry.get(transporterType);
+                for (Map.Entry<Network2<EntityTransportNetworkNode>, NetworkModification> modificationEntry : modifications.entrySet()) {
+                    Network2<EntityTransportNetworkNode> network = modificationEntry.getKey();
+                    NetworkModification modification = modificationEntry.getValue();
+                    if (!modification.isEmpty()) {
+                        Set<RoutedEntity> affectedRoutedEntities = Sets.newHashSet();
+                        getRoutedEntities(transporterType, network).collectAffected(modification.getAddedNodes(),
+                                modification.getRemovedNodes(), affectedRoutedEntities);
+                        long handlerStart = System.nanoTime();
+                        entityTransportHandler.networkModified(network, modification.getAddedNodes(), modification.getRemovedNodes(),
+                                affectedRoutedEntities);
+                        recordHandlerCall(transporterType, network, handlerStart);
+                    }
+                }
+                modifications.clear();
+            }
+        }
+    }
+
+    /**
+     * Merges pending entities into their networks chunk by chunk, until the time budget runs out. At least one entity
+     * is processed each tick, so that the backlog always drains. Networks are resolved once per block within a chunk
+     * group.
+     */
+    private void processPendingLoadedEntities() {
+        if (pendingLoadedUnassignedEntities.isEmpty()) {
+            return;
+        }
+        long deadline = System.nanoTime() + pendingLoadTimeBudget;
+        PendingLoadedEntities.Group resolvedGroup = null;
+        PendingLoadedEntities.Group group;
+        while ((group = pendingLoadedUnassignedEntities.peekGroup()) != null) {
+            if (group != resolvedGroup) {
+                pendingGroupNetworks.clear();
+                resolvedGroup = group;
+            }
+            EntityRef entity = pendingLoadedUnassignedEntities.poll(group);
+            // The entity might have been unloaded again, while waiting
+            if (entity.exists() && !mergeRoutedEntityIntoNetwork(group.getTransporterType(), entity)) {
+                entity.destroy();
+            }
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+        pendingGroupNetworks.clear();
+    }
+
+    /**
+     * Merges the loaded entity into the network it is in. If the stored route of the entity is still valid in the
+     * network, the entity resumes it, otherwise the handler is notified about the discovered entity.
+     *
+     * @return If the entity resumed its route (and should not be destroyed).
+     */
+    private boolean mergeRoutedEntityIntoNetwork(String transportType, EntityRef entity) {
         RoutingProgressComponent routingProgressComponent = entity.getComponent(RoutingProgressComponent.class);
         Vector3f worldLocation = entity.getComponent(LocationComponent.class).getWorldPosition();
 
         Vector3i blockLocation = new Vector3i(worldLocation);
-        Network2<EntityTransportNetworkNode> network = findNetworkWithBlock(entityTransportNetworks.get(transportType).getNetworks(), blockLocation);
+        long packedLocation = BlockLocations.pack(blockLocation);
+        Network2<EntityTransportNetworkNode> network = pendingGroupNetworks.get(packedLocation);
+        if (network == null && !pendingGroupNetworks.containsKey(packedLocation)) {
+            network = entityNetworkLocationIndices.get(transportType).getNetworkAt(blockLocation);
+            pendingGroupNetworks.put(packedLocation, network);
+        }
         if (network != null) {
+            if (resumeStoredRoute(transportType, network, entity, routingProgressComponent.progress)) {
+                return true;
+            }
+            long handlerStart = System.nanoTime();
             entityTransportRegistry.get(transportType).entityDiscoveredInNetwork(entity, network, routingProgressComponent.progress);
+            recordHandlerCall(transportType, network, handlerStart);
         } else {
             logger.error("Discovered transported entity without network it belongs to.");
         }
+        return false;
+    }
+
+    private boolean resumeStoredRoute(String transportType, Network2<EntityTransportNetworkNode> network, EntityRef entity, long progress) {
+        RoutePathComponent routePath = entity.getComponent(RoutePathComponent.class);
+        if (routePath == null || routePath.path == null) {
+            return false;
+        }
+        LinearTransportRoute route = LinearTransportRouteCodec.decode(routePath.path, routePath.millisPerUnit);
+        if (route == null || !isRouteInNetwork(transportType, route, network)) {
+            return false;
+        }
+
+        networkInput(transportType, network);
+        long routingStart = time.getGameTimeInMs() - progress;
+        getRoutedEntities(transportType, network).put(entity.getId(), entity, null, route, routingStart);
+        replicateRoute(entity, route, routingStart);
+        scheduleArrival(transportType, network, entity.getId(), routingStart + routePath.duration);
+        return true;
     }
 
     @Override
@@ -151,73 +504,522 @@ public class EntityTransportAuthoritySystem extends BaseComponentSystem implemen
         entityTransportRegistry.put(transporterType, entityTransportHandler);
         EfficientBlockNetwork<EntityTransportNetworkNode> blockNetwork = new EfficientBlockNetwork<>();
         entityTransportNetworks.put(transporterType, blockNetwork);
-        blockNetwork.addTopologyListener(new TransporterTypeNetworkTopologyListener(transporterType));
+        NetworkLocationIndex<EntityTransportNetworkNode> networkLocationIndex = new NetworkLocationIndex<>();
+        entityNetworkLocationIndices.put(transporterType, networkLocationIndex);
+        entityTransportRoutePlanners.put(transporterType, new EntityTransportRoutePlanner(networkLocationIndex));
+        TransportMetrics metrics = new TransportMetrics();
+        transportMetrics.put(transporterType, metrics);
+        blockNetwork.addTopologyListener(new TimedTopologyListener(new TransporterTypeNetworkTopologyListener(transporterType), metrics));
         entityNetworkRoutedEntities.put(transporterType, Maps.newHashMap());
+        pendingNetworkModifications.put(transporterType, Maps.newLinkedHashMap());
+    }
+
+    @Override
+    public void registerConveyorTransportHandler(String transporterType, ConveyorTransportHandler conveyorTransportHandler,
+                                                 int slotsPerBlock, long stepMillis) {
+        EfficientBlockNetwork<EntityTransportNetworkNode> blockNetwork = new EfficientBlockNetwork<>();
+        entityTransportNetworks.put(transporterType, blockNetwork);
+        NetworkLocationIndex<EntityTransportNetworkNode> networkLocationIndex = new NetworkLocationIndex<>();
+        entityNetworkLocationIndices.put(transporterType, networkLocationIndex);
+        TransportMetrics metrics = new TransportMetrics();
+        transportMetrics.put(transporterType, metrics);
+        ConveyorTransport conveyorTransport = new ConveyorTransport(conveyorTransportHandler, networkLocationIndex, metrics, slotsPerBlock, stepMillis);
+        conveyorTransports.put(transporterType, conveyorTransport);
+        blockNetwork.addTopologyListener(new TimedTopologyListener(conveyorTransport, metrics));
+    }
+
+    @Override
+    public boolean insertConveyorItem(String transporterType, Vector3i location, Object payload) {
+        validateTransporterType(transporterType);
+        ConveyorTransport conveyorTransport = conveyorTransports.get(transporterType);
+        if (conveyorTransport == null) {
+            throw new IllegalStateException("Transporter type " + transporterType + " does not use the conveyor model");
+        }
+        return conveyorTransport.insert(location, payload);
+    }
+
+    @Override
+    public void setPendingLoadTimeBudget(long timeBudgetNanos) {
+        pendingLoadTimeBudget = timeBudgetNanos;
+    }
+
+    @Override
+    public int getPendingLoadBacklog() {
+        return pendingLoadedUnassignedEntities.size();
+    }
+
+    @Override
+    public void setDormancyThresholds(long idleTimeMillis, float playerDistance) {
+        dormancyIdleTime = idleTimeMillis;
+        dormancyDistance = playerDistance;
+    }
+
+    @Override
+    public boolean isNetworkDormant(Network2<EntityTransportNetworkNode> network) {
+        NetworkActivity activity = networkActivities.get(network);
+        return activity != null && activity.dormant;
+    }
+
+    @Override
+    public TransportMetrics getTransportMetrics(String transporterType) {
+        return transportMetrics.get(transporterType);
+    }
+
+    @Override
+    public Collection<Network2<EntityTransportNetworkNode>> getNetworks(String transporterType) {
+        ConveyorTransport conveyorTransport = conveyorTransports.get(transporterType);
+        if (conveyorTransport != null) {
+            return conveyorTransport.getNetworks();
+        }
+        return Collections.unmodifiableCollection(entityNetworkRoutedEntities.get(transporterType).keySet());
+    }
+
+    @Override
+    public int getRoutedEntityCount(String transporterType, Network2<EntityTransportNetworkNode> network) {
+        ConveyorTransport conveyorTransport = conveyorTransports.get(transporterType);
+        if (conveyorTransport != null) {
+            return conveyorTransport.getItemCount(network);
+        }
+        RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(transporterType).get(network);
+        return routedEntities != null ? routedEntities.getItemCount() : 0;
+    }
+
+    @Override
+    public int fillPositions(String transporterType, Network2<EntityTransportNetworkNode> network, FloatBuffer positionBuffer, LongBuffer idBuffer) {
+        ConveyorTransport conveyorTransport = conveyorTransports.get(transporterType);
+        if (conveyorTransport != null) {
+            return conveyorTransport.fillPositions(network, null, null, positionBuffer, idBuffer);
+        }
+        RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(transporterType).get(network);
+        if (routedEntities == null) {
+            return 0;
+        }
+        return routedEntities.fillPositions(time.getGameTimeInMs(), positionBuffer, idBuffer, null, null, positionCache);
+    }
+
+    @Override
+    public int fillPositions(String transporterType, Vector3f regionMin, Vector3f regionMax, FloatBuffer positionBuffer, LongBuffer idBuffer) {
+        ConveyorTransport conveyorTransport = conveyorTransports.get(transporterType);
+        if (conveyorTransport != null) {
+            return conveyorTransport.fillPositions(null, regionMin, regionMax, positionBuffer, idBuffer);
+        }
+        long gameTime = time.getGameTimeInMs();
+        int written = 0;
+        for (RoutedEntityStore routedEntities : entityNetworkRoutedEntities.get(transporterType).values()) {
+            written += routedEntities.fillPositions(gameTime, positionBuffer, idBuffer, regionMin, regionMax, positionCache);
+        }
+        return written;
     }
 
     @Override
     public Network2<EntityTransportNetworkNode> findNetworkAt(String transporterType, Vector3i location, Side connectionOnSide, boolean input) {
-        for (Network2<EntityTransportNetworkNode> network : entityTransportNetworks.get(transporterType).getNetworks()) {
-            for (EntityTransportNetworkNode networkNode : network.getNetworkingNodes()) {
-                byte nodeSides = input ? networkNode.inputSides : networkNode.outputSides;
-                if (networkNode.location.x == location.x
-                        && networkNode.location.y == location.y
-                        && networkNode.location.z == location.z
-                        && SideBitFlag.hasSide(nodeSides, connectionOnSide)) {
-                    return network;
-                }
+        return entityNetworkLocationIndices.get(transporterType).getNetworkAt(location, connectionOnSide, input);
+    }
+
+    @Override
+    public TransportRoute planRoute(String transporterType, Network2<EntityTransportNetworkNode> network,
+                                    Vector3i from, Side entrySide, Vector3i to, Side exitSide, long millisPerUnit) {
+        return entityTransportRoutePlanners.get(transporterType).planRoute(network, from, entrySide, to, exitSide, millisPerUnit);
+    }
+
+    @Override
+    public CompletableFuture<TransportRoute> planRouteAsync(String transporterType, Network2<EntityTransportNetworkNode> network,
+                                                            Vector3i from, Side entrySide, Vector3i to, Side exitSide, long millisPerUnit) {
+        EntityTransportRoutePlanner routePlanner = entityTransportRoutePlanners.get(transporterType);
+        EntityTransportRoutePlanner.RoutePlan routePlan = routePlanner.prepareRoutePlan(network, from, entrySide, to, exitSide, millisPerUnit,
+                routePlanningPool);
+        if (routePlan == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        PlannedRoute plannedRoute = new PlannedRoute(transporterType, routePlan);
+        routePlan.snapshot.thenAcceptAsync(snapshot -> EntityTransportRoutePlanner.computeRoutePlan(routePlan, snapshot), routePlanningPool)
+                .whenComplete((ignored, failure) -> {
+                    if (failure instanceof CompletionException && failure.getCause() != null) {
+                        routePlan.failure = failure.getCause();
+                    } else {
+                        routePlan.failure = failure;
+                    }
+                    plannedRoutes.add(plannedRoute);
+                });
+        return routePlan.future;
+    }
+
+    private void applyPlannedRoutes() {
+        PlannedRoute plannedRoute;
+        while ((plannedRoute = plannedRoutes.poll()) != null) {
+            EntityTransportRoutePlanner routePlanner = entityTransportRoutePlanners.get(plannedRoute.transporterType);
+            EntityTransportRoutePlanner.RoutePlan routePlan = plannedRoute.routePlan;
+            if (routePlan.failure != null) {
+                routePlan.future.completeExceptionally(routePlan.failure);
+            } else if (!routePlanner.isRoutePlanCurrent(routePlan)) {
+                routePlan.future.cancel(false);
+            } else {
+                routePlan.future.complete(routePlanner.applyRoutePlan(routePlan));
             }
         }
+    }
 
-        return null;
+    @Override
+    public Network2<EntityTransportNetworkNode> findNetworkOfRoutedEntity(EntityRef entity) {
+        TimingWheel.Timer<ScheduledArrival> timer = arrivalTimers.get(entity.getId());
+        return timer != null ? timer.getPayload().network : null;
     }
 
     @Override
     public EntityRef routeEntityThroughNetwork(String transporterType, Network2<EntityTransportNetworkNode> network, TransportRoute route, long duration) {
-        Collection<RoutedEntity> routedEntities = entityNetworkRoutedEntities.get(transporterType).get(network);
+        networkInput(transporterType, network);
+        RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(transporterType).get(network);
+        EntityRef entity = createRoutedEntity(transporterType, null);
+        long gameTime = time.getGameTimeInMs();
+        routedEntities.put(entity.getId(), entity, null, route, gameTime);
+        entityTransportRoutePlanners.get(transporterType).retainRoute(route);
+        replicateRoute(entity, route, gameTime);
+        scheduleArrival(transporterType, network, entity.getId(), gameTime + duration);
+        transportMetrics.get(transporterType).recordRouted();
+        return entity;
+    }
+
+    @Override
+    public long routeItemThroughNetwork(String transporterType, Network2<EntityTransportNetworkNode> network, Object payload,
+                                        TransportRoute route, long duration) {
+        networkInput(transporterType, network);
+        RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(transporterType).get(network);
+        long gameTime = time.getGameTimeInMs();
+        long stackingWindow = itemStackingWindows.get(transporterType);
+        if (stackingWindow > 0) {
+            long stackedItemId = stackIntoOpenPacket(transporterType, network, routedEntities, payload, route, gameTime, stackingWindow);
+            if (stackedItemId != 0) {
+                transportMetrics.get(transporterType).recordStacked();
+                return stackedItemId;
+            }
+        }
+
+        long itemId = nextRoutedItemId--;
+        routedEntities.put(itemId, EntityRef.NULL, payload, route, gameTime);
+        entityTransportRoutePlanners.get(transporterType).retainRoute(route);
+        scheduleArrival(transporterType, network, itemId, gameTime + duration);
+        transportMetrics.get(transporterType).recordRouted();
+        if (stackingWindow > 0) {
+            openPackets.get(transporterType).put(route, new OpenPacket(itemId, network, gameTime));
+        }
+        return itemId;
+    }
+
+    /**
+     * Adds the item to the packet opened on the route within the window, if the packet still travels unchanged and the
+     * handler finds the item compatible. The item gets an id of its own, mapped to the packet.
+     *
+     * @return Id of the stacked item or 0, if the item was not stacked.
+     */
+    private long stackIntoOpenPacket(String transporterType, Network2<EntityTransportNetworkNode> network, RoutedEntityStore routedEntities,
+                                     Object payload, TransportRoute route, long gameTime, long stackingWindow) {
+        OpenPacket openPacket = openPackets.get(transporterType).get(route);
+        if (openPacket == null || openPacket.network != network || gameTime - openPacket.routingStart > stackingWindow) {
+            return 0;
+        }
+        int slot = routedEntities.getSlot(openPacket.id);
+        if (slot == -1 || routedEntities.getTransportRoute(slot) != route || routedEntities.getRoutingStart(slot) != openPacket.routingStart) {
+            return 0;
+        }
+        long handlerStart = System.nanoTime();
+        boolean stackable = entityTransportRegistry.get(transporterType).canStackItems(routedEntities.getPayload(slot), payload);
+        recordHandlerCall(transporterType, network, handlerStart);
+        if (!stackable) {
+            return 0;
+        }
+        routedEntities.setCount(slot, routedEntities.getCount(slot) + 1);
+        long itemId = nextRoutedItemId--;
+        stackedItemPackets.put(itemId, openPacket.id);
+        TLongSet stackedItems = packetStackedItems.get(openPacket.id);
+        if (stackedItems == null) {
+            stackedItems = new TLongHashSet();
+            packetStackedItems.put(openPacket.id, stackedItems);
+        }
+        stackedItems.add(itemId);
+        return itemId;
+    }
+
+    /**
+     * Splits the item out of the packet it is stacked in (if any), so that it travels in a slot of its own, along the
+     * route of the packet. If the item is the first one of the packet, the rest of the packet moves on under the id of
+     * the item stacked next.
+     */
+    private void splitOutOfPacket(long itemId) {
+        long packetId = stackedItemPackets.containsKey(itemId) ? stackedItemPackets.remove(itemId) : itemId;
+        TLongSet stackedItems = packetStackedItems.remove(packetId);
+        if (stackedItems == null) {
+            return;
+        }
+        TimingWheel.Timer<ScheduledArrival> timer = arrivalTimers.get(packetId);
+        ScheduledArrival arrival = timer.getPayload();
+        RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(arrival.transporterType).get(arrival.network);
+        int slot = routedEntities.getSlot(packetId);
+        TransportRoute transportRoute = routedEntities.getTransportRoute(slot);
+        int count = routedEntities.getCount(slot);
+
+        long splitId;
+        int splitCount;
+        if (itemId == packetId) {
+            TLongIterator iterator = stackedItems.iterator();
+            splitId = iterator.next();
+            iterator.remove();
+            stackedItemPackets.remove(splitId);
+            iterator = stackedItems.iterator();
+            while (iterator.hasNext()) {
+                stackedItemPackets.put(iterator.next(), splitId);
+            }
+            OpenPacket openPacket = openPackets.get(arrival.transporterType).get(transportRoute);
+            if (openPacket != null && openPacket.id == packetId) {
+                openPacket.id = splitId;
+            }
+            packetId = splitId;
+            splitCount = count - 1;
+            routedEntities.setCount(slot, 1);
+        } else {
+            stackedItems.remove(itemId);
+            splitId = itemId;
+            splitCount = 1;
+            routedEntities.setCount(slot, count - 1);
+        }
+        if (!stackedItems.isEmpty()) {
+            packetStackedItems.put(packetId, stackedItems);
+        }
+
+        routedEntities.put(splitId, EntityRef.NULL, routedEntities.getPayload(slot), transportRoute, routedEntities.getRoutingStart(slot), splitCount);
+        entityTransportRoutePlanners.get(arrival.transporterType).retainRoute(transportRoute);
+        scheduleArrival(arrival.transporterType, arrival.network, splitId, timer.getExpireTime());
+        if (!timer.isScheduled()) {
+            // The network is dormant
+            arrivalWheel.cancel(arrivalTimers.get(splitId));
+        }
+    }
+
+    /**
+     * Drops the ids of the items stacked in the packet, once the packet is no longer routed as a lightweight item.
+     */
+    private void forgetStackedItems(long packetId) {
+        TLongSet stackedItems = packetStackedItems.remove(packetId);
+        if (stackedItems != null) {
+            TLongIterator iterator = stackedItems.iterator();
+            while (iterator.hasNext()) {
+                stackedItemPackets.remove(iterator.next());
+            }
+        }
+    }
+
+    private void closeOpenPackets(long gameTime) {
+        TObjectLongIterator<String> iterator = itemStackingWindows.iterator();
+        while (iterator.hasNext()) {
+            iterator.advance();
+            long stackingWindow = iterator.value();
+            openPackets.get(iterator.key()).values().removeIf(openPacket -> gameTime - openPacket.routingStart > stackingWindow);
+        }
+    }
+
+    @Override
+    public void setItemStackingWindow(String transporterType, long windowMillis) {
+        validateTransporterType(transporterType);
+        itemStackingWindows.put(transporterType, windowMillis);
+        Map<TransportRoute, OpenPacket> openPacketsOfType = openPackets.get(transporterType);
+        if (openPacketsOfType == null) {
+            openPackets.put(transporterType, Maps.newHashMap());
+        } else {
+            openPacketsOfType.clear();
+        }
+    }
+
+    @Override
+    public void rerouteEntityThroughNetwork(String transporterType, Network2<EntityTransportNetworkNode> network, EntityRef entity, TransportRoute route, long duration) {
+        networkInput(transporterType, network);
+        RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(transporterType).get(network);
+        long gameTime = time.getGameTimeInMs();
+        replaceRoute(transporterType, routedEntities, entity.getId(), route);
+        if (!routedEntities.reroute(entity.getId(), route, gameTime)) {
+            routedEntities.put(entity.getId(), entity, null, route, gameTime);
+        }
+        replicateRoute(entity, route, gameTime);
+        scheduleArrival(transporterType, network, entity.getId(), gameTime + duration);
+        transportMetrics.get(transporterType).recordReroute();
+    }
+
+    @Override
+    public void rerouteItemThroughNetwork(String transporterType, Network2<EntityTransportNetworkNode> network, long itemId, TransportRoute route, long duration) {
+        splitOutOfPacket(itemId);
+        RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(transporterType).get(network);
+        if (!routedEntities.contains(itemId)) {
+            throw new IllegalArgumentException("Item " + itemId + " is not routed through the network");
+        }
+        networkInput(transporterType, network);
+        long gameTime = time.getGameTimeInMs();
+        replaceRoute(transporterType, routedEntities, itemId, route);
+        routedEntities.reroute(itemId, route, gameTime);
+        EntityRef entity = routedEntities.getEntity(routedEntities.getSlot(itemId));
+        if (entity.exists()) {
+            replicateRoute(entity, route, gameTime);
+        }
+        scheduleArrival(transporterType, network, itemId, gameTime + duration);
+        transportMetrics.get(transporterType).recordReroute();
+    }
+
+    @Override
+    public EntityRef getRoutedItemEntity(long itemId) {
+        splitOutOfPacket(itemId);
+        TimingWheel.Timer<ScheduledArrival> timer = arrivalTimers.get(itemId);
+        if (timer == null) {
+            return EntityRef.NULL;
+        }
+        ScheduledArrival arrival = timer.getPayload();
+        RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(arrival.transporterType).get(arrival.network);
+        return getOrCreateEntity(routedEntities, routedEntities.getSlot(itemId));
+    }
+
+    /**
+     * Updates the use counts of shared routes, when the route of an entity (that might not be routed yet) is replaced.
+     */
+    private void replaceRoute(String transporterType, RoutedEntityStore routedEntities, long id, TransportRoute route) {
+        EntityTransportRoutePlanner routePlanner = entityTransportRoutePlanners.get(transporterType);
+        int slot = routedEntities.getSlot(id);
+        if (slot != -1) {
+            routePlanner.releaseRoute(routedEntities.getTransportRoute(slot));
+        }
+        routePlanner.retainRoute(route);
+    }
+
+    private EntityRef createRoutedEntity(String transporterType, Object payload) {
         EntityRef entity = entityManager.create();
         RoutedEntityComponent routedEntityComponent = new RoutedEntityComponent();
         routedEntityComponent.transporterType = transporterType;
         entity.addComponent(routedEntityComponent);
-        routeEntityInternal(routedEntities, entity, route, duration);
+        if (payload != null) {
+            long handlerStart = System.nanoTime();
+            entityTransportRegistry.get(transporterType).routedItemMaterialized(entity, payload);
+            recordHandlerCall(transporterType, null, handlerStart);
+        }
         return entity;
     }
 
-    @Override
-    public void rerouteEntityThroughNetwork(String transporterType, Network2<EntityTransportNetworkNode> network, EntityRef entity, TransportRoute route, long duration) {
-        Collection<RoutedEntity> routedEntities = entityNetworkRoutedEntities.get(transporterType).get(network);
-        delayManager.cancelDelayedAction(entity, ARRIVAL_ACTION_ID);
-        removeRoutedEntity(entity, routedEntities);
-        routeEntityInternal(routedEntities, entity, route, duration);
+    /**
+     * Records the time spent in a handler call, that started at the specified time.
+     *
+     * @param network Network the call was made for, or <code>null</code> if it was not made for a particular network.
+     */
+    private void recordHandlerCall(String transporterType, Network2<EntityTransportNetworkNode> network, long handlerStart) {
+        transportMetrics.get(transporterType).recordHandlerCall(network, System.nanoTime() - handlerStart);
     }
 
-    private void routeEntityInternal(Collection<RoutedEntity> routedEntities, EntityRef entity, TransportRoute route, long duration) {
-        routedEntities.add(new RoutedEntity(entity, route, time.getGameTimeInMs()));
-        delayManager.addDelayedAction(entity, ARRIVAL_ACTION_ID, duration);
+    /**
+     * Returns the entity in the slot of the store, creating one if the slot holds a lightweight item. From then on,
+     * the item is identified by the id of the created entity. A packet is split - the entity is created for its first
+     * item, and each of the other items gets an entity of its own (added to the end of the store), travelling along.
+     * The ids of the items stacked in the packet are no longer valid.
+     */
+    private EntityRef getOrCreateEntity(RoutedEntityStore routedEntities, int slot) {
+        long itemId = routedEntities.getId(slot);
+        if (itemId >= 0) {
+            return routedEntities.getEntity(slot);
+        }
+        forgetStackedItems(itemId);
+        TimingWheel.Timer<ScheduledArrival> timer = arrivalTimers.remove(itemId);
+        ScheduledArrival arrival = timer.getPayload();
+        Object payload = routedEntities.getPayload(slot);
+        TransportRoute transportRoute = routedEntities.getTransportRoute(slot);
+        long routingStart = routedEntities.getRoutingStart(slot);
+        int count = routedEntities.getCount(slot);
+        EntityRef entity = createRoutedEntity(arrival.transporterType, payload);
+        routedEntities.materialize(itemId, entity);
+        replicateRoute(entity, transportRoute, routingStart);
+        arrival.id = entity.getId();
+        arrivalTimers.put(entity.getId(), timer);
+
+        for (int i = 1; i < count; i++) {
+            EntityRef stackedEntity = createRoutedEntity(arrival.transporterType, payload);
+            long stackedId = stackedEntity.getId();
+            routedEntities.put(stackedId, stackedEntity, null, transportRoute, routingStart);
+            entityTransportRoutePlanners.get(arrival.transporterType).retainRoute(transportRoute);
+            replicateRoute(stackedEntity, transportRoute, routingStart);
+            scheduleArrival(arrival.transporterType, arrival.network, stackedId, timer.getExpireTime());
+            if (!timer.isScheduled()) {
+                // The network is dormant
+                arrivalWheel.cancel(arrivalTimers.get(stackedId));
+            }
+        }
+        return entity;
     }
 
-    private void removeRoutedEntity(EntityRef entity, Collection<RoutedEntity> routedEntities) {
-        Iterator<RoutedEntity> entityIterator = routedEntities.iterator();
-        while (entityIterator.hasNext()) {
-            RoutedEntity routedEntity = entityIterator.next();
-            if (routedEntity.entity == entity) {
-                entityIterator.remove();
+    private void replicateAllRoutes() {
+        for (Map<Network2<EntityTransportNetworkNode>, RoutedEntityStore> routedEntitiesInNetworksOfType : entityNetworkRoutedEntities.values()) {
+            for (RoutedEntityStore routedEntities : routedEntitiesInNetworksOfType.values()) {
+                for (int slot = 0; slot < routedEntities.size(); slot++) {
+                    if (routedEntities.getId(slot) >= 0) {
+                        replicateRoute(routedEntities.getEntity(slot), routedEntities.getTransportRoute(slot), routedEntities.getRoutingStart(slot));
+                    }
+                }
             }
         }
     }
 
-    @ReceiveEvent
-    public void routedEntityLoaded(OnActivatedComponent event, EntityRef entity, RoutedEntityComponent routedEntity) {
-        // Entities created do not have the LocationComponent by default, so we are sure this one is actually loaded
-        if (entity.hasComponent(LocationComponent.class) && entity.hasComponent(RoutingProgressComponent.class)) {
-            pendingLoadedUnassignedEntities.put(routedEntity.transporterType, entity);
+    /**
+     * Sets the route of the entity to be replicated to the clients, if the route can be encoded and there are any
+     * remote clients. The entity is made replicated to all the clients, as routed entities have no location on the
+     * server to judge their relevance by. Encoded paths are shared by the entities sharing the (sealed) route.
+     */
+    private void replicateRoute(EntityRef entity, TransportRoute transportRoute, long routingStart) {
+        if (!replicatingRoutes) {
+            return;
+        }
+        String path = null;
+        if (transportRoute instanceof LinearTransportRoute) {
+            path = ((LinearTransportRoute) transportRoute).getEncodedPath();
+        }
+        if (path != null) {
+            ReplicatedRouteComponent replicatedRoute = entity.getComponent(ReplicatedRouteComponent.class);
+            boolean added = replicatedRoute == null;
+            if (added) {
+                replicatedRoute = new ReplicatedRouteComponent();
+            }
+            replicatedRoute.path = path;
+            replicatedRoute.millisPerUnit = ((LinearTransportRoute) transportRoute).getMillisPerUnit();
+            replicatedRoute.routingStart = routingStart;
+            if (added) {
+                entity.addComponent(replicatedRoute);
+            } else {
+                entity.saveComponent(replicatedRoute);
+            }
+            if (!entity.hasComponent(NetworkComponent.class)) {
+                NetworkComponent networkComponent = new NetworkComponent();
+                networkComponent.replicateMode = NetworkComponent.ReplicateMode.ALWAYS;
+                entity.addComponent(networkComponent);
+            }
+        } else if (entity.hasComponent(ReplicatedRouteComponent.class)) {
+            entity.removeComponent(ReplicatedRouteComponent.class);
+        }
+    }
+
+    private void scheduleArrival(String transporterType, Network2<EntityTransportNetworkNode> network, long id, long arrivalTime) {
+        TimingWheel.Timer<ScheduledArrival> timer = arrivalTimers.get(id);
+        if (timer != null) {
+            ScheduledArrival arrival = timer.getPayload();
+            arrival.transporterType = transporterType;
+            arrival.network = network;
+            arrivalWheel.reschedule(timer, arrivalTime);
+        } else {
+            arrivalTimers.put(id, arrivalWheel.schedule(new ScheduledArrival(transporterType, network, id), arrivalTime));
+        }
+    }
+
+    private void cancelArrival(long id) {
+        TimingWheel.Timer<ScheduledArrival> timer = arrivalTimers.remove(id);
+        if (timer != null) {
+            arrivalWheel.cancel(timer);
         }
     }
 
     @ReceiveEvent
-    public void delayedEventTriggered(DelayedActionTriggeredEvent event, EntityRef entity, RoutedEntityComponent routedEntity) {
-        if (event.getActionId().equals(ARRIVAL_ACTION_ID)) {
-            entityTransportRegistry.get(routedEntity.transporterType).entityArrived(entity);
+    public void routedEntityLoaded(OnActivatedComponent event, EntityRef entity, RoutedEntityComponent routedEntity) {
+        // Entities created do not have the LocationComponent by default, so we are sure this one is actually loaded
+        if (entity.hasComponent(LocationComponent.class) && entity.hasComponent(RoutingProgressComponent.class)) {
+            Vector3i blockLocation = new Vector3i(entity.getComponent(LocationComponent.class).getWorldPosition());
+            pendingLoadedUnassignedEntities.add(routedEntity.transporterType, entity, blockLocation);
         }
     }
 
@@ -225,28 +1027,34 @@ public class EntityTransportAuthoritySystem extends BaseComponentSystem implemen
     public void prefabTransporterLoaded(OnActivatedBlocks event, EntityRef blockTypeEntity, EntityTransporterComponent entityTransporter) {
         String transporterType = entityTransporter.transporterType;
         validateTransporterType(transporterType);
-        for (EntityTransporterComponent.RouteGroup routeGroup : entityTransporter.routeGroups) {
-            Set<EntityTransportNetworkNode> transportNodes = Sets.newHashSet();
-            for (Vector3i location : event.getBlockPositions()) {
-                final EntityTransportNetworkNode transportNode = toNode(location, worldProvider.getBlock(location), routeGroup.inputSides, routeGroup.outputSides);
-                transportNodes.add(transportNode);
-            }
-            entityTransportNetworks.get(transporterType).addNetworkingBlocks(transportNodes, NetworkChangeReason.CHUNK_EVENT);
-        }
+        Set<EntityTransportNetworkNode> transportNodes = toNodes(event.getBlockPositions(), entityTransporter);
+        entityTransportNetworks.get(transporterType).addNetworkingBlocks(transportNodes, NetworkChangeReason.CHUNK_EVENT);
+        transportNodes.clear();
     }
 
     @ReceiveEvent
     public void prefabTransporterUnloaded(BeforeDeactivateBlocks event, EntityRef blockTypeEntity, EntityTransporterComponent entityTransporter) {
         String transporterType = entityTransporter.transporterType;
         validateTransporterType(transporterType);
-        for (EntityTransporterComponent.RouteGroup routeGroup : entityTransporter.routeGroups) {
-            Set<EntityTransportNetworkNode> transportNodes = Sets.newHashSet();
-            for (Vector3i location : event.getBlockPositions()) {
-                final EntityTransportNetworkNode transportNode = toNode(location, worldProvider.getBlock(location), routeGroup.inputSides, routeGroup.outputSides);
-                transportNodes.add(transportNode);
+        Set<EntityTransportNetworkNode> transportNodes = toNodes(event.getBlockPositions(), entityTransporter);
+        entityTransportNetworks.get(transporterType).removeNetworkingBlocks(transportNodes, NetworkChangeReason.CHUNK_EVENT);
+        transportNodes.clear();
+    }
+
+    /**
+     * Creates the nodes of all the route groups for all the blocks at once, so that the network is updated (and its
+     * topology events are fired) once per chunk. The nodes are collected in a set reused between the events, that the
+     * caller clears once the network is updated. Each block type is read once per block, and connections are looked
+     * up in the cache.
+     */
+    private Set<EntityTransportNetworkNode> toNodes(Collection<Vector3i> blockPositions, EntityTransporterComponent entityTransporter) {
+        for (Vector3i position : blockPositions) {
+            Block block = worldProvider.getBlock(position);
+            for (EntityTransporterComponent.RouteGroup routeGroup : entityTransporter.routeGroups) {
+                transportNodesCache.add(toNode(position, block, routeGroup.inputSides, routeGroup.outputSides));
             }
-            entityTransportNetworks.get(transporterType).removeNetworkingBlocks(transportNodes, NetworkChangeReason.CHUNK_EVENT);
         }
+        return transportNodesCache;
     }
 
     @ReceiveEvent
@@ -294,31 +1102,72 @@ public class EntityTransportAuthoritySystem extends BaseComponentSystem implemen
         return new EntityTransportNetworkNode(location, getConnections(block, (byte) inputDefinedSides), getConnections(block, (byte) outputDefinedSides));
     }
 
+    /**
+     * Resulting connections depend only on the block and the defined sides, so they are computed once for each
+     * combination and cached.
+     */
     private byte getConnections(Block block, byte definedSides) {
-        return BlockNetworkUtil.getResultConnections(block, definedSides);
+        byte[] blockConnections = connectionsCache.get(block);
+        if (blockConnections == null) {
+            blockConnections = new byte[1 << 6];
+            Arrays.fill(blockConnections, NO_CONNECTIONS_CACHED);
+            connectionsCache.put(block, blockConnections);
+        }
+        byte connections = blockConnections[definedSides & 0x3F];
+        if (connections == NO_CONNECTIONS_CACHED) {
+            connections = BlockNetworkUtil.getResultConnections(block, definedSides);
+            blockConnections[definedSides & 0x3F] = connections;
+        }
+        return connections;
     }
 
     private void validateTransporterType(String transporterType) {
-        if (!entityTransportRegistry.containsKey(transporterType)) {
+        if (!entityTransportNetworks.containsKey(transporterType)) {
             throw new IllegalStateException("Unable to locate EntityTransportHandler for transporter type " + transporterType);
         }
     }
 
-    private Network2<EntityTransportNetworkNode> findNetworkWithBlock(Collection<? extends Network2<EntityTransportNetworkNode>> networks, Vector3i blockPosition) {
-        for (Network2<EntityTransportNetworkNode> network : networks) {
-            for (EntityTransportNetworkNode entityTransportNetworkNode : network.getNetworkingNodes()) {
-                if (entityTransportNetworkNode.location.toVector3i().equals(blockPosition)) {
-                    return network;
-                }
-            }
+    private Network2<EntityTransportNetworkNode> findNetworkWithBlock(String transporterType, Collection<? extends Network2<EntityTransportNetworkNode>> networks,
+                                                                      Vector3i blockPosition) {
+        Network2<EntityTransportNetworkNode> network = entityNetworkLocationIndices.get(transporterType).getNetworkAt(blockPosition);
+        if (network != null && networks.contains(network)) {
+            return network;
         }
         return null;
     }
 
-    private void updateEntityForStoring(RoutedEntity routedEntity, EntityRef entity) {
-        long progress = time.getGameTimeInMs() - routedEntity.routingStart;
-        Vector3f entityPosition = routedEntity.transportRoute.getPosition(progress);
-        delayManager.cancelDelayedAction(entity, ARRIVAL_ACTION_ID);
+    private RoutedEntityStore getRoutedEntities(String transporterType, Network2<EntityTransportNetworkNode> network) {
+        Map<Network2<EntityTransportNetworkNode>, RoutedEntityStore> routedEntitiesOfType = entityNetworkRoutedEntities.get(transporterType);
+        RoutedEntityStore routedEntities = routedEntitiesOfType.get(network);
+        if (routedEntities == null) {
+            routedEntities = new RoutedEntityStore();
+            routedEntitiesOfType.put(network, routedEntities);
+        }
+        return routedEntities;
+    }
+
+    private boolean isRouteInNetwork(String transporterType, TransportRoute transportRoute, Network2<EntityTransportNetworkNode> network) {
+        long[] traversedBlocks = transportRoute.getTraversedBlocks();
+        if (traversedBlocks == null) {
+            return false;
+        }
+        NetworkLocationIndex<EntityTransportNetworkNode> networkLocationIndex = entityNetworkLocationIndices.get(transporterType);
+        for (long block : traversedBlocks) {
+            if (!networkLocationIndex.hasNodeOfNetworkAt(block, network)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long getArrivalTime(long id, TransportRoute transportRoute, long routingStart) {
+        TimingWheel.Timer<ScheduledArrival> timer = arrivalTimers.get(id);
+        return timer != null ? timer.getExpireTime() : routingStart + transportRoute.getTransportDuration();
+    }
+
+    private void updateEntityForStoring(TransportRoute transportRoute, long routingStart, long duration, EntityRef entity) {
+        long progress = time.getGameTimeInMs() - routingStart;
+        Vector3f entityPosition = transportRoute.getPosition(progress);
         if (entity.hasComponent(LocationComponent.class)) {
             LocationComponent location = entity.getComponent(LocationComponent.class);
             location.setWorldPosition(entityPosition);
@@ -330,6 +1179,20 @@ public class EntityTransportAuthoritySystem extends BaseComponentSystem implemen
         RoutingProgressComponent routingProgressComponent = new RoutingProgressComponent();
         routingProgressComponent.progress = progress;
         entity.addComponent(routingProgressComponent);
+
+        String path = null;
+        if (transportRoute instanceof LinearTransportRoute) {
+            path = ((LinearTransportRoute) transportRoute).getEncodedPath();
+        }
+        if (path != null) {
+            RoutePathComponent routePath = new RoutePathComponent();
+            routePath.path = path;
+            routePath.millisPerUnit = ((LinearTransportRoute) transportRoute).getMillisPerUnit();
+            routePath.duration = duration;
+            entity.addComponent(routePath);
+        } else if (entity.hasComponent(RoutePathComponent.class)) {
+            entity.removeComponent(RoutePathComponent.class);
+        }
     }
 
     private final class TransporterTypeNetworkTopologyListener implements EfficientNetworkTopologyListener<EntityTransportNetworkNode> {
@@ -341,71 +1204,309 @@ public class EntityTransportAuthoritySystem extends BaseComponentSystem implemen
 
         @Override
         public void networkAdded(Network2<EntityTransportNetworkNode> network, NetworkChangeReason reason) {
-            entityNetworkRoutedEntities.get(transporterType).put(network, Sets.newHashSet());
+            entityNetworkLocationIndices.get(transporterType).networkAdded(network);
+            getRoutedEntities(transporterType, network);
         }
 
         @Override
         public void networkRemoved(Network2<EntityTransportNetworkNode> network, NetworkChangeReason reason) {
+            entityNetworkLocationIndices.get(transporterType).networkRemoved(network);
+            entityTransportRoutePlanners.get(transporterType).networkRemoved(network);
             EntityTransportHandler entityTransportHandler = entityTransportRegistry.get(transporterType);
 
-            Collection<RoutedEntity> routedEntities = entityNetworkRoutedEntities.get(transporterType).remove(network);
-            for (RoutedEntity routedEntity : routedEntities) {
-                entityRemovedFromNetwork(network, entityTransportHandler, routedEntity, reason);
+            pendingNetworkModifications.get(transporterType).remove(network);
+            networkActivities.remove(network);
+
+            RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(transporterType).remove(network);
+            for (int slot = 0; slot < routedEntities.size(); slot++) {
+                entityRemovedFromNetwork(network, entityTransportHandler, routedEntities, slot, reason);
             }
         }
 
         @Override
         public void networkSplit(Network2<EntityTransportNetworkNode> oldNetwork,
                                  Set<? extends Network2<EntityTransportNetworkNode>> resultNetworks, NetworkChangeReason reason) {
+            wakeNetwork(transporterType, oldNetwork);
+            networkActivities.remove(oldNetwork);
+            entityNetworkLocationIndices.get(transporterType).networkSplit(oldNetwork, resultNetworks);
+            entityTransportRoutePlanners.get(transporterType).networkRemoved(oldNetwork);
             EntityTransportHandler entityTransportHandler = entityTransportRegistry.get(transporterType);
+            splitPendingModification(oldNetwork, resultNetworks);
 
-            Collection<RoutedEntity> routedEntities = entityNetworkRoutedEntities.get(transporterType).remove(oldNetwork);
+            RoutedEntityStore routedEntities = entityNetworkRoutedEntities.get(transporterType).remove(oldNetwork);
+            Map<Network2<EntityTransportNetworkNode>, Migration> migrations = Maps.newHashMap();
             long gameTime = time.getGameTimeInMs();
-            for (RoutedEntity routedEntity : routedEntities) {
-                long routingStart = routedEntity.routingStart;
-                Vector3f position = routedEntity.transportRoute.getPosition(gameTime - routingStart);
+            for (int slot = 0; slot < routedEntities.size(); slot++) {
+                long routingStart = routedEntities.getRoutingStart(slot);
+                TransportRoute transportRoute = routedEntities.getTransportRoute(slot);
+                Vector3f position = transportRoute.getPosition(gameTime - routingStart, positionCache);
                 Vector3i blockPosition = new Vector3i(position);
-                Network2<EntityTransportNetworkNode> networkWithNode = findNetworkWithBlock(resultNetworks, blockPosition);
+                Network2<EntityTransportNetworkNode> networkWithNode = findNetworkWithBlock(transporterType, resultNetworks, blockPosition);
                 if (networkWithNode != null) {
-                    entityTransportHandler.entityMovedBetweenNetworks(routedEntity.entity, time.getGameTimeInMs() - routedEntity.routingStart, oldNetwork, networkWithNode);
+                    RoutedEntity routedEntity = routedEntities.getRoutedEntity(slot);
+                    getRoutedEntities(transporterType, networkWithNode).put(routedEntity);
+                    arrivalTimers.get(routedEntity.id).getPayload().network = networkWithNode;
+
+                    Migration migration = migrations.get(networkWithNode);
+                    if (migration == null) {
+                        migration = new Migration();
+                        migrations.put(networkWithNode, migration);
+                    }
+                    if (isRouteInNetwork(transporterType, transportRoute, networkWithNode)) {
+                        migration.validRouteEntities.add(routedEntity);
+                    } else {
+                        migration.invalidRouteEntities.add(routedEntity);
+                    }
                 } else {
-                    entityRemovedFromNetwork(oldNetwork, entityTransportHandler, routedEntity, reason);
+                    entityRemovedFromNetwork(oldNetwork, entityTransportHandler, routedEntities, slot, reason);
                 }
-                routedEntity.entity.destroy();
+            }
+
+            Set<Network2<EntityTransportNetworkNode>> fromNetworks = Collections.singleton(oldNetwork);
+            for (Map.Entry<Network2<EntityTransportNetworkNode>, Migration> migrationEntry : migrations.entrySet()) {
+                Migration migration = migrationEntry.getValue();
+                long handlerStart = System.nanoTime();
+                entityTransportHandler.routedEntitiesMigrated(fromNetworks, migrationEntry.getKey(),
+                        migration.validRouteEntities, migration.invalidRouteEntities);
+                recordHandlerCall(transporterType, migrationEntry.getKey(), handlerStart);
             }
         }
 
         private void entityRemovedFromNetwork(Network2<EntityTransportNetworkNode> network, EntityTransportHandler entityTransportHandler,
-                                              RoutedEntity routedEntity, NetworkChangeReason reason) {
-            EntityRef entity = routedEntity.entity;
+                                              RoutedEntityStore routedEntities, int slot, NetworkChangeReason reason) {
+            EntityRef entity = getOrCreateEntity(routedEntities, slot);
+            long routingStart = routedEntities.getRoutingStart(slot);
+            TransportRoute transportRoute = routedEntities.getTransportRoute(slot);
+            long duration = getArrivalTime(entity.getId(), transportRoute, routingStart) - routingStart;
+            cancelArrival(entity.getId());
+            entityTransportRoutePlanners.get(transporterType).releaseRoute(transportRoute);
             if (reason == NetworkChangeReason.WORLD_CHANGE) {
-                entityTransportHandler.entityRemovedFromNetwork(entity, time.getGameTimeInMs() - routedEntity.routingStart, network);
+                long handlerStart = System.nanoTime();
+                entityTransportHandler.entityRemovedFromNetwork(entity, time.getGameTimeInMs() - routingStart, network);
+                recordHandlerCall(transporterType, network, handlerStart);
+                entity.destroy();
             } else if (reason == NetworkChangeReason.CHUNK_EVENT) {
-                updateEntityForStoring(routedEntity, entity);
+                updateEntityForStoring(transportRoute, routingStart, duration, entity);
             }
         }
 
         @Override
         public void networksMerged(Set<? extends Network2<EntityTransportNetworkNode>> oldNetworks,
                                    Network2<EntityTransportNetworkNode> newNetwork, NetworkChangeReason reason) {
-            EntityTransportHandler entityTransportHandler = entityTransportRegistry.get(transporterType);
             for (Network2<EntityTransportNetworkNode> oldNetwork : oldNetworks) {
-                Collection<RoutedEntity> routedEntities = entityNetworkRoutedEntities.get(transporterType).get(oldNetwork);
-                for (RoutedEntity routedEntity : routedEntities) {
-                    entityTransportHandler.entityMovedBetweenNetworks(routedEntity.entity, time.getGameTimeInMs() - routedEntity.routingStart, oldNetwork, newNetwork);
-                    routedEntity.entity.destroy();
+                wakeNetwork(transporterType, oldNetwork);
+                networkActivities.remove(oldNetwork);
+            }
+            networkInput(transporterType, newNetwork);
+            entityNetworkLocationIndices.get(transporterType).networksMerged(oldNetworks, newNetwork);
+            EntityTransportRoutePlanner routePlanner = entityTransportRoutePlanners.get(transporterType);
+            for (Network2<EntityTransportNetworkNode> oldNetwork : oldNetworks) {
+                routePlanner.networkRemoved(oldNetwork);
+            }
+            Map<Network2<EntityTransportNetworkNode>, NetworkModification> modifications = pendingNetworkModifications.get(transporterType);
+            for (Network2<EntityTransportNetworkNode> oldNetwork : oldNetworks) {
+                NetworkModification oldModification = modifications.remove(oldNetwork);
+                if (oldModification != null) {
+                    getPendingModification(newNetwork).merge(oldModification);
+                }
+            }
+
+            // All the routes in the old networks are still valid in the merged one, so the largest store is reused and
+            // the others are moved into it
+            Map<Network2<EntityTransportNetworkNode>, RoutedEntityStore> routedEntitiesOfType = entityNetworkRoutedEntities.get(transporterType);
+            List<RoutedEntityStore> mergedStores = Lists.newArrayList();
+            RoutedEntityStore largestStore = routedEntitiesOfType.remove(newNetwork);
+            for (Network2<EntityTransportNetworkNode> oldNetwork : oldNetworks) {
+                RoutedEntityStore oldStore = routedEntitiesOfType.remove(oldNetwork);
+                if (oldStore != null) {
+                    if (largestStore == null || oldStore.size() > largestStore.size()) {
+                        if (largestStore != null) {
+                            mergedStores.add(largestStore);
+                        }
+                        largestStore = oldStore;
+                    } else {
+                        mergedStores.add(oldStore);
+                    }
+                }
+            }
+            if (largestStore == null) {
+                largestStore = new RoutedEntityStore();
+            }
+            for (RoutedEntityStore mergedStore : mergedStores) {
+                for (int slot = 0; slot < mergedStore.size(); slot++) {
+                    largestStore.put(mergedStore.getRoutedEntity(slot));
                 }
             }
+            routedEntitiesOfType.put(newNetwork, largestStore);
+            for (int slot = 0; slot < largestStore.size(); slot++) {
+                arrivalTimers.get(largestStore.getId(slot)).getPayload().network = newNetwork;
+            }
+
+            long handlerStart = System.nanoTime();
+            entityTransportRegistry.get(transporterType).routedEntitiesMigrated(oldNetworks, newNetwork,
+                    largestStore.getRoutedEntities(), Collections.emptyList());
+            recordHandlerCall(transporterType, newNetwork, handlerStart);
         }
 
         @Override
         public void networkingNodesAdded(Network2<EntityTransportNetworkNode> network, Set<EntityTransportNetworkNode> networkingNodes, NetworkChangeReason reason) {
-            entityTransportRegistry.get(transporterType).networkModified(network, entityNetworkRoutedEntities.get(transporterType).get(network));
+            networkInput(transporterType, network);
+            getNetworkActivity(network).boundsMin = null;
+            entityNetworkLocationIndices.get(transporterType).nodesAdded(network, networkingNodes);
+            entityTransportRoutePlanners.get(transporterType).nodesAdded(network, networkingNodes);
+            getPendingModification(network).nodesAdded(networkingNodes);
         }
 
         @Override
         public void networkingNodesRemoved(Network2<EntityTransportNetworkNode> network, Set<EntityTransportNetworkNode> networkingNodes, NetworkChangeReason reason) {
-            entityTransportRegistry.get(transporterType).networkModified(network, entityNetworkRoutedEntities.get(transporterType).get(network));
+            networkInput(transporterType, network);
+            getNetworkActivity(network).boundsMin = null;
+            entityTransportRoutePlanners.get(transporterType).nodesRemoved(network, networkingNodes);
+            entityNetworkLocationIndices.get(transporterType).nodesRemoved(network, networkingNodes);
+            getPendingModification(network).nodesRemoved(networkingNodes);
+        }
+
+        private NetworkModification getPendingModification(Network2<EntityTransportNetworkNode> network) {
+            Map<Network2<EntityTransportNetworkNode>, NetworkModification> modifications = pendingNetworkModifications.get(transporterType);
+            NetworkModification modification = modifications.get(network);
+            if (modification == null) {
+                modification = new NetworkModification();
+                modifications.put(network, modification);
+            }
+            return modification;
+        }
+
+        /**
+         * Hands the pending modification of the split network over to the resulting networks. Added nodes go to the
+         * network now containing them, removed nodes go to the networks next to them.
+         */
+        private void splitPendingModification(Network2<EntityTransportNetworkNode> oldNetwork,
+                                              Set<? extends Network2<EntityTransportNetworkNode>> resultNetworks) {
+            NetworkModification oldModification = pendingNetworkModifications.get(transporterType).remove(oldNetwork);
+            if (oldModification == null || oldModification.isEmpty()) {
+                return;
+            }
+            NetworkLocationIndex<EntityTransportNetworkNode> networkLocationIndex = entityNetworkLocationIndices.get(transporterType);
+            for (Network2<EntityTransportNetworkNode> resultNetwork : resultNetworks) {
+                for (EntityTransportNetworkNode addedNode : oldModification.getAddedNodes()) {
+                    if (networkLocationIndex.hasNodeOfNetworkAt(BlockLocations.pack(addedNode.location), resultNetwork)) {
+                        getPendingModification(resultNetwork).getAddedNodes().add(addedNode);
+                    }
+                }
+                for (EntityTransportNetworkNode removedNode : oldModification.getRemovedNodes()) {
+                    if (hasNeighbourInNetwork(networkLocationIndex, removedNode, resultNetwork)) {
+                        getPendingModification(resultNetwork).getRemovedNodes().add(removedNode);
+                    }
+                }
+            }
+        }
+
+        private boolean hasNeighbourInNetwork(NetworkLocationIndex<EntityTransportNetworkNode> networkLocationIndex,
+                                              EntityTransportNetworkNode node, Network2<EntityTransportNetworkNode> network) {
+            for (Side side : Side.values()) {
+                Vector3i direction = side.getVector3i();
+                if (networkLocationIndex.hasNodeOfNetworkAt(BlockLocations.pack(node.location.x + direction.x,
+                        node.location.y + direction.y, node.location.z + direction.z), network)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Tracks the last input into a network and whether the network is dormant. Bounds of the network are computed
+     * when first needed and dropped, when nodes are added or removed.
+     */
+    private static final class NetworkActivity {
+        private long lastInputTime;
+        private boolean dormant;
+        private Vector3i boundsMin;
+        private Vector3i boundsMax;
+
+        private NetworkActivity(long lastInputTime) {
+            this.lastInputTime = lastInputTime;
+        }
+
+        private boolean isNearAny(Network2<EntityTransportNetworkNode> network, List<Vector3f> positions, float distance) {
+            if (positions.isEmpty()) {
+                return false;
+            }
+            if (boundsMin == null) {
+                computeBounds(network);
+            }
+            float distanceSquared = distance * distance;
+            for (Vector3f position : positions) {
+                float dx = Math.max(0, Math.max(boundsMin.x - position.x, position.x - boundsMax.x));
+                float dy = Math.max(0, Math.max(boundsMin.y - position.y, position.y - boundsMax.y));
+                float dz = Math.max(0, Math.max(boundsMin.z - position.z, position.z - boundsMax.z));
+                if (dx * dx + dy * dy + dz * dz <= distanceSquared) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void computeBounds(Network2<EntityTransportNetworkNode> network) {
+            boundsMin = new Vector3i(Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+            boundsMax = new Vector3i(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE);
+            for (EntityTransportNetworkNode node : network.getNetworkingNodes()) {
+                boundsMin.set(Math.min(boundsMin.x, node.location.x), Math.min(boundsMin.y, node.location.y), Math.min(boundsMin.z, node.location.z));
+                boundsMax.set(Math.max(boundsMax.x, node.location.x), Math.max(boundsMax.y, node.location.y), Math.max(boundsMax.z, node.location.z));
+            }
+        }
+    }
+
+    private static final class Migration {
+        private List<RoutedEntity> validRouteEntities = Lists.newArrayList();
+        private List<RoutedEntity> invalidRouteEntities = Lists.newArrayList();
+    }
+
+    private static final class ArrivalGroup {
+        private final String transporterType;
+        private final Network2<EntityTransportNetworkNode> network;
+        private final List<EntityRef> entities = Lists.newArrayList();
+
+        private ArrivalGroup(String transporterType, Network2<EntityTransportNetworkNode> network) {
+            this.transporterType = transporterType;
+            this.network = network;
+        }
+    }
+
+    /**
+     * Packet, that items routed along the same route can still join.
+     */
+    private static final class OpenPacket {
+        private long id;
+        private final Network2<EntityTransportNetworkNode> network;
+        private final long routingStart;
+
+        private OpenPacket(long id, Network2<EntityTransportNetworkNode> network, long routingStart) {
+            this.id = id;
+            this.network = network;
+            this.routingStart = routingStart;
+        }
+    }
+
+    private static final class PlannedRoute {
+        private final String transporterType;
+        private final EntityTransportRoutePlanner.RoutePlan routePlan;
+
+        private PlannedRoute(String transporterType, EntityTransportRoutePlanner.RoutePlan routePlan) {
+            this.transporterType = transporterType;
+            this.routePlan = routePlan;
+        }
+    }
+
+    private static final class ScheduledArrival {
+        private String transporterType;
+        private Network2<EntityTransportNetworkNode> network;
+        private long id;
+
+        private ScheduledArrival(String transporterType, Network2<EntityTransportNetworkNode> network, long id) {
+            this.transporterType = transporterType;
+            this.network = network;
+            this.id = id;
         }
     }
 }
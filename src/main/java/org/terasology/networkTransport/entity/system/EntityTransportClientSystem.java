@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Maps;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.networkTransport.entity.component.ReplicatedRouteComponent;
+import org.terasology.registry.In;
+
+import java.util.Map;
+
+/**
+ * Moves routed entities on the clients along their replicated routes. Positions are evaluated locally against the
+ * game time, which is synchronized with the server, so only a change of the route has to be sent over the network.
+ * <p>
+ * Lightweight items routed on the server have no entity, so they are not replicated, and the clients see them only
+ * once the server creates their entities (see {@link EntityTransportRegistry#routeItemThroughNetwork}).
+ */
+@RegisterSystem(RegisterMode.REMOTE_CLIENT)
+public class EntityTransportClientSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
+    @In
+    private Time time;
+
+    private Map<EntityRef, ClientRoute> clientRoutes = Maps.newHashMap();
+
+    private Vector3f positionCache = new Vector3f();
+
+    @Override
+    public void update(float delta) {
+        long gameTime = time.getGameTimeInMs();
+        for (Map.Entry<EntityRef, ClientRoute> clientRouteEntry : clientRoutes.entrySet()) {
+            EntityRef entity = clientRouteEntry.getKey();
+            ClientRoute clientRoute = clientRouteEntry.getValue();
+            long progress = Math.min(gameTime - clientRoute.routingStart, clientRoute.route.getTransportDuration());
+            if (progress == clientRoute.lastProgress) {
+                continue;
+            }
+            clientRoute.lastProgress = progress;
+            Vector3f position = clientRoute.route.getPosition(progress, positionCache);
+
+            LocationComponent location = entity.getComponent(LocationComponent.class);
+            if (location != null) {
+                location.setWorldPosition(position);
+                entity.saveComponent(location);
+            } else {
+                entity.addComponent(new LocationComponent(new Vector3f(position)));
+            }
+        }
+    }
+
+    @ReceiveEvent
+    public void routeReplicated(OnActivatedComponent event, EntityRef entity, ReplicatedRouteComponent replicatedRoute) {
+        updateClientRoute(entity, replicatedRoute);
+    }
+
+    @ReceiveEvent
+    public void routeChanged(OnChangedComponent event, EntityRef entity, ReplicatedRouteComponent replicatedRoute) {
+        updateClientRoute(entity, replicatedRoute);
+    }
+
+    @ReceiveEvent
+    public void routeRemoved(BeforeDeactivateComponent event, EntityRef entity, ReplicatedRouteComponent replicatedRoute) {
+        clientRoutes.remove(entity);
+    }
+
+    private void updateClientRoute(EntityRef entity, ReplicatedRouteComponent replicatedRoute) {
+        LinearTransportRoute route = replicatedRoute.path != null
+                ? LinearTransportRouteCodec.decode(replicatedRoute.path, replicatedRoute.millisPerUnit) : null;
+        if (route != null) {
+            clientRoutes.put(entity, new ClientRoute(route, replicatedRoute.routingStart));
+        } else {
+            clientRoutes.remove(entity);
+        }
+    }
+
+    private static final class ClientRoute {
+        private final LinearTransportRoute route;
+        private final long routingStart;
+        private long lastProgress = -1;
+
+        private ClientRoute(LinearTransportRoute route, long routingStart) {
+            this.route = route;
+            this.routingStart = routingStart;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import org.terasology.entitySystem.entity.EntityRef;
 import org.terasology.math.geom.Vector3f;
 
 import java.util.Collection;
+import java.util.Set;
 
 public interface EntityTransportHandler {
     /**
@@ -31,6 +32,22 @@ public interface EntityTransportHandler {
      */
     void networkModified(Network2<EntityTransportNetworkNode> network, Collection<RoutedEntity> routedEntities);
 
+    /**
+     * Called when nodes were added to or removed from a network, in a way that did not split or merge this network.
+     * Only the entities which routes pass through the removed nodes, or through (or next to) the added nodes are
+     * passed, so the cost of handling an edit depends on the size of the edit, not on the size of the network. By
+     * default, the affected entities are passed to {@link #networkModified(Network2, Collection)}.
+     *
+     * @param network
+     * @param addedNodes
+     * @param removedNodes
+     * @param affectedRoutedEntities
+     */
+    default void networkModified(Network2<EntityTransportNetworkNode> network, Set<EntityTransportNetworkNode> addedNodes,
+                                 Set<EntityTransportNetworkNode> removedNodes, Collection<RoutedEntity> affectedRoutedEntities) {
+        networkModified(network, affectedRoutedEntities);
+    }
+
     /**
      * Called when an entity was discovered (loaded) into a network. Please note, that this entity will be destroyed
      * after this method returns. If an entity is to be routed through the new network, it should be scheduled to be
@@ -51,10 +68,34 @@ public interface EntityTransportHandler {
      * @param entity
      * @param fromNetwork
      * @param toNetwork
+     * @deprecated Entities are no longer destroyed when moved between networks, this method is not called anymore.
+     * Entities, which routes are no longer valid, are passed to {@link #networkModified(Network2, Collection)} by
+     * default, so that handlers rerouting them there keep working. Override
+     * {@link #routedEntitiesMigrated(Set, Network2, Collection, Collection)} to handle the moves instead.
      */
+    @Deprecated
     void entityMovedBetweenNetworks(EntityRef entity, long progress, Network2<EntityTransportNetworkNode> fromNetwork,
                                     Network2<EntityTransportNetworkNode> toNetwork);
 
+    /**
+     * Called once for each network that routed entities were moved to, due to a network split or merge. The entities
+     * are kept (not destroyed) together with their routes and timing. Entities, which routes lie entirely in the new
+     * network, don't need any handling. Entities, which routes are no longer valid, should be rerouted via
+     * EntityTransportRegistry call with the new network. By default, these are passed to
+     * {@link #networkModified(Network2, Collection)}.
+     *
+     * @param fromNetworks
+     * @param toNetwork
+     * @param validRouteEntities
+     * @param invalidRouteEntities
+     */
+    default void routedEntitiesMigrated(Set<? extends Network2<EntityTransportNetworkNode>> fromNetworks, Network2<EntityTransportNetworkNode> toNetwork,
+                                        Collection<RoutedEntity> validRouteEntities, Collection<RoutedEntity> invalidRouteEntities) {
+        if (!invalidRouteEntities.isEmpty()) {
+            networkModified(toNetwork, invalidRouteEntities);
+        }
+    }
+
     /**
      * Called when an entity belonging to the network is forcefully removed from network (i.e. block that the entity
      * was in was destroyed). Please note, that this entity will be destroyed after this method returns.
@@ -71,4 +112,56 @@ public interface EntityTransportHandler {
      * @param entity
      */
     void entityArrived(EntityRef entity);
+
+    /**
+     * Called once per tick for each network and destination block, with all the entities that arrived there during
+     * the tick, so that handlers can process deliveries into the same place at once. Please note, that these entities
+     * will be destroyed after this method returns. When a dormant network wakes up, all the entities that arrived while
+     * it was dormant are passed at once. By default, each entity is passed to {@link #entityArrived(EntityRef)}.
+     *
+     * @param network
+     * @param entities
+     */
+    default void entitiesArrived(Network2<EntityTransportNetworkNode> network, Collection<EntityRef> entities) {
+        for (EntityRef entity : entities) {
+            entityArrived(entity);
+        }
+    }
+
+    /**
+     * Called when a lightweight item (routed without an entity) has arrived at its destination. If the handler
+     * returns <code>false</code>, an entity is created for the item and passed to
+     * {@link #entitiesArrived(Network2, Collection)} together with the other entities that arrived.
+     *
+     * @param payload
+     * @return If the arrival was handled without an entity.
+     */
+    default boolean routedItemArrived(Object payload) {
+        return false;
+    }
+
+    /**
+     * Called when a lightweight item is routed along the same route as a packet routed within the stacking window (see
+     * {@link EntityTransportRegistry#setItemStackingWindow(String, long)}). If the item is compatible with the packet,
+     * it joins the packet and travels as a part of it. The packet keeps the payload of its first item, and is split
+     * back into items on arrival ({@link #routedItemArrived(Object)} is called for each of them), or when entities are
+     * created for it. By default, items are never stacked.
+     *
+     * @param packetPayload
+     * @param payload
+     * @return If the item can join the packet.
+     */
+    default boolean canStackItems(Object packetPayload, Object payload) {
+        return false;
+    }
+
+    /**
+     * Called when an entity is created for a lightweight item. The entity already has the RoutedEntityComponent, the
+     * handler should add to it all the components describing the payload, so that the item can be stored.
+     *
+     * @param entity
+     * @param payload
+     */
+    default void routedItemMaterialized(EntityRef entity, Object payload) {
+    }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import org.terasology.blockNetwork.Network2;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.console.commandSystem.annotations.Command;
+import org.terasology.logic.console.commandSystem.annotations.CommandParam;
+import org.terasology.registry.In;
+
+/**
+ * Console commands printing the transport metrics.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+public class EntityTransportMetricsCommands extends BaseComponentSystem {
+    @In
+    private EntityTransportRegistry entityTransportRegistry;
+
+    @Command(shortDescription = "Prints the transport metrics of a transporter type", runOnServer = true)
+    public String transportMetrics(@CommandParam("transporterType") String transporterType) {
+        TransportMetrics metrics = entityTransportRegistry.getTransportMetrics(transporterType);
+        if (metrics == null) {
+            return "Unknown transporter type: " + transporterType;
+        }
+
+        StringBuilder result = new StringBuilder();
+        int networkCount = 0;
+        int inFlight = 0;
+        int maxInFlight = 0;
+        for (Network2<EntityTransportNetworkNode> network : entityTransportRegistry.getNetworks(transporterType)) {
+            int count = entityTransportRegistry.getRoutedEntityCount(transporterType, network);
+            networkCount++;
+            inFlight += count;
+            maxInFlight = Math.max(maxInFlight, count);
+        }
+        result.append(String.format("Networks: %d, in flight: %d (max %d in a network)%n", networkCount, inFlight, maxInFlight));
+        result.append(String.format("Routed: %d, arrived: %d (%.1f/s), rerouted: %d (%.1f/s)%n", metrics.getRoutedCount(),
+                metrics.getArrivalCount(), metrics.getArrivalsPerSecond(), metrics.getRerouteCount(), metrics.getReroutesPerSecond()));
+        result.append(String.format("Pending load backlog: %d%n", metrics.getPendingLoadBacklog()));
+        for (TransportMetrics.TopologyCallback callback : TransportMetrics.TopologyCallback.values()) {
+            long count = metrics.getTopologyCallbackCount(callback);
+            if (count > 0) {
+                result.append(String.format("%s: %d calls, avg %.3f ms, max %.3f ms%n", callback, count,
+                        metrics.getTopologyCallbackNanos(callback) / 1000000f / count, metrics.getTopologyCallbackMaxNanos(callback) / 1000000f));
+            }
+        }
+        long handlerCallCount = metrics.getHandlerCallCount();
+        if (handlerCallCount > 0) {
+            result.append(String.format("Handler: %d calls, avg %.3f ms, max %.3f ms%n", handlerCallCount,
+                    metrics.getHandlerNanos() / 1000000f / handlerCallCount, metrics.getHandlerMaxNanos() / 1000000f));
+            Network2<EntityTransportNetworkNode> mostExpensiveNetwork = metrics.getMostExpensiveNetwork();
+            if (mostExpensiveNetwork != null) {
+                result.append(String.format("Most expensive network: %d nodes, %.3f ms in handler, %d in flight%n",
+                        mostExpensiveNetwork.getNetworkingNodes().size(), metrics.getHandlerNanos(mostExpensiveNetwork) / 1000000f,
+                        entityTransportRegistry.getRoutedEntityCount(transporterType, mostExpensiveNetwork)));
+            }
+        }
+        return result.toString();
+    }
+}
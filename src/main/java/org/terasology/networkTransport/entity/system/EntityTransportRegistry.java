@@ -18,13 +18,198 @@ package org.terasology.networkTransport.entity.system;
 import org.terasology.blockNetwork.Network2;
 import org.terasology.entitySystem.entity.EntityRef;
 import org.terasology.math.Side;
+import org.terasology.math.geom.Vector3f;
 import org.terasology.math.geom.Vector3i;
 
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
 public interface EntityTransportRegistry {
     void registerEntityTransportHandler(String transporterType, EntityTransportHandler entityTransportHandler);
+
+    /**
+     * Registers a transporter type using the slotted conveyor model instead of routes. Each block of the type holds
+     * a fixed number of item slots, and every step each item moves by one slot along the output sides of the blocks,
+     * if the slot ahead is free. Items are inserted via {@link #insertConveyorItem(String, Vector3i, Object)} and
+     * passed to the handler at the ends of the conveyors. Positions of the items are written by the fillPositions
+     * methods, with item handles as ids.
+     *
+     * @param transporterType
+     * @param conveyorTransportHandler
+     * @param slotsPerBlock            Number of items a block holds at most.
+     * @param stepMillis               Time it takes for an item to move by one slot.
+     */
+    void registerConveyorTransportHandler(String transporterType, ConveyorTransportHandler conveyorTransportHandler,
+                                          int slotsPerBlock, long stepMillis);
+
+    /**
+     * Puts the item into the entry slot of the conveyor block at the location.
+     *
+     * @return If the item was inserted, <code>false</code> if there is no conveyor block at the location or its entry
+     * slot is taken.
+     */
+    boolean insertConveyorItem(String transporterType, Vector3i location, Object payload);
     Network2<EntityTransportNetworkNode> findNetworkAt(String transporterType, Vector3i location, Side connectionOnSide, boolean input);
+
+    /**
+     * Finds the network the entity is currently routed through.
+     *
+     * @param entity
+     * @return Network or <code>null</code>, if the entity is not routed through any network.
+     */
+    Network2<EntityTransportNetworkNode> findNetworkOfRoutedEntity(EntityRef entity);
+
     EntityRef routeEntityThroughNetwork(String transporterType, Network2<EntityTransportNetworkNode> network,
                                    TransportRoute route, long duration);
     void rerouteEntityThroughNetwork(String transporterType, Network2<EntityTransportNetworkNode> network,
                                      EntityRef entity, TransportRoute route, long duration);
+
+    /**
+     * Routes a lightweight item through the network. No entity is created for the item while it travels, it is kept
+     * only as a record with its id, payload, route and start time. An entity is created (and passed to
+     * {@link EntityTransportHandler#routedItemMaterialized(EntityRef, Object)}) only when it is requested via
+     * {@link #getRoutedItemEntity(long)}, when the item needs to be stored, or when the handler has to be notified
+     * about it with an entity. From then on, the item is identified by the id of the entity.
+     * <p>
+     * Lightweight items are not replicated to the clients, as there is no entity to replicate. The route of an item is
+     * replicated only once its entity is created, until then the clients don't see the item at all.
+     * <p>
+     * If stacking is enabled for the transporter type, the item might join a packet routed along the same route
+     * shortly before, in which case it arrives with the packet. The item still gets an id of its own - when it is
+     * rerouted or its entity is requested, it is split out of the packet, and the rest of the packet travels on.
+     *
+     * @param transporterType
+     * @param network
+     * @param payload         Object describing the item, it is not interpreted by the transport system.
+     * @param route
+     * @param duration
+     * @return Id of the routed item, always negative.
+     */
+    long routeItemThroughNetwork(String transporterType, Network2<EntityTransportNetworkNode> network, Object payload,
+                                 TransportRoute route, long duration);
+
+    /**
+     * Sets the time window, within which lightweight items routed along the same route are stacked into a single
+     * packet, if the handler finds them compatible (see {@link EntityTransportHandler#canStackItems(Object, Object)}).
+     * Items joining a packet travel with it, so they might arrive up to the window earlier than on their own. Zero
+     * (the default) disables stacking.
+     */
+    void setItemStackingWindow(String transporterType, long windowMillis);
+
+    void rerouteItemThroughNetwork(String transporterType, Network2<EntityTransportNetworkNode> network,
+                                   long itemId, TransportRoute route, long duration);
+
+    /**
+     * Returns the entity of a routed item, creating it if the item is a lightweight one. An item stacked in a packet
+     * is split out of it first, only the entity of the item itself is created.
+     *
+     * @param itemId
+     * @return Entity or <code>EntityRef.NULL</code> if there is no such item routed.
+     */
+    EntityRef getRoutedItemEntity(long itemId);
+
+    /**
+     * Plans the shortest route through the network, from a node at the starting location accepting entities on the
+     * entry side, to a node at the destination location outputting entities on the exit side. Routes are planned over
+     * next-hop tables cached per network, so repeated planning to the same destination is cheap.
+     *
+     * @param transporterType
+     * @param network
+     * @param from
+     * @param entrySide
+     * @param to
+     * @param exitSide
+     * @param millisPerUnit   Time it takes for the entity to travel one block.
+     * @return Route or <code>null</code>, if the destination can't be reached from the starting location.
+     */
+    TransportRoute planRoute(String transporterType, Network2<EntityTransportNetworkNode> network,
+                             Vector3i from, Side entrySide, Vector3i to, Side exitSide, long millisPerUnit);
+
+    /**
+     * Plans a route as {@link #planRoute}, but off the game thread, against a snapshot of the network taken at the time
+     * of the call. The returned future is completed on the game thread, at the beginning of one of the following ticks,
+     * so the route can be used right away in its callbacks. If the network was modified (or removed) in the meantime,
+     * the planned route is discarded and the future is cancelled.
+     *
+     * @param transporterType
+     * @param network
+     * @param from
+     * @param entrySide
+     * @param to
+     * @param exitSide
+     * @param millisPerUnit   Time it takes for the entity to travel one block.
+     * @return Future of the route, completed with <code>null</code>, if the destination can't be reached from the
+     * starting location.
+     */
+    CompletableFuture<TransportRoute> planRouteAsync(String transporterType, Network2<EntityTransportNetworkNode> network,
+                                                     Vector3i from, Side entrySide, Vector3i to, Side exitSide, long millisPerUnit);
+
+    /**
+     * Sets the time, that can be spent each tick on merging loaded routed entities into their networks. Entities not
+     * processed within the budget are left for the following ticks.
+     *
+     * @param timeBudgetNanos Time budget per tick in nanoseconds.
+     */
+    void setPendingLoadTimeBudget(long timeBudgetNanos);
+
+    /**
+     * @return Number of loaded routed entities waiting to be merged into their networks.
+     */
+    int getPendingLoadBacklog();
+
+    /**
+     * Writes the current positions (x, y, z) of all the entities and lightweight items routed through the network into
+     * the position buffer, and their ids into the id buffer, starting at the current positions of the buffers. The
+     * buffers are meant to be direct buffers reused between frames, e.g. for instanced rendering, no objects are
+     * allocated per item. Stops when either of the buffers is full.
+     * <p>
+     * Items stacked in a packet share its position, so a packet is written once (with the id of its first item), and
+     * the number of entries written can be lower than {@link #getRoutedEntityCount}.
+     *
+     * @param transporterType
+     * @param network
+     * @param positionBuffer
+     * @param idBuffer
+     * @return Number of entries written.
+     */
+    int fillPositions(String transporterType, Network2<EntityTransportNetworkNode> network, FloatBuffer positionBuffer, LongBuffer idBuffer);
+
+    /**
+     * Writes the current positions (x, y, z) of all the entities and lightweight items of the transporter type, that
+     * are within the region (inclusive), into the position buffer, and their ids into the id buffer. Stops when either
+     * of the buffers is full. A packet of stacked items is written once.
+     *
+     * @param transporterType
+     * @param regionMin
+     * @param regionMax
+     * @param positionBuffer
+     * @param idBuffer
+     * @return Number of entries written.
+     */
+    int fillPositions(String transporterType, Vector3f regionMin, Vector3f regionMax, FloatBuffer positionBuffer, LongBuffer idBuffer);
+
+    /**
+     * Sets when networks go dormant. A network goes dormant, if nothing was routed into it and it was not modified for
+     * the idle time, and there is no player within the distance from it. Arrivals in a dormant network are not
+     * processed, until the network wakes up (a player comes close, or something is routed into it), then all the
+     * overdue arrivals are dispatched at once. While there are no players at all, no network goes dormant.
+     */
+    void setDormancyThresholds(long idleTimeMillis, float playerDistance);
+
+    boolean isNetworkDormant(Network2<EntityTransportNetworkNode> network);
+
+    /**
+     * @return Metrics of the transporter type, updated live.
+     */
+    TransportMetrics getTransportMetrics(String transporterType);
+
+    Collection<Network2<EntityTransportNetworkNode>> getNetworks(String transporterType);
+
+    /**
+     * @return Number of entities and lightweight items routed through the network, counting every item stacked in a
+     * packet.
+     */
+    int getRoutedEntityCount(String transporterType, Network2<EntityTransportNetworkNode> network);
 }
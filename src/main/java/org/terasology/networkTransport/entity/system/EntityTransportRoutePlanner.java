@@ -0,0 +1,373 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.terasology.blockNetwork.ImmutableBlockLocation;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.network.BlockLocations;
+import org.terasology.networkTransport.network.NetworkLocationIndex;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Plans shortest routes through networks of a single transporter type. Entity can move from a node to a neighbouring
+ * node, if the first one has an output on the side facing the second one, and the second one has an input on the
+ * opposite side.
+ * <p>
+ * For each network and destination node a next-hop table is computed (by a breadth-first search from the destination)
+ * and cached until the network is modified in a way that could affect it. Planned routes are shared through
+ * a {@link TransportRouteCache}, so entities travelling the same path at the same speed use the same route instance.
+ * <p>
+ * Routes can also be planned on other threads, against an immutable {@link NetworkGraphSnapshot} of the network. The
+ * snapshot is shared by all the plans until the network is modified, which also tells whether a plan is outdated.
+ */
+public class EntityTransportRoutePlanner {
+    private NetworkLocationIndex<EntityTransportNetworkNode> networkLocationIndex;
+    private Map<Network2<EntityTransportNetworkNode>, Map<EntityTransportNetworkNode, NextHopTable>> nextHopTables = Maps.newHashMap();
+
+    private Map<Network2<EntityTransportNetworkNode>, CompletableFuture<NetworkGraphSnapshot>> graphSnapshots = Maps.newHashMap();
+
+    private TransportRouteCache routeCache = new TransportRouteCache();
+
+    private List<EntityTransportNetworkNode> nodesCache = Lists.newArrayList();
+
+    public EntityTransportRoutePlanner(NetworkLocationIndex<EntityTransportNetworkNode> networkLocationIndex) {
+        this.networkLocationIndex = networkLocationIndex;
+    }
+
+    /**
+     * Plans a route through the network from a node at the starting location, that accepts entities on the entry side,
+     * to a node at the destination location, that outputs entities on the exit side.
+     *
+     * @return Shared (sealed) route or <code>null</code> if there is no such route.
+     */
+    public LinearTransportRoute planRoute(Network2<EntityTransportNetworkNode> network, Vector3i from, Side entrySide,
+                                          Vector3i to, Side exitSide, long millisPerUnit) {
+        EntityTransportNetworkNode destination = findNode(network, to, exitSide, false);
+        if (destination == null) {
+            return null;
+        }
+        NextHopTable nextHopTable = getNextHopTable(network, destination);
+
+        EntityTransportNetworkNode source = null;
+        int sourceDistance = Integer.MAX_VALUE;
+        nodesCache.clear();
+        networkLocationIndex.collectNodesAt(from.x, from.y, from.z, network, nodesCache);
+        for (EntityTransportNetworkNode node : nodesCache) {
+            Integer distance = nextHopTable.distances.get(node);
+            if (distance != null && distance < sourceDistance && SideBitFlag.hasSide(node.inputSides, entrySide)) {
+                source = node;
+                sourceDistance = distance;
+            }
+        }
+        nodesCache.clear();
+        if (source == null) {
+            return null;
+        }
+
+        LinearTransportRoute route = routeCache.get(network, source, destination, millisPerUnit);
+        if (route == null) {
+            route = new LinearTransportRoute(toVector3f(source.location), millisPerUnit);
+            EntityTransportNetworkNode node = source;
+            while (node != destination) {
+                node = nextHopTable.nextHops.get(node);
+                route.addPoint(toVector3f(node.location));
+            }
+            routeCache.put(network, source, destination, route);
+        }
+        return route;
+    }
+
+    /**
+     * Prepares planning of a route (as in {@link #planRoute}) on another thread. The source and destination nodes are
+     * looked up right away, the path between them is searched for in {@link #computeRoutePlan}. If there is no
+     * snapshot of the network yet, only its nodes are copied here, and the snapshot is built on the executor.
+     *
+     * @return Plan to compute once its snapshot is built, or <code>null</code>, if there are no suitable nodes at the
+     * locations.
+     */
+    RoutePlan prepareRoutePlan(Network2<EntityTransportNetworkNode> network, Vector3i from, Side entrySide,
+                               Vector3i to, Side exitSide, long millisPerUnit, Executor executor) {
+        EntityTransportNetworkNode destination = findNode(network, to, exitSide, false);
+        if (destination == null) {
+            return null;
+        }
+        List<EntityTransportNetworkNode> sources = Lists.newArrayList();
+        networkLocationIndex.collectNodesAt(from.x, from.y, from.z, network, sources);
+        sources.removeIf(node -> !SideBitFlag.hasSide(node.inputSides, entrySide));
+        if (sources.isEmpty()) {
+            return null;
+        }
+
+        CompletableFuture<NetworkGraphSnapshot> snapshot = graphSnapshots.get(network);
+        if (snapshot == null) {
+            EntityTransportNetworkNode[] nodes = network.getNetworkingNodes().toArray(new EntityTransportNetworkNode[0]);
+            snapshot = CompletableFuture.supplyAsync(() -> NetworkGraphSnapshot.create(nodes), executor);
+            graphSnapshots.put(network, snapshot);
+        }
+        return new RoutePlan(network, snapshot, sources.toArray(new EntityTransportNetworkNode[sources.size()]), destination, millisPerUnit);
+    }
+
+    /**
+     * Searches for the path of the plan in the snapshot of its network. Uses only the plan and the snapshot, so it
+     * can be called from any thread.
+     */
+    static void computeRoutePlan(RoutePlan plan, NetworkGraphSnapshot snapshot) {
+        int[] sources = new int[plan.sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = snapshot.getNodeIndex(plan.sources[i]);
+        }
+        int[] path = snapshot.findPath(sources, snapshot.getNodeIndex(plan.destination));
+        if (path != null) {
+            LinearTransportRoute route = new LinearTransportRoute(toVector3f(snapshot.getNode(path[0]).location), plan.millisPerUnit);
+            for (int i = 1; i < path.length; i++) {
+                route.addPoint(toVector3f(snapshot.getNode(path[i]).location));
+            }
+            plan.source = snapshot.getNode(path[0]);
+            plan.route = route;
+        }
+    }
+
+    /**
+     * @return <code>false</code>, if the network was modified (or removed) since the plan was prepared.
+     */
+    boolean isRoutePlanCurrent(RoutePlan plan) {
+        return graphSnapshots.get(plan.network) == plan.snapshot;
+    }
+
+    /**
+     * Shares the computed route of a current plan through the route cache.
+     *
+     * @return Shared (sealed) route or <code>null</code> if there is no such route.
+     */
+    LinearTransportRoute applyRoutePlan(RoutePlan plan) {
+        if (plan.route == null) {
+            return null;
+        }
+        LinearTransportRoute route = routeCache.get(plan.network, plan.source, plan.destination, plan.millisPerUnit);
+        if (route == null) {
+            route = plan.route;
+            routeCache.put(plan.network, plan.source, plan.destination, route);
+        }
+        return route;
+    }
+
+    /**
+     * Notes, that an entity started using the route. Has no effect for routes not planned by this planner.
+     */
+    public void retainRoute(TransportRoute route) {
+        routeCache.retain(route);
+    }
+
+    /**
+     * Notes, that an entity stopped using the route. Has no effect for routes not planned by this planner.
+     */
+    public void releaseRoute(TransportRoute route) {
+        routeCache.release(route);
+    }
+
+    /**
+     * Evicts the routes planned since the last call, that no entity started using.
+     */
+    public void evictUnusedRoutes() {
+        routeCache.evictUnusedRoutes();
+    }
+
+    public void networkRemoved(Network2<EntityTransportNetworkNode> network) {
+        nextHopTables.remove(network);
+        graphSnapshots.remove(network);
+        routeCache.networkChanged(network);
+    }
+
+    /**
+     * Drops the cached tables, that contain any of the removed nodes, and the cached routes passing through them.
+     */
+    public void nodesRemoved(Network2<EntityTransportNetworkNode> network, Collection<EntityTransportNetworkNode> nodes) {
+        graphSnapshots.remove(network);
+        TLongSet removedBlocks = new TLongHashSet();
+        for (EntityTransportNetworkNode node : nodes) {
+            removedBlocks.add(BlockLocations.pack(node.location));
+        }
+        routeCache.evictRoutesThrough(network, removedBlocks);
+        Map<EntityTransportNetworkNode, NextHopTable> networkTables = nextHopTables.get(network);
+        if (networkTables != null) {
+            Iterator<NextHopTable> tableIterator = networkTables.values().iterator();
+            while (tableIterator.hasNext()) {
+                NextHopTable nextHopTable = tableIterator.next();
+                for (EntityTransportNetworkNode node : nodes) {
+                    if (nextHopTable.distances.containsKey(node)) {
+                        tableIterator.remove();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the cached tables, that the added nodes could provide a new (or shorter) path for. That is only the case,
+     * if any of the added nodes can move entities into a node already reaching the table's destination. Cached routes
+     * are evicted, unless the table of their destination is kept - routes to destinations without a table (planned off
+     * the game thread) are evicted as well, as there is nothing to tell whether they are still the shortest.
+     */
+    public void nodesAdded(Network2<EntityTransportNetworkNode> network, Collection<EntityTransportNetworkNode> nodes) {
+        graphSnapshots.remove(network);
+        Map<EntityTransportNetworkNode, NextHopTable> networkTables = nextHopTables.get(network);
+        if (networkTables == null) {
+            routeCache.networkChanged(network);
+            return;
+        }
+        Iterator<NextHopTable> tableIterator = networkTables.values().iterator();
+        while (tableIterator.hasNext()) {
+            NextHopTable nextHopTable = tableIterator.next();
+            for (EntityTransportNetworkNode node : nodes) {
+                if (hasSuccessorInTable(network, node, nextHopTable)) {
+                    tableIterator.remove();
+                    break;
+                }
+            }
+        }
+        routeCache.evictRoutesTo(network, destination -> !networkTables.containsKey(destination));
+    }
+
+    private boolean hasSuccessorInTable(Network2<EntityTransportNetworkNode> network, EntityTransportNetworkNode node, NextHopTable nextHopTable) {
+        ImmutableBlockLocation location = node.location;
+        for (Side side : Side.values()) {
+            if (SideBitFlag.hasSide(node.outputSides, side)) {
+                Vector3i direction = side.getVector3i();
+                nodesCache.clear();
+                networkLocationIndex.collectNodesAt(location.x + direction.x, location.y + direction.y, location.z + direction.z,
+                        network, nodesCache);
+                for (EntityTransportNetworkNode neighbour : nodesCache) {
+                    if (SideBitFlag.hasSide(neighbour.inputSides, side.reverse()) && nextHopTable.distances.containsKey(neighbour)) {
+                        nodesCache.clear();
+                        return true;
+                    }
+                }
+            }
+        }
+        nodesCache.clear();
+        return false;
+    }
+
+    private NextHopTable getNextHopTable(Network2<EntityTransportNetworkNode> network, EntityTransportNetworkNode destination) {
+        Map<EntityTransportNetworkNode, NextHopTable> networkTables = nextHopTables.get(network);
+        if (networkTables == null) {
+            networkTables = Maps.newHashMap();
+            nextHopTables.put(network, networkTables);
+        }
+        NextHopTable nextHopTable = networkTables.get(destination);
+        if (nextHopTable == null) {
+            nextHopTable = computeNextHopTable(network, destination);
+            networkTables.put(destination, nextHopTable);
+        }
+        return nextHopTable;
+    }
+
+    private NextHopTable computeNextHopTable(Network2<EntityTransportNetworkNode> network, EntityTransportNetworkNode destination) {
+        NextHopTable nextHopTable = new NextHopTable();
+        nextHopTable.distances.put(destination, 0);
+
+        List<EntityTransportNetworkNode> predecessors = Lists.newArrayList();
+        Deque<EntityTransportNetworkNode> queue = new ArrayDeque<>();
+        queue.add(destination);
+        while (!queue.isEmpty()) {
+            EntityTransportNetworkNode node = queue.removeFirst();
+            int predecessorDistance = nextHopTable.distances.get(node) + 1;
+            ImmutableBlockLocation location = node.location;
+            for (Side side : Side.values()) {
+                if (SideBitFlag.hasSide(node.inputSides, side)) {
+                    Vector3i direction = side.getVector3i();
+                    predecessors.clear();
+                    networkLocationIndex.collectNodesAt(location.x + direction.x, location.y + direction.y, location.z + direction.z,
+                            network, predecessors);
+                    for (EntityTransportNetworkNode predecessor : predecessors) {
+                        if (SideBitFlag.hasSide(predecessor.outputSides, side.reverse())
+                                && !nextHopTable.distances.containsKey(predecessor)) {
+                            nextHopTable.distances.put(predecessor, predecessorDistance);
+                            nextHopTable.nextHops.put(predecessor, node);
+                            queue.add(predecessor);
+                        }
+                    }
+                }
+            }
+        }
+        return nextHopTable;
+    }
+
+    private EntityTransportNetworkNode findNode(Network2<EntityTransportNetworkNode> network, Vector3i location, Side side, boolean input) {
+        nodesCache.clear();
+        networkLocationIndex.collectNodesAt(location.x, location.y, location.z, network, nodesCache);
+        EntityTransportNetworkNode result = null;
+        for (EntityTransportNetworkNode node : nodesCache) {
+            if (SideBitFlag.hasSide(input ? node.inputSides : node.outputSides, side)) {
+                result = node;
+                break;
+            }
+        }
+        nodesCache.clear();
+        return result;
+    }
+
+    private static Vector3f toVector3f(ImmutableBlockLocation location) {
+        return new Vector3f(location.x, location.y, location.z);
+    }
+
+    /**
+     * Route planned on another thread. The result of {@link #computeRoutePlan} is published together with the plan
+     * (e.g. through a concurrent queue), the future is completed on the game thread.
+     */
+    static final class RoutePlan {
+        final CompletableFuture<TransportRoute> future = new CompletableFuture<>();
+        final CompletableFuture<NetworkGraphSnapshot> snapshot;
+        private final Network2<EntityTransportNetworkNode> network;
+        private final EntityTransportNetworkNode[] sources;
+        private final EntityTransportNetworkNode destination;
+        private final long millisPerUnit;
+        private EntityTransportNetworkNode source;
+        private LinearTransportRoute route;
+        Throwable failure;
+
+        private RoutePlan(Network2<EntityTransportNetworkNode> network, CompletableFuture<NetworkGraphSnapshot> snapshot,
+                          EntityTransportNetworkNode[] sources, EntityTransportNetworkNode destination, long millisPerUnit) {
+            this.network = network;
+            this.snapshot = snapshot;
+            this.sources = sources;
+            this.destination = destination;
+            this.millisPerUnit = millisPerUnit;
+        }
+    }
+
+    private static final class NextHopTable {
+        private Map<EntityTransportNetworkNode, EntityTransportNetworkNode> nextHops = Maps.newHashMap();
+        private Map<EntityTransportNetworkNode, Integer> distances = Maps.newHashMap();
+    }
+}
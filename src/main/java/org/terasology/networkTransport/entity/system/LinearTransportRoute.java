@@ -15,27 +15,66 @@
  */
 package org.terasology.networkTransport.entity.system;
 
-import com.google.common.collect.Lists;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.terasology.math.geom.Vector3f;
+import org.terasology.networkTransport.network.BlockLocations;
 
-import java.util.Deque;
-import java.util.Iterator;
-import java.util.Queue;
+import java.util.Arrays;
 
+/**
+ * Route going through a number of points in straight lines with a constant speed. Points are kept packed in a
+ * primitive array together with the time of arrival at each of them, so that position lookups do a binary search
+ * and do not allocate.
+ * <p>
+ * Once sealed, the route can't be modified anymore, and can be safely shared by many entities.
+ */
 public class LinearTransportRoute implements TransportRoute {
-    private Deque<Vector3f> route = Lists.newLinkedList();
+    private static final int INITIAL_CAPACITY = 4;
+    private static final float BLOCK_SAMPLING_STEP = 0.25f;
+
+    private float[] points = new float[INITIAL_CAPACITY * 3];
+    private float[] arrivals = new float[INITIAL_CAPACITY];
+    private int pointCount;
     private float length;
     private long millisPerUnit;
+    private long[] traversedBlocks;
+    private String encodedPath;
+    private boolean pathEncoded;
+    private boolean sealed;
 
     public LinearTransportRoute(Vector3f startingPosition, long millisPerUnit) {
         this.millisPerUnit = millisPerUnit;
-        route.add(startingPosition);
+        appendPoint(startingPosition, 0);
     }
 
     public void addPoint(Vector3f point) {
-        Vector3f last = route.getLast();
-        route.add(point);
-        length += point.distance(last);
+        if (sealed) {
+            throw new IllegalStateException("Unable to add a point to a sealed route");
+        }
+        int last = (pointCount - 1) * 3;
+        float dx = point.x - points[last];
+        float dy = point.y - points[last + 1];
+        float dz = point.z - points[last + 2];
+        length += (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        appendPoint(point, length * millisPerUnit);
+        traversedBlocks = null;
+    }
+
+    public void seal() {
+        sealed = true;
+    }
+
+    public boolean isSealed() {
+        return sealed;
+    }
+
+    public int getPointCount() {
+        return pointCount;
+    }
+
+    public long getMillisPerUnit() {
+        return millisPerUnit;
     }
 
     @Override
@@ -45,38 +84,114 @@ public class LinearTransportRoute implements TransportRoute {
 
     @Override
     public Vector3f getPosition(long progress) {
+        return getPosition(progress, new Vector3f());
+    }
+
+    @Override
+    public Vector3f getPosition(long progress, Vector3f out) {
         if (progress <= 0) {
-            return route.getFirst();
+            return getPoint(0, out);
         }
         if (progress >= getTransportDuration()) {
-            return route.getLast();
+            return getPoint(pointCount - 1, out);
+        }
+
+        int next = findFirstArrivalAfter(progress);
+        if (next == pointCount) {
+            return getPoint(pointCount - 1, out);
         }
 
-        float distanceTravelled = 0;
-        Iterator<Vector3f> routeIterator = route.iterator();
-        Vector3f lastPosition = routeIterator.next();
-        while (routeIterator.hasNext()) {
-            Vector3f nextPosition = routeIterator.next();
-            float distanceFromLast = lastPosition.distance(nextPosition);
-
-            float arrivalAtNextPosition = (distanceTravelled + distanceFromLast) * millisPerUnit;
-            if (arrivalAtNextPosition > progress) {
-                // The entity is somewhere between lastPosition and nextPosition
-                float arrivalAtLastPosition = distanceTravelled * millisPerUnit;
-                float progressBetweenPositions = (progress - arrivalAtLastPosition) / (arrivalAtNextPosition - arrivalAtLastPosition);
-                return getPositionBetween(progressBetweenPositions, lastPosition, nextPosition);
+        // The entity is somewhere between the previous and next point
+        int last = next - 1;
+        float arrivalAtLastPosition = arrivals[last];
+        float progressBetweenPositions = (progress - arrivalAtLastPosition) / (arrivals[next] - arrivalAtLastPosition);
+        int lastIndex = last * 3;
+        int nextIndex = next * 3;
+        out.set(
+                points[lastIndex] + progressBetweenPositions * (points[nextIndex] - points[lastIndex]),
+                points[lastIndex + 1] + progressBetweenPositions * (points[nextIndex + 1] - points[lastIndex + 1]),
+                points[lastIndex + 2] + progressBetweenPositions * (points[nextIndex + 2] - points[lastIndex + 2]));
+        return out;
+    }
+
+    @Override
+    public long[] getTraversedBlocks() {
+        if (traversedBlocks == null) {
+            TLongSet blocks = new TLongHashSet();
+            Vector3f sample = new Vector3f();
+            addBlock(blocks, getPoint(0, sample));
+            for (int next = 1; next < pointCount; next++) {
+                int lastIndex = (next - 1) * 3;
+                int nextIndex = next * 3;
+                float dx = points[nextIndex] - points[lastIndex];
+                float dy = points[nextIndex + 1] - points[lastIndex + 1];
+                float dz = points[nextIndex + 2] - points[lastIndex + 2];
+                int steps = (int) Math.ceil(Math.sqrt(dx * dx + dy * dy + dz * dz) / BLOCK_SAMPLING_STEP);
+                for (int step = 1; step <= steps; step++) {
+                    float progressBetweenPositions = (float) step / steps;
+                    sample.set(
+                            points[lastIndex] + progressBetweenPositions * dx,
+                            points[lastIndex + 1] + progressBetweenPositions * dy,
+                            points[lastIndex + 2] + progressBetweenPositions * dz);
+                    addBlock(blocks, sample);
+                }
             }
-            distanceTravelled += distanceFromLast;
-            lastPosition = nextPosition;
+            traversedBlocks = blocks.toArray();
+        }
+        return traversedBlocks;
+    }
+
+    /**
+     * Returns the route encoded by {@link LinearTransportRouteCodec}. A sealed route is encoded only once, so that all
+     * the entities sharing it share the encoded path as well.
+     *
+     * @return Encoded route, or <code>null</code> if the route can't be encoded.
+     */
+    public String getEncodedPath() {
+        if (!sealed) {
+            return LinearTransportRouteCodec.encode(this);
         }
+        if (!pathEncoded) {
+            encodedPath = LinearTransportRouteCodec.encode(this);
+            pathEncoded = true;
+        }
+        return encodedPath;
+    }
 
-        return null;
+    private void addBlock(TLongSet blocks, Vector3f position) {
+        blocks.add(BlockLocations.pack(position));
     }
 
-    private Vector3f getPositionBetween(float progressBetweenPositions, Vector3f lastPosition, Vector3f nextPosition) {
-        return new Vector3f(
-                lastPosition.x + progressBetweenPositions * (nextPosition.x - lastPosition.x),
-                lastPosition.y + progressBetweenPositions * (nextPosition.y - lastPosition.y),
-                lastPosition.z + progressBetweenPositions * (nextPosition.z - lastPosition.z));
+    public Vector3f getPoint(int index, Vector3f out) {
+        int pointIndex = index * 3;
+        out.set(points[pointIndex], points[pointIndex + 1], points[pointIndex + 2]);
+        return out;
+    }
+
+    private int findFirstArrivalAfter(long progress) {
+        int low = 1;
+        int high = pointCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (arrivals[middle] > progress) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private void appendPoint(Vector3f point, float arrival) {
+        if (pointCount == arrivals.length) {
+            arrivals = Arrays.copyOf(arrivals, pointCount * 2);
+            points = Arrays.copyOf(points, pointCount * 6);
+        }
+        int pointIndex = pointCount * 3;
+        points[pointIndex] = point.x;
+        points[pointIndex + 1] = point.y;
+        points[pointIndex + 2] = point.z;
+        arrivals[pointCount] = arrival;
+        pointCount++;
     }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import org.terasology.math.geom.Vector3f;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Base64;
+
+/**
+ * Encodes routes going through block centres into compact strings. The first point is stored as is, every following
+ * point as a difference from the previous one, all the numbers are zig-zag encoded as variable-length integers, and
+ * the resulting bytes are Base64 encoded.
+ */
+public final class LinearTransportRouteCodec {
+    private LinearTransportRouteCodec() {
+    }
+
+    /**
+     * @return Encoded route, or <code>null</code> if any of the route points is not in a block centre.
+     */
+    public static String encode(LinearTransportRoute route) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Vector3f point = new Vector3f();
+        int lastX = 0;
+        int lastY = 0;
+        int lastZ = 0;
+        for (int i = 0; i < route.getPointCount(); i++) {
+            route.getPoint(i, point);
+            int x = (int) point.x;
+            int y = (int) point.y;
+            int z = (int) point.z;
+            if (x != point.x || y != point.y || z != point.z) {
+                return null;
+            }
+            writeVarInt(output, x - lastX);
+            writeVarInt(output, y - lastY);
+            writeVarInt(output, z - lastZ);
+            lastX = x;
+            lastY = y;
+            lastZ = z;
+        }
+        return Base64.getEncoder().encodeToString(output.toByteArray());
+    }
+
+    /**
+     * @return Decoded route, or <code>null</code> if the path is malformed.
+     */
+    public static LinearTransportRoute decode(String path, long millisPerUnit) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(path);
+        } catch (IllegalArgumentException exp) {
+            return null;
+        }
+
+        int[] position = new int[1];
+        int[] coordinates = new int[3];
+        LinearTransportRoute route = null;
+        while (position[0] < bytes.length) {
+            try {
+                for (int i = 0; i < 3; i++) {
+                    coordinates[i] += readVarInt(bytes, position);
+                }
+            } catch (IllegalArgumentException exp) {
+                return null;
+            }
+            Vector3f point = new Vector3f(coordinates[0], coordinates[1], coordinates[2]);
+            if (route == null) {
+                route = new LinearTransportRoute(point, millisPerUnit);
+            } else {
+                route.addPoint(point);
+            }
+        }
+        return route;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream output, int value) {
+        int zigZag = (value << 1) ^ (value >> 31);
+        while ((zigZag & ~0x7F) != 0) {
+            output.write((zigZag & 0x7F) | 0x80);
+            zigZag >>>= 7;
+        }
+        output.write(zigZag);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes end in the middle of the number, or the number doesn't fit an int.
+     */
+    private static int readVarInt(byte[] bytes, int[] position) {
+        int zigZag = 0;
+        int shift = 0;
+        byte value;
+        do {
+            if (position[0] >= bytes.length) {
+                throw new IllegalArgumentException("Truncated variable-length integer at byte " + position[0]);
+            }
+            if (shift > 28) {
+                throw new IllegalArgumentException("Variable-length integer too long at byte " + position[0]);
+            }
+            value = bytes[position[0]++];
+            zigZag |= (value & 0x7F) << shift;
+            shift += 7;
+        } while ((value & 0x80) != 0);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Maps;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.terasology.blockNetwork.ImmutableBlockLocation;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.network.BlockLocations;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Immutable copy of the connections between the nodes of a network, that routes can be planned against on other
+ * threads, while the network itself keeps changing on the game thread. It is built from the nodes alone (which are
+ * immutable), so it can be built on another thread as well. Predecessors of node <code>i</code> (nodes entities can
+ * move from into node <code>i</code>) are <code>predecessors[predecessorStart[i]]</code> to
+ * <code>predecessors[predecessorStart[i + 1] - 1]</code>.
+ */
+final class NetworkGraphSnapshot {
+    private static final int NO_NODE = -1;
+
+    private final EntityTransportNetworkNode[] nodes;
+    private final Map<EntityTransportNetworkNode, Integer> nodeIndices;
+    private final int[] predecessorStart;
+    private final int[] predecessors;
+
+    private NetworkGraphSnapshot(EntityTransportNetworkNode[] nodes, Map<EntityTransportNetworkNode, Integer> nodeIndices,
+                                 int[] predecessorStart, int[] predecessors) {
+        this.nodes = nodes;
+        this.nodeIndices = nodeIndices;
+        this.predecessorStart = predecessorStart;
+        this.predecessors = predecessors;
+    }
+
+    static NetworkGraphSnapshot create(EntityTransportNetworkNode[] nodes) {
+        // Nodes at the same location are chained through nextNodeAt
+        Map<EntityTransportNetworkNode, Integer> nodeIndices = Maps.newHashMapWithExpectedSize(nodes.length);
+        TLongIntMap firstNodeAt = new TLongIntHashMap(nodes.length, 0.5f, Long.MIN_VALUE, NO_NODE);
+        int[] nextNodeAt = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodeIndices.put(nodes[i], i);
+            long location = BlockLocations.pack(nodes[i].location);
+            nextNodeAt[i] = firstNodeAt.get(location);
+            firstNodeAt.put(location, i);
+        }
+
+        int[] predecessorStart = new int[nodes.length + 1];
+        int[] predecessors = new int[nodes.length * 2];
+        int predecessorCount = 0;
+        for (int i = 0; i < nodes.length; i++) {
+            predecessorStart[i] = predecessorCount;
+            ImmutableBlockLocation location = nodes[i].location;
+            for (Side side : Side.values()) {
+                if (SideBitFlag.hasSide(nodes[i].inputSides, side)) {
+                    Vector3i direction = side.getVector3i();
+                    long neighbourLocation = BlockLocations.pack(location.x + direction.x, location.y + direction.y, location.z + direction.z);
+                    for (int neighbour = firstNodeAt.get(neighbourLocation); neighbour != NO_NODE; neighbour = nextNodeAt[neighbour]) {
+                        if (SideBitFlag.hasSide(nodes[neighbour].outputSides, side.reverse())) {
+                            if (predecessorCount == predecessors.length) {
+                                predecessors = Arrays.copyOf(predecessors, predecessors.length * 2 + 1);
+                            }
+                            predecessors[predecessorCount++] = neighbour;
+                        }
+                    }
+                }
+            }
+        }
+        predecessorStart[nodes.length] = predecessorCount;
+        return new NetworkGraphSnapshot(nodes, nodeIndices, predecessorStart, Arrays.copyOf(predecessors, predecessorCount));
+    }
+
+    /**
+     * @return Index of the node or -1, if the node is not in the snapshot.
+     */
+    int getNodeIndex(EntityTransportNetworkNode node) {
+        Integer index = nodeIndices.get(node);
+        return index != null ? index : NO_NODE;
+    }
+
+    EntityTransportNetworkNode getNode(int index) {
+        return nodes[index];
+    }
+
+    /**
+     * Finds the shortest path from any of the source nodes to the destination node, by a breadth-first search from
+     * the destination.
+     *
+     * @return Indices of the nodes along the path, starting with the source and ending with the destination, or
+     * <code>null</code> if none of the sources can reach the destination.
+     */
+    int[] findPath(int[] sources, int destination) {
+        boolean[] isSource = new boolean[nodes.length];
+        for (int source : sources) {
+            isSource[source] = true;
+        }
+        int[] nextHops = new int[nodes.length];
+        Arrays.fill(nextHops, NO_NODE);
+        nextHops[destination] = destination;
+        int[] queue = new int[nodes.length];
+        int queueHead = 0;
+        int queueTail = 0;
+        queue[queueTail++] = destination;
+        int source = isSource[destination] ? destination : NO_NODE;
+        while (source == NO_NODE && queueHead < queueTail) {
+            int node = queue[queueHead++];
+            for (int p = predecessorStart[node]; p < predecessorStart[node + 1]; p++) {
+                int predecessor = predecessors[p];
+                if (nextHops[predecessor] == NO_NODE) {
+                    nextHops[predecessor] = node;
+                    queue[queueTail++] = predecessor;
+                    if (isSource[predecessor]) {
+                        source = predecessor;
+                        break;
+                    }
+                }
+            }
+        }
+        if (source == NO_NODE) {
+            return null;
+        }
+
+        int length = 1;
+        for (int node = source; node != destination; node = nextHops[node]) {
+            length++;
+        }
+        int[] path = new int[length];
+        int node = source;
+        for (int i = 0; i < length; i++) {
+            path[i] = node;
+            node = nextHops[node];
+        }
+        return path;
+    }
+}
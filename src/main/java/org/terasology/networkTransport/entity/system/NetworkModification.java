@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Sets;
+
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Net change of a network's nodes since the last notification. Adding a node removed in the same tick (and vice
+ * versa) cancels out.
+ */
+final class NetworkModification {
+    private Set<EntityTransportNetworkNode> addedNodes = Sets.newHashSet();
+    private Set<EntityTransportNetworkNode> removedNodes = Sets.newHashSet();
+
+    boolean isEmpty() {
+        return addedNodes.isEmpty() && removedNodes.isEmpty();
+    }
+
+    Set<EntityTransportNetworkNode> getAddedNodes() {
+        return addedNodes;
+    }
+
+    Set<EntityTransportNetworkNode> getRemovedNodes() {
+        return removedNodes;
+    }
+
+    void nodesAdded(Collection<EntityTransportNetworkNode> nodes) {
+        for (EntityTransportNetworkNode node : nodes) {
+            if (!removedNodes.remove(node)) {
+                addedNodes.add(node);
+            }
+        }
+    }
+
+    void nodesRemoved(Collection<EntityTransportNetworkNode> nodes) {
+        for (EntityTransportNetworkNode node : nodes) {
+            if (!addedNodes.remove(node)) {
+                removedNodes.add(node);
+            }
+        }
+    }
+
+    /**
+     * Applies the other modification on top of this one, as if its nodes were added and removed after the ones of
+     * this modification.
+     */
+    void merge(NetworkModification modification) {
+        nodesAdded(modification.addedNodes);
+        nodesRemoved(modification.removedNodes);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.network.BlockLocations;
+import org.terasology.world.chunks.ChunkConstants;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queue of loaded routed entities waiting to be merged into their networks. Entities are grouped by transporter type
+ * and chunk, and groups are processed in the order they were first added, so that entities loaded together are also
+ * merged together.
+ */
+public class PendingLoadedEntities {
+    private Map<String, TLongObjectMap<Group>> groupsByChunk = Maps.newHashMap();
+    private Deque<Group> groupQueue = new ArrayDeque<>();
+    private TObjectIntMap<String> sizesByType = new TObjectIntHashMap<>();
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    public int size(String transporterType) {
+        return sizesByType.get(transporterType);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void add(String transporterType, EntityRef entity, Vector3i blockLocation) {
+        long chunk = BlockLocations.pack(
+                blockLocation.x >> ChunkConstants.POWER_X,
+                blockLocation.y >> ChunkConstants.POWER_Y,
+                blockLocation.z >> ChunkConstants.POWER_Z);
+        TLongObjectMap<Group> groupsOfType = groupsByChunk.get(transporterType);
+        if (groupsOfType == null) {
+            groupsOfType = new TLongObjectHashMap<>();
+            groupsByChunk.put(transporterType, groupsOfType);
+        }
+        Group group = groupsOfType.get(chunk);
+        if (group == null) {
+            group = new Group(transporterType, chunk);
+            groupsOfType.put(chunk, group);
+            groupQueue.add(group);
+        }
+        group.entities.add(entity);
+        sizesByType.adjustOrPutValue(transporterType, 1, 1);
+        size++;
+    }
+
+    /**
+     * Returns the oldest group of entities, without removing it from the queue.
+     */
+    public Group peekGroup() {
+        return groupQueue.peek();
+    }
+
+    /**
+     * Takes the next entity from the group, removing the group from the queue if it was the last one.
+     */
+    public EntityRef poll(Group group) {
+        EntityRef entity = group.entities.get(group.nextIndex);
+        group.entities.set(group.nextIndex, null);
+        group.nextIndex++;
+        sizesByType.adjustValue(group.transporterType, -1);
+        size--;
+        if (!group.hasNext()) {
+            groupQueue.remove(group);
+            groupsByChunk.get(group.transporterType).remove(group.chunk);
+        }
+        return entity;
+    }
+
+    public static final class Group {
+        private final String transporterType;
+        private final long chunk;
+        private final List<EntityRef> entities = Lists.newArrayList();
+        private int nextIndex;
+
+        private Group(String transporterType, long chunk) {
+            this.transporterType = transporterType;
+            this.chunk = chunk;
+        }
+
+        public String getTransporterType() {
+            return transporterType;
+        }
+
+        public boolean hasNext() {
+            return nextIndex < entities.size();
+        }
+    }
+}
@@ -17,14 +17,53 @@ package org.terasology.networkTransport.entity.system;
 
 import org.terasology.entitySystem.entity.EntityRef;
 
+/**
+ * Entity (or lightweight item) routed through a network. Lightweight items have no entity, until one is requested, so
+ * their <code>entity</code> is <code>EntityRef.NULL</code> and they are identified by their (negative) id and payload
+ * instead. A lightweight item can be a packet of several stacked items, sharing the payload of the first one.
+ */
 public class RoutedEntity {
+    public final long id;
     public final EntityRef entity;
+    public final Object payload;
     public final TransportRoute transportRoute;
     public final long routingStart;
+    public final int count;
 
     public RoutedEntity(EntityRef entity, TransportRoute transportRoute, long routingStart) {
+        this(entity.getId(), entity, null, transportRoute, routingStart);
+    }
+
+    public RoutedEntity(long id, EntityRef entity, Object payload, TransportRoute transportRoute, long routingStart) {
+        this(id, entity, payload, transportRoute, routingStart, 1);
+    }
+
+    public RoutedEntity(long id, EntityRef entity, Object payload, TransportRoute transportRoute, long routingStart, int count) {
+        this.id = id;
         this.entity = entity;
+        this.payload = payload;
         this.transportRoute = transportRoute;
         this.routingStart = routingStart;
+        this.count = count;
+    }
+
+    public boolean isLightweightItem() {
+        return id < 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        return id == ((RoutedEntity) o).id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
     }
 }
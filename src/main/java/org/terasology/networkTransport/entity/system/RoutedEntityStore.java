@@ -0,0 +1,411 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.terasology.blockNetwork.ImmutableBlockLocation;
+import org.terasology.blockNetwork.NetworkNode;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.Side;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.network.BlockLocations;
+
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Keeps all the entities (and lightweight items) routed through a single network. Entities are kept in parallel arrays (one slot per entity)
+ * and located by their id, so that adding, removing and finding an entity is O(1), and iterating over all of them
+ * goes over packed arrays.
+ * <p>
+ * Store also keeps a reverse index from block locations to the entities with routes passing through them. The index
+ * can be dropped while the store is not expected to be queried for affected entities (i.e. its network is dormant).
+ */
+public class RoutedEntityStore {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NO_SLOT = -1;
+
+    private TLongIntMap slotsById = new TLongIntHashMap(INITIAL_CAPACITY, 0.5f, Long.MIN_VALUE, NO_SLOT);
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private EntityRef[] entities = new EntityRef[INITIAL_CAPACITY];
+    private Object[] payloads = new Object[INITIAL_CAPACITY];
+    private TransportRoute[] transportRoutes = new TransportRoute[INITIAL_CAPACITY];
+    private long[] routingStarts = new long[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY];
+    private int size;
+    private int itemCount;
+
+    private TLongObjectMap<TLongSet> routedEntitiesByBlock = new TLongObjectHashMap<>();
+    private TLongSet routedEntitiesWithUnknownBlocks = new TLongHashSet();
+    private boolean indexed = true;
+
+    private Collection<RoutedEntity> routedEntitiesView = new RoutedEntitiesView();
+
+    /**
+     * Returns a view of all the entities in this store. RoutedEntity objects are created while iterating over it.
+     */
+    public Collection<RoutedEntity> getRoutedEntities() {
+        return routedEntitiesView;
+    }
+
+    /**
+     * @return Number of slots, i.e. entities, lightweight items and packets of stacked items.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Number of items, counting every item stacked in a packet.
+     */
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public boolean contains(long id) {
+        return slotsById.containsKey(id);
+    }
+
+    /**
+     * @return Slot of the entity or -1 if the entity is not in this store.
+     */
+    public int getSlot(long id) {
+        return slotsById.get(id);
+    }
+
+    /**
+     * @return Routed entity or <code>null</code> if the entity is not in this store.
+     */
+    public RoutedEntity get(long id) {
+        int slot = slotsById.get(id);
+        if (slot == NO_SLOT) {
+            return null;
+        }
+        return getRoutedEntity(slot);
+    }
+
+    public long getId(int slot) {
+        return ids[slot];
+    }
+
+    public EntityRef getEntity(int slot) {
+        return entities[slot];
+    }
+
+    public Object getPayload(int slot) {
+        return payloads[slot];
+    }
+
+    public TransportRoute getTransportRoute(int slot) {
+        return transportRoutes[slot];
+    }
+
+    public long getRoutingStart(int slot) {
+        return routingStarts[slot];
+    }
+
+    /**
+     * @return Number of items stacked in the slot (one, unless the slot holds a packet).
+     */
+    public int getCount(int slot) {
+        return counts[slot];
+    }
+
+    public void setCount(int slot, int count) {
+        itemCount += count - counts[slot];
+        counts[slot] = count;
+    }
+
+    public RoutedEntity getRoutedEntity(int slot) {
+        return new RoutedEntity(ids[slot], entities[slot], payloads[slot], transportRoutes[slot], routingStarts[slot], counts[slot]);
+    }
+
+    /**
+     * Adds the entity (or lightweight item) to the store, replacing it if an entity with the same id is already in it.
+     */
+    public void put(long id, EntityRef entity, Object payload, TransportRoute transportRoute, long routingStart) {
+        put(id, entity, payload, transportRoute, routingStart, 1);
+    }
+
+    public void put(long id, EntityRef entity, Object payload, TransportRoute transportRoute, long routingStart, int count) {
+        int slot = slotsById.get(id);
+        if (slot == NO_SLOT) {
+            slot = size;
+            ensureCapacity(size + 1);
+            size++;
+            slotsById.put(id, slot);
+            ids[slot] = id;
+        } else {
+            unindexRoute(id, transportRoutes[slot]);
+            itemCount -= counts[slot];
+        }
+        entities[slot] = entity;
+        payloads[slot] = payload;
+        transportRoutes[slot] = transportRoute;
+        routingStarts[slot] = routingStart;
+        counts[slot] = count;
+        itemCount += count;
+        indexRoute(id, transportRoute);
+    }
+
+    public void put(RoutedEntity routedEntity) {
+        put(routedEntity.id, routedEntity.entity, routedEntity.payload, routedEntity.transportRoute, routedEntity.routingStart,
+                routedEntity.count);
+    }
+
+    /**
+     * Replaces the route of an entity already in the store.
+     *
+     * @return If the entity was in the store.
+     */
+    public boolean reroute(long id, TransportRoute transportRoute, long routingStart) {
+        int slot = slotsById.get(id);
+        if (slot == NO_SLOT) {
+            return false;
+        }
+        unindexRoute(id, transportRoutes[slot]);
+        transportRoutes[slot] = transportRoute;
+        routingStarts[slot] = routingStart;
+        indexRoute(id, transportRoute);
+        return true;
+    }
+
+    /**
+     * Attaches an entity to a lightweight item, after which the item is identified by the id of the entity. If the item
+     * was a packet, only its first item stays in the slot.
+     */
+    public void materialize(long itemId, EntityRef entity) {
+        int slot = slotsById.remove(itemId);
+        if (slot != NO_SLOT) {
+            long id = entity.getId();
+            unindexRoute(itemId, transportRoutes[slot]);
+            slotsById.put(id, slot);
+            ids[slot] = id;
+            entities[slot] = entity;
+            itemCount -= counts[slot] - 1;
+            counts[slot] = 1;
+            indexRoute(id, transportRoutes[slot]);
+        }
+    }
+
+    /**
+     * @return If the entity was in the store.
+     */
+    public boolean remove(long id) {
+        int slot = slotsById.remove(id);
+        if (slot == NO_SLOT) {
+            return false;
+        }
+        unindexRoute(id, transportRoutes[slot]);
+        itemCount -= counts[slot];
+
+        int last = size - 1;
+        if (slot != last) {
+            ids[slot] = ids[last];
+            entities[slot] = entities[last];
+            payloads[slot] = payloads[last];
+            transportRoutes[slot] = transportRoutes[last];
+            routingStarts[slot] = routingStarts[last];
+            counts[slot] = counts[last];
+            slotsById.put(ids[slot], slot);
+        }
+        entities[last] = null;
+        payloads[last] = null;
+        transportRoutes[last] = null;
+        size--;
+        return true;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Drops or rebuilds the reverse index from blocks to entities. {@link #collectAffected} must not be called on
+     * a store without the index.
+     */
+    public void setIndexed(boolean indexed) {
+        if (indexed == this.indexed) {
+            return;
+        }
+        this.indexed = indexed;
+        if (indexed) {
+            for (int slot = 0; slot < size; slot++) {
+                indexRoute(ids[slot], transportRoutes[slot]);
+            }
+        } else {
+            routedEntitiesByBlock = new TLongObjectHashMap<>();
+            routedEntitiesWithUnknownBlocks = new TLongHashSet();
+        }
+    }
+
+    /**
+     * Writes the positions (x, y, z) of the entities at the specified game time into the position buffer, and their
+     * ids into the id buffer, starting at the current positions of the buffers. Only positions within the region are
+     * written, if one is specified. Stops when either of the buffers is full.
+     * <p>
+     * One entry is written per slot, so the items stacked in a packet are written once, with the id of the packet.
+     *
+     * @param gameTime
+     * @param positionBuffer
+     * @param idBuffer
+     * @param regionMin Minimum corner of the region (inclusive) or <code>null</code> for no region.
+     * @param regionMax Maximum corner of the region (inclusive) or <code>null</code> for no region.
+     * @param scratch   Vector used for evaluating positions.
+     * @return Number of entries written.
+     */
+    public int fillPositions(long gameTime, FloatBuffer positionBuffer, LongBuffer idBuffer, Vector3f regionMin, Vector3f regionMax,
+                             Vector3f scratch) {
+        int written = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (positionBuffer.remaining() < 3 || !idBuffer.hasRemaining()) {
+                break;
+            }
+            Vector3f position = transportRoutes[slot].getPosition(gameTime - routingStarts[slot], scratch);
+            if (regionMin != null
+                    && (position.x < regionMin.x || position.y < regionMin.y || position.z < regionMin.z
+                    || position.x > regionMax.x || position.y > regionMax.y || position.z > regionMax.z)) {
+                continue;
+            }
+            positionBuffer.put(position.x).put(position.y).put(position.z);
+            idBuffer.put(ids[slot]);
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Adds to the result all the entities, which routes pass through any of the removed nodes, or through any of the
+     * added nodes or their neighbours.
+     */
+    public void collectAffected(Collection<? extends NetworkNode> addedNodes, Collection<? extends NetworkNode> removedNodes,
+                                Collection<RoutedEntity> result) {
+        TLongSet affectedIds = new TLongHashSet(routedEntitiesWithUnknownBlocks);
+        for (NetworkNode removedNode : removedNodes) {
+            collectInBlock(BlockLocations.pack(removedNode.location), affectedIds);
+        }
+        for (NetworkNode addedNode : addedNodes) {
+            ImmutableBlockLocation location = addedNode.location;
+            collectInBlock(BlockLocations.pack(location), affectedIds);
+            for (Side side : Side.values()) {
+                Vector3i direction = side.getVector3i();
+                collectInBlock(BlockLocations.pack(location.x + direction.x, location.y + direction.y, location.z + direction.z), affectedIds);
+            }
+        }
+
+        TLongIterator iterator = affectedIds.iterator();
+        while (iterator.hasNext()) {
+            result.add(getRoutedEntity(slotsById.get(iterator.next())));
+        }
+    }
+
+    private void collectInBlock(long block, TLongSet result) {
+        TLongSet routedEntitiesInBlock = routedEntitiesByBlock.get(block);
+        if (routedEntitiesInBlock != null) {
+            result.addAll(routedEntitiesInBlock);
+        }
+    }
+
+    private void indexRoute(long id, TransportRoute transportRoute) {
+        if (!indexed) {
+            return;
+        }
+        long[] traversedBlocks = transportRoute.getTraversedBlocks();
+        if (traversedBlocks == null) {
+            routedEntitiesWithUnknownBlocks.add(id);
+        } else {
+            for (long block : traversedBlocks) {
+                TLongSet routedEntitiesInBlock = routedEntitiesByBlock.get(block);
+                if (routedEntitiesInBlock == null) {
+                    routedEntitiesInBlock = new TLongHashSet();
+                    routedEntitiesByBlock.put(block, routedEntitiesInBlock);
+                }
+                routedEntitiesInBlock.add(id);
+            }
+        }
+    }
+
+    private void unindexRoute(long id, TransportRoute transportRoute) {
+        if (!indexed) {
+            return;
+        }
+        long[] traversedBlocks = transportRoute.getTraversedBlocks();
+        if (traversedBlocks == null) {
+            routedEntitiesWithUnknownBlocks.remove(id);
+        } else {
+            for (long block : traversedBlocks) {
+                TLongSet routedEntitiesInBlock = routedEntitiesByBlock.get(block);
+                if (routedEntitiesInBlock != null) {
+                    routedEntitiesInBlock.remove(id);
+                    if (routedEntitiesInBlock.isEmpty()) {
+                        routedEntitiesByBlock.remove(block);
+                    }
+                }
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > ids.length) {
+            int newCapacity = Math.max(capacity, ids.length * 2);
+            ids = Arrays.copyOf(ids, newCapacity);
+            entities = Arrays.copyOf(entities, newCapacity);
+            payloads = Arrays.copyOf(payloads, newCapacity);
+            transportRoutes = Arrays.copyOf(transportRoutes, newCapacity);
+            routingStarts = Arrays.copyOf(routingStarts, newCapacity);
+            counts = Arrays.copyOf(counts, newCapacity);
+        }
+    }
+
+    private final class RoutedEntitiesView extends AbstractCollection<RoutedEntity> {
+        @Override
+        public Iterator<RoutedEntity> iterator() {
+            return new Iterator<RoutedEntity>() {
+                private int slot;
+
+                @Override
+                public boolean hasNext() {
+                    return slot < size;
+                }
+
+                @Override
+                public RoutedEntity next() {
+                    if (slot >= size) {
+                        throw new NoSuchElementException();
+                    }
+                    return getRoutedEntity(slot++);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import org.terasology.blockNetwork.EfficientNetworkTopologyListener;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+
+import java.util.Set;
+
+/**
+ * Topology listener recording the time spent in each callback of the listener it delegates to.
+ */
+class TimedTopologyListener implements EfficientNetworkTopologyListener<EntityTransportNetworkNode> {
+    private final EfficientNetworkTopologyListener<EntityTransportNetworkNode> delegate;
+    private final TransportMetrics metrics;
+
+    TimedTopologyListener(EfficientNetworkTopologyListener<EntityTransportNetworkNode> delegate, TransportMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void networkAdded(Network2<EntityTransportNetworkNode> network, NetworkChangeReason reason) {
+        long start = System.nanoTime();
+        try {
+            delegate.networkAdded(network, reason);
+        } finally {
+            metrics.recordTopologyCallback(TransportMetrics.TopologyCallback.NETWORK_ADDED, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void networkRemoved(Network2<EntityTransportNetworkNode> network, NetworkChangeReason reason) {
+        long start = System.nanoTime();
+        try {
+            delegate.networkRemoved(network, reason);
+        } finally {
+            metrics.networkRemoved(network);
+            metrics.recordTopologyCallback(TransportMetrics.TopologyCallback.NETWORK_REMOVED, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void networkSplit(Network2<EntityTransportNetworkNode> oldNetwork, Set<? extends Network2<EntityTransportNetworkNode>> resultNetworks,
+                             NetworkChangeReason reason) {
+        long start = System.nanoTime();
+        try {
+            delegate.networkSplit(oldNetwork, resultNetworks, reason);
+        } finally {
+            metrics.networkRemoved(oldNetwork);
+            metrics.recordTopologyCallback(TransportMetrics.TopologyCallback.NETWORK_SPLIT, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void networksMerged(Set<? extends Network2<EntityTransportNetworkNode>> oldNetworks, Network2<EntityTransportNetworkNode> newNetwork,
+                               NetworkChangeReason reason) {
+        long start = System.nanoTime();
+        try {
+            delegate.networksMerged(oldNetworks, newNetwork, reason);
+        } finally {
+            for (Network2<EntityTransportNetworkNode> oldNetwork : oldNetworks) {
+                metrics.networkRemoved(oldNetwork);
+            }
+            metrics.recordTopologyCallback(TransportMetrics.TopologyCallback.NETWORKS_MERGED, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void networkingNodesAdded(Network2<EntityTransportNetworkNode> network, Set<EntityTransportNetworkNode> networkingNodes,
+                                     NetworkChangeReason reason) {
+        long start = System.nanoTime();
+        try {
+            delegate.networkingNodesAdded(network, networkingNodes, reason);
+        } finally {
+            metrics.recordTopologyCallback(TransportMetrics.TopologyCallback.NODES_ADDED, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void networkingNodesRemoved(Network2<EntityTransportNetworkNode> network, Set<EntityTransportNetworkNode> networkingNodes,
+                                       NetworkChangeReason reason) {
+        long start = System.nanoTime();
+        try {
+            delegate.networkingNodesRemoved(network, networkingNodes, reason);
+        } finally {
+            metrics.recordTopologyCallback(TransportMetrics.TopologyCallback.NODES_REMOVED, System.nanoTime() - start);
+        }
+    }
+}
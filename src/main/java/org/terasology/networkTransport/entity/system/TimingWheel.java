@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import java.util.Collection;
+
+/**
+ * Hierarchical timing wheel keyed by game time (in milliseconds). Scheduling, cancelling and rescheduling a timer
+ * are O(1), expired timers are drained in batches by calling {@link #advance(long, Collection)} once per tick.
+ * <p>
+ * The wheel consists of four levels of 256 slots each, the first level having the resolution of one tick. Timers
+ * further in the future are kept in the higher levels and cascaded down, as the time advances.
+ *
+ * @param <T> Type of the payload kept by timers.
+ */
+public class TimingWheel<T> {
+    private static final int LEVEL_BITS = 8;
+    private static final int SLOT_COUNT = 1 << LEVEL_BITS;
+    private static final int SLOT_MASK = SLOT_COUNT - 1;
+    private static final int LEVEL_COUNT = 4;
+    private static final long MAX_TICKS_AHEAD = (1L << (LEVEL_BITS * LEVEL_COUNT)) - 1;
+
+    private final long tickMillis;
+    private final Timer<T>[][] slots;
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMillis, long startTime) {
+        this.tickMillis = tickMillis;
+        this.slots = new Timer[LEVEL_COUNT][SLOT_COUNT];
+        this.currentTick = startTime / tickMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Schedules a new timer expiring at the specified game time.
+     *
+     * @return Handle of the timer, that can be used to cancel or reschedule it.
+     */
+    public Timer<T> schedule(T payload, long expireTime) {
+        Timer<T> timer = new Timer<>(payload);
+        timer.expireTime = expireTime;
+        link(timer);
+        size++;
+        return timer;
+    }
+
+    /**
+     * Changes the time when the timer expires. If the timer has already expired or was cancelled, it gets scheduled
+     * again.
+     */
+    public void reschedule(Timer<T> timer, long expireTime) {
+        if (timer.isScheduled()) {
+            unlink(timer);
+        } else {
+            size++;
+        }
+        timer.expireTime = expireTime;
+        link(timer);
+    }
+
+    public void cancel(Timer<T> timer) {
+        if (timer.isScheduled()) {
+            unlink(timer);
+            size--;
+        }
+    }
+
+    /**
+     * Advances the wheel up to the specified game time, adding payloads of all the timers that expired to the passed
+     * collection.
+     */
+    public void advance(long time, Collection<? super T> expired) {
+        long targetTick = time / tickMillis;
+        if (size == 0) {
+            currentTick = Math.max(currentTick, targetTick + 1);
+            return;
+        }
+        while (currentTick <= targetTick && size > 0) {
+            int index = (int) (currentTick & SLOT_MASK);
+            if (index == 0) {
+                cascade(1);
+            }
+            Timer<T> timer = slots[0][index];
+            slots[0][index] = null;
+            while (timer != null) {
+                Timer<T> next = timer.next;
+                timer.level = -1;
+                timer.previous = null;
+                timer.next = null;
+                size--;
+                expired.add(timer.payload);
+                timer = next;
+            }
+            currentTick++;
+        }
+        currentTick = Math.max(currentTick, targetTick + 1);
+    }
+
+    private void cascade(int level) {
+        if (level == LEVEL_COUNT) {
+            return;
+        }
+        int index = (int) ((currentTick >> (LEVEL_BITS * level)) & SLOT_MASK);
+        if (index == 0) {
+            cascade(level + 1);
+        }
+        Timer<T> timer = slots[level][index];
+        slots[level][index] = null;
+        while (timer != null) {
+            Timer<T> next = timer.next;
+            timer.previous = null;
+            timer.next = null;
+            link(timer);
+            timer = next;
+        }
+    }
+
+    private void link(Timer<T> timer) {
+        long expireTick = (timer.expireTime + tickMillis - 1) / tickMillis;
+        long ticksAhead = expireTick - currentTick;
+        if (ticksAhead < 0) {
+            expireTick = currentTick;
+            ticksAhead = 0;
+        } else if (ticksAhead > MAX_TICKS_AHEAD) {
+            expireTick = currentTick + MAX_TICKS_AHEAD;
+            ticksAhead = MAX_TICKS_AHEAD;
+        }
+
+        int level = 0;
+        while (ticksAhead >= (1L << (LEVEL_BITS * (level + 1)))) {
+            level++;
+        }
+        int index = (int) ((expireTick >> (LEVEL_BITS * level)) & SLOT_MASK);
+
+        Timer<T> head = slots[level][index];
+        timer.next = head;
+        if (head != null) {
+            head.previous = timer;
+        }
+        slots[level][index] = timer;
+        timer.level = level;
+        timer.slot = index;
+    }
+
+    private void unlink(Timer<T> timer) {
+        if (timer.previous != null) {
+            timer.previous.next = timer.next;
+        } else {
+            slots[timer.level][timer.slot] = timer.next;
+        }
+        if (timer.next != null) {
+            timer.next.previous = timer.previous;
+        }
+        timer.previous = null;
+        timer.next = null;
+        timer.level = -1;
+    }
+
+    public static final class Timer<T> {
+        private T payload;
+        private long expireTime;
+        private Timer<T> previous;
+        private Timer<T> next;
+        private int level = -1;
+        private int slot;
+
+        private Timer(T payload) {
+            this.payload = payload;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        public void setPayload(T payload) {
+            this.payload = payload;
+        }
+
+        public long getExpireTime() {
+            return expireTime;
+        }
+
+        public boolean isScheduled() {
+            return level != -1;
+        }
+    }
+}
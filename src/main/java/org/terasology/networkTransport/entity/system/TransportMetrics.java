@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import gnu.trove.map.TObjectLongMap;
+import gnu.trove.map.hash.TObjectLongHashMap;
+import org.terasology.blockNetwork.Network2;
+
+/**
+ * Counters and timers of the transport of a single transporter type. Recording does not allocate (apart from the
+ * first handler call for a network), so the metrics are always on. Rates are sampled over windows of one second of
+ * game time.
+ */
+public class TransportMetrics {
+    public enum TopologyCallback {
+        NETWORK_ADDED, NETWORK_REMOVED, NETWORK_SPLIT, NETWORKS_MERGED, NODES_ADDED, NODES_REMOVED
+    }
+
+    private static final long RATE_WINDOW_MILLIS = 1000;
+
+    private long routedCount;
+    private long arrivalCount;
+    private long rerouteCount;
+    private long stackedCount;
+
+    private long windowStart = -1;
+    private long windowArrivalCount;
+    private long windowRerouteCount;
+    private float arrivalsPerSecond;
+    private float reroutesPerSecond;
+
+    private final long[] topologyCallbackCounts = new long[TopologyCallback.values().length];
+    private final long[] topologyCallbackNanos = new long[TopologyCallback.values().length];
+    private final long[] topologyCallbackMaxNanos = new long[TopologyCallback.values().length];
+
+    private long handlerCallCount;
+    private long handlerNanos;
+    private long handlerMaxNanos;
+    private TObjectLongMap<Network2<EntityTransportNetworkNode>> handlerNanosByNetwork = new TObjectLongHashMap<>();
+
+    private int pendingLoadBacklog;
+
+    public long getRoutedCount() {
+        return routedCount;
+    }
+
+    public long getArrivalCount() {
+        return arrivalCount;
+    }
+
+    public long getRerouteCount() {
+        return rerouteCount;
+    }
+
+    /**
+     * @return Number of items, that joined a packet instead of being routed on their own.
+     */
+    public long getStackedCount() {
+        return stackedCount;
+    }
+
+    public float getArrivalsPerSecond() {
+        return arrivalsPerSecond;
+    }
+
+    public float getReroutesPerSecond() {
+        return reroutesPerSecond;
+    }
+
+    public long getTopologyCallbackCount(TopologyCallback callback) {
+        return topologyCallbackCounts[callback.ordinal()];
+    }
+
+    public long getTopologyCallbackNanos(TopologyCallback callback) {
+        return topologyCallbackNanos[callback.ordinal()];
+    }
+
+    public long getTopologyCallbackMaxNanos(TopologyCallback callback) {
+        return topologyCallbackMaxNanos[callback.ordinal()];
+    }
+
+    public long getHandlerCallCount() {
+        return handlerCallCount;
+    }
+
+    public long getHandlerNanos() {
+        return handlerNanos;
+    }
+
+    public long getHandlerMaxNanos() {
+        return handlerMaxNanos;
+    }
+
+    /**
+     * @return Total time spent in the handler callbacks made for the network.
+     */
+    public long getHandlerNanos(Network2<EntityTransportNetworkNode> network) {
+        return handlerNanosByNetwork.get(network);
+    }
+
+    /**
+     * @return Network the handler spent most time on, or <code>null</code> if no handler calls were recorded for any
+     * of the existing networks.
+     */
+    @SuppressWarnings("unchecked")
+    public Network2<EntityTransportNetworkNode> getMostExpensiveNetwork() {
+        Network2<EntityTransportNetworkNode>[] result = new Network2[1];
+        long[] maxNanos = {-1};
+        handlerNanosByNetwork.forEachEntry((network, nanos) -> {
+            if (nanos > maxNanos[0]) {
+                maxNanos[0] = nanos;
+                result[0] = network;
+            }
+            return true;
+        });
+        return result[0];
+    }
+
+    public int getPendingLoadBacklog() {
+        return pendingLoadBacklog;
+    }
+
+    void recordRouted() {
+        routedCount++;
+    }
+
+    void recordStacked() {
+        routedCount++;
+        stackedCount++;
+    }
+
+    void recordArrival() {
+        arrivalCount++;
+    }
+
+    void recordArrivals(int count) {
+        arrivalCount += count;
+    }
+
+    void recordReroute() {
+        rerouteCount++;
+    }
+
+    void recordTopologyCallback(TopologyCallback callback, long nanos) {
+        int index = callback.ordinal();
+        topologyCallbackCounts[index]++;
+        topologyCallbackNanos[index] += nanos;
+        topologyCallbackMaxNanos[index] = Math.max(topologyCallbackMaxNanos[index], nanos);
+    }
+
+    /**
+     * @param network Network the call was made for, or <code>null</code> if it only counts towards the totals.
+     */
+    void recordHandlerCall(Network2<EntityTransportNetworkNode> network, long nanos) {
+        handlerCallCount++;
+        handlerNanos += nanos;
+        handlerMaxNanos = Math.max(handlerMaxNanos, nanos);
+        if (network != null) {
+            handlerNanosByNetwork.adjustOrPutValue(network, nanos, nanos);
+        }
+    }
+
+    void networkRemoved(Network2<EntityTransportNetworkNode> network) {
+        handlerNanosByNetwork.remove(network);
+    }
+
+    void setPendingLoadBacklog(int pendingLoadBacklog) {
+        this.pendingLoadBacklog = pendingLoadBacklog;
+    }
+
+    /**
+     * Updates the rates, if the current window is over.
+     */
+    void sampleRates(long gameTime) {
+        if (windowStart == -1) {
+            windowStart = gameTime;
+            windowArrivalCount = arrivalCount;
+            windowRerouteCount = rerouteCount;
+        } else if (gameTime - windowStart >= RATE_WINDOW_MILLIS) {
+            float seconds = (gameTime - windowStart) / 1000f;
+            arrivalsPerSecond = (arrivalCount - windowArrivalCount) / seconds;
+            reroutesPerSecond = (rerouteCount - windowRerouteCount) / seconds;
+            windowStart = gameTime;
+            windowArrivalCount = arrivalCount;
+            windowRerouteCount = rerouteCount;
+        }
+    }
+}
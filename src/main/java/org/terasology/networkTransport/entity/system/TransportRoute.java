@@ -16,8 +16,34 @@
 package org.terasology.networkTransport.entity.system;
 
 import org.terasology.math.geom.Vector3f;
+import org.terasology.networkTransport.network.BlockLocations;
 
 public interface TransportRoute {
     Vector3f getPosition(long progress);
+
+    /**
+     * Calculates the position of an entity on this route and stores it in the passed vector, without allocating a new
+     * one.
+     *
+     * @param progress
+     * @param out
+     * @return The passed vector.
+     */
+    default Vector3f getPosition(long progress, Vector3f out) {
+        out.set(getPosition(progress));
+        return out;
+    }
+
     long getTransportDuration();
+
+    /**
+     * Returns locations of all the blocks this route passes through, packed with {@link BlockLocations#pack}. These
+     * are used to find the entities affected by changes to the network.
+     *
+     * @return Packed locations, or <code>null</code> if not known, in which case the entity is considered to be
+     * affected by any change to the network.
+     */
+    default long[] getTraversedBlocks() {
+        return null;
+    }
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import gnu.trove.set.TLongSet;
+import org.terasology.blockNetwork.Network2;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Cache of routes shared by all the entities travelling the same path at the same speed. Routes are kept per network
+ * and keyed by their source node, destination node and speed. Cached routes are sealed, so they can't be modified by
+ * any of their users.
+ * <p>
+ * Each cached route counts the entities using it. A route is evicted when its last user releases it, when no entity
+ * started using it by the time {@link #evictUnusedRoutes()} is called, or when its network changes in a way that
+ * could affect it. Releasing an evicted route has no effect.
+ */
+public class TransportRouteCache {
+    private Map<Network2<EntityTransportNetworkNode>, Map<RouteKey, CachedRoute>> routesByNetwork = Maps.newHashMap();
+    private Map<TransportRoute, CachedRoute> cachedRoutes = new IdentityHashMap<>();
+    private List<CachedRoute> addedRoutes = Lists.newArrayList();
+
+    public int size() {
+        return cachedRoutes.size();
+    }
+
+    /**
+     * @return Cached route or <code>null</code> if there is no such route in the cache.
+     */
+    public LinearTransportRoute get(Network2<EntityTransportNetworkNode> network, EntityTransportNetworkNode source,
+                                    EntityTransportNetworkNode destination, long millisPerUnit) {
+        Map<RouteKey, CachedRoute> networkRoutes = routesByNetwork.get(network);
+        if (networkRoutes == null) {
+            return null;
+        }
+        CachedRoute cachedRoute = networkRoutes.get(new RouteKey(source, destination, millisPerUnit));
+        return cachedRoute != null ? cachedRoute.route : null;
+    }
+
+    /**
+     * Seals the route and adds it to the cache. The route is not used by any entity, until it is retained.
+     */
+    public void put(Network2<EntityTransportNetworkNode> network, EntityTransportNetworkNode source,
+                    EntityTransportNetworkNode destination, LinearTransportRoute route) {
+        route.seal();
+        Map<RouteKey, CachedRoute> networkRoutes = routesByNetwork.get(network);
+        if (networkRoutes == null) {
+            networkRoutes = Maps.newHashMap();
+            routesByNetwork.put(network, networkRoutes);
+        }
+        CachedRoute cachedRoute = new CachedRoute(network, new RouteKey(source, destination, route.getMillisPerUnit()), route);
+        CachedRoute replacedRoute = networkRoutes.put(cachedRoute.key, cachedRoute);
+        if (replacedRoute != null) {
+            cachedRoutes.remove(replacedRoute.route);
+        }
+        cachedRoutes.put(route, cachedRoute);
+        addedRoutes.add(cachedRoute);
+    }
+
+    /**
+     * Notes, that another entity uses the route, if the route is cached.
+     */
+    public void retain(TransportRoute route) {
+        CachedRoute cachedRoute = cachedRoutes.get(route);
+        if (cachedRoute != null) {
+            cachedRoute.references++;
+        }
+    }
+
+    /**
+     * Notes, that an entity stopped using the route, evicting it if it was the last one.
+     */
+    public void release(TransportRoute route) {
+        CachedRoute cachedRoute = cachedRoutes.get(route);
+        if (cachedRoute != null && --cachedRoute.references <= 0) {
+            evict(cachedRoute);
+        }
+    }
+
+    /**
+     * Evicts the routes added since the last call, that no entity started using, e.g. routes planned for entities that
+     * were not routed in the end.
+     */
+    public void evictUnusedRoutes() {
+        for (CachedRoute cachedRoute : addedRoutes) {
+            if (cachedRoute.references <= 0 && cachedRoutes.get(cachedRoute.route) == cachedRoute) {
+                evict(cachedRoute);
+            }
+        }
+        addedRoutes.clear();
+    }
+
+    private void evict(CachedRoute cachedRoute) {
+        cachedRoutes.remove(cachedRoute.route);
+        Map<RouteKey, CachedRoute> networkRoutes = routesByNetwork.get(cachedRoute.network);
+        networkRoutes.remove(cachedRoute.key);
+        if (networkRoutes.isEmpty()) {
+            routesByNetwork.remove(cachedRoute.network);
+        }
+    }
+
+    /**
+     * Evicts the routes of the network, that pass through any of the blocks.
+     *
+     * @param network
+     * @param blocks  Packed locations of the blocks (see {@link org.terasology.networkTransport.network.BlockLocations}).
+     */
+    public void evictRoutesThrough(Network2<EntityTransportNetworkNode> network, TLongSet blocks) {
+        evictRoutes(network, cachedRoute -> {
+            for (long block : cachedRoute.route.getTraversedBlocks()) {
+                if (blocks.contains(block)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Evicts the routes of the network, which destination nodes match the filter.
+     */
+    public void evictRoutesTo(Network2<EntityTransportNetworkNode> network, Predicate<EntityTransportNetworkNode> destinationFilter) {
+        evictRoutes(network, cachedRoute -> destinationFilter.test(cachedRoute.key.destination));
+    }
+
+    private void evictRoutes(Network2<EntityTransportNetworkNode> network, Predicate<CachedRoute> filter) {
+        Map<RouteKey, CachedRoute> networkRoutes = routesByNetwork.get(network);
+        if (networkRoutes != null) {
+            Iterator<CachedRoute> routeIterator = networkRoutes.values().iterator();
+            while (routeIterator.hasNext()) {
+                CachedRoute cachedRoute = routeIterator.next();
+                if (filter.test(cachedRoute)) {
+                    routeIterator.remove();
+                    cachedRoutes.remove(cachedRoute.route);
+                }
+            }
+            if (networkRoutes.isEmpty()) {
+                routesByNetwork.remove(network);
+            }
+        }
+    }
+
+    /**
+     * Evicts all the routes of the network.
+     */
+    public void networkChanged(Network2<EntityTransportNetworkNode> network) {
+        Map<RouteKey, CachedRoute> networkRoutes = routesByNetwork.remove(network);
+        if (networkRoutes != null) {
+            for (CachedRoute cachedRoute : networkRoutes.values()) {
+                cachedRoutes.remove(cachedRoute.route);
+            }
+        }
+    }
+
+    private static final class CachedRoute {
+        private final Network2<EntityTransportNetworkNode> network;
+        private final RouteKey key;
+        private final LinearTransportRoute route;
+        private int references;
+
+        private CachedRoute(Network2<EntityTransportNetworkNode> network, RouteKey key, LinearTransportRoute route) {
+            this.network = network;
+            this.key = key;
+            this.route = route;
+        }
+    }
+
+    private static final class RouteKey {
+        private final EntityTransportNetworkNode source;
+        private final EntityTransportNetworkNode destination;
+        private final long millisPerUnit;
+
+        private RouteKey(EntityTransportNetworkNode source, EntityTransportNetworkNode destination, long millisPerUnit) {
+            this.source = source;
+            this.destination = destination;
+            this.millisPerUnit = millisPerUnit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            RouteKey routeKey = (RouteKey) o;
+            return millisPerUnit == routeKey.millisPerUnit
+                    && source.equals(routeKey.source)
+                    && destination.equals(routeKey.destination);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(source, destination, millisPerUnit);
+        }
+    }
+}
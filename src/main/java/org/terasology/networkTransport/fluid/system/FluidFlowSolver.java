@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.fluid.system;
+
+/**
+ * Iterative solver of fluid flow within a single network. Pressure in a node is its fill ratio, and fluid flows
+ * between connected nodes proportionally to the pressure difference. Each iteration computes all the flows from the
+ * state at its beginning, so the result does not depend on the order the nodes are visited in.
+ */
+public final class FluidFlowSolver {
+    /**
+     * Upper bound of the fraction of the pressure difference evened out per iteration over a single connection. It
+     * keeps the iteration stable for nodes with all six neighbours.
+     */
+    private static final float MAX_STEP_CONDUCTANCE = 1f / 12;
+
+    private FluidFlowSolver() {
+    }
+
+    /**
+     * Solves the flow over the specified time, writing the result into the solved volumes of the state.
+     *
+     * @param state
+     * @param deltaSeconds Time to solve the flow for.
+     * @param iterations   Number of iterations the time is divided into.
+     * @param conductance  Fraction of the pressure difference evened out per second over a single connection.
+     */
+    public static void solve(FluidNetworkState state, float deltaSeconds, int iterations, float conductance) {
+        int nodeCount = state.nodeCount;
+        float[] capacities = state.capacities;
+        float[] pressures = state.pressures;
+        float[] outflows = state.outflows;
+        int[] neighbourCounts = state.neighbourCounts;
+        int[] adjacency = state.adjacency;
+        float stepConductance = Math.min(MAX_STEP_CONDUCTANCE, conductance * deltaSeconds / iterations);
+
+        float[] current = state.solvedVolumes;
+        float[] next = state.scratchVolumes;
+        System.arraycopy(state.volumes, 0, current, 0, nodeCount);
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            for (int i = 0; i < nodeCount; i++) {
+                pressures[i] = capacities[i] > 0 ? current[i] / capacities[i] : 1;
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                float outflow = 0;
+                int first = i * FluidNetworkState.MAX_NEIGHBOURS;
+                for (int a = first; a < first + neighbourCounts[i]; a++) {
+                    int j = adjacency[a];
+                    if (pressures[i] > pressures[j]) {
+                        outflow += stepConductance * (pressures[i] - pressures[j]) * Math.min(capacities[i], capacities[j]);
+                    }
+                }
+                // Flows are scaled down, if the node would give away more than it holds
+                outflows[i] = outflow > current[i] ? current[i] / outflow : 1;
+            }
+            System.arraycopy(current, 0, next, 0, nodeCount);
+            for (int i = 0; i < nodeCount; i++) {
+                int first = i * FluidNetworkState.MAX_NEIGHBOURS;
+                for (int a = first; a < first + neighbourCounts[i]; a++) {
+                    int j = adjacency[a];
+                    if (pressures[i] > pressures[j]) {
+                        float flow = outflows[i] * stepConductance * (pressures[i] - pressures[j]) * Math.min(capacities[i], capacities[j]);
+                        next[i] -= flow;
+                        next[j] += flow;
+                    }
+                }
+            }
+            float[] swap = current;
+            current = next;
+            next = swap;
+        }
+        if (current != state.solvedVolumes) {
+            System.arraycopy(current, 0, state.solvedVolumes, 0, nodeCount);
+        }
+        state.markSolved();
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.fluid.system;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.network.BlockLocations;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * State of fluid in a single network, kept in primitive arrays indexed by the order of the network's nodes. Each node
+ * has room for all its six neighbours: the nodes it can pass fluid to are <code>adjacency[i * 6]</code> to
+ * <code>adjacency[i * 6 + neighbourCounts[i] - 1]</code>.
+ * <p>
+ * Nodes are added and removed in place, in time proportional to the number of nodes edited - added nodes are appended
+ * (in the order of their locations), a removed node is replaced by the last one. The state of a network does not
+ * depend on the order the network holds its nodes in, so the simulation stays reproducible.
+ * <p>
+ * Solver works only on the state it is given, so states of different networks can be solved concurrently. Solved
+ * volumes become visible only after {@link #applySolution()} is called.
+ */
+public class FluidNetworkState {
+    static final int MAX_NEIGHBOURS = 6;
+    private static final int NO_NODE = -1;
+    private static final int MIN_CAPACITY = 4;
+    private static final Comparator<FluidTransportNetworkNode> LOCATION_ORDER = Comparator.comparingLong(node -> BlockLocations.pack(node.location));
+
+    int nodeCount;
+    long[] locations;
+    float[] capacities;
+    byte[] inputSides;
+    byte[] outputSides;
+    int[] neighbourCounts;
+    int[] adjacency;
+
+    float[] volumes;
+    float[] solvedVolumes;
+    float[] scratchVolumes;
+    float[] pressures;
+    float[] outflows;
+
+    private final TLongIntMap nodesByLocation;
+    private boolean solved;
+
+    public FluidNetworkState(Collection<FluidTransportNetworkNode> nodes) {
+        int capacity = Math.max(MIN_CAPACITY, nodes.size());
+        locations = new long[capacity];
+        capacities = new float[capacity];
+        inputSides = new byte[capacity];
+        outputSides = new byte[capacity];
+        neighbourCounts = new int[capacity];
+        adjacency = new int[capacity * MAX_NEIGHBOURS];
+        volumes = new float[capacity];
+        solvedVolumes = new float[capacity];
+        scratchVolumes = new float[capacity];
+        pressures = new float[capacity];
+        outflows = new float[capacity];
+        nodesByLocation = new TLongIntHashMap(capacity, 0.5f, Long.MIN_VALUE, NO_NODE);
+        addNodes(nodes);
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return Index of the node at the location packed with
+     * {@link org.terasology.networkTransport.network.BlockLocations#pack}, or -1 if there is no such node.
+     */
+    public int getNodeIndex(long location) {
+        return nodesByLocation.get(location);
+    }
+
+    public long getLocation(int node) {
+        return locations[node];
+    }
+
+    public float getCapacity(int node) {
+        return capacities[node];
+    }
+
+    public float getVolume(int node) {
+        return volumes[node];
+    }
+
+    public float getTotalVolume() {
+        float result = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            result += volumes[i];
+        }
+        return result;
+    }
+
+    /**
+     * Adds fluid to the node, up to its capacity.
+     *
+     * @return Volume actually added.
+     */
+    public float addVolume(int node, float volume) {
+        float added = Math.max(0, Math.min(volume, capacities[node] - volumes[node]));
+        volumes[node] += added;
+        return added;
+    }
+
+    /**
+     * Removes fluid from the node, up to the volume it holds.
+     *
+     * @return Volume actually removed.
+     */
+    public float removeVolume(int node, float volume) {
+        float removed = Math.max(0, Math.min(volume, volumes[node]));
+        volumes[node] -= removed;
+        return removed;
+    }
+
+    /**
+     * Appends the (empty) nodes in the order of their locations, and connects them to the nodes next to them.
+     */
+    public void addNodes(Collection<FluidTransportNetworkNode> nodes) {
+        FluidTransportNetworkNode[] sortedNodes = nodes.toArray(new FluidTransportNetworkNode[nodes.size()]);
+        Arrays.sort(sortedNodes, LOCATION_ORDER);
+        ensureCapacity(nodeCount + sortedNodes.length);
+        int firstAdded = nodeCount;
+        for (FluidTransportNetworkNode node : sortedNodes) {
+            int i = nodeCount++;
+            locations[i] = BlockLocations.pack(node.location);
+            capacities[i] = node.capacity;
+            inputSides[i] = node.inputSides;
+            outputSides[i] = node.outputSides;
+            neighbourCounts[i] = 0;
+            volumes[i] = 0;
+            solvedVolumes[i] = 0;
+            nodesByLocation.put(locations[i], i);
+        }
+        for (int i = firstAdded; i < nodeCount; i++) {
+            for (Side side : Side.values()) {
+                int neighbour = getNeighbour(i, side);
+                if (neighbour != NO_NODE) {
+                    if (SideBitFlag.hasSide(outputSides[i], side) && SideBitFlag.hasSide(inputSides[neighbour], side.reverse())) {
+                        link(i, neighbour);
+                    }
+                    if (SideBitFlag.hasSide(outputSides[neighbour], side.reverse()) && SideBitFlag.hasSide(inputSides[i], side)) {
+                        link(neighbour, i);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the nodes together with the fluid they hold. Nodes not in the state are ignored.
+     */
+    public void removeNodes(Collection<FluidTransportNetworkNode> nodes) {
+        for (FluidTransportNetworkNode node : nodes) {
+            int i = nodesByLocation.get(BlockLocations.pack(node.location));
+            if (i != NO_NODE) {
+                removeNode(i);
+            }
+        }
+    }
+
+    private void removeNode(int node) {
+        for (Side side : Side.values()) {
+            int neighbour = getNeighbour(node, side);
+            if (neighbour != NO_NODE) {
+                unlink(neighbour, node);
+            }
+        }
+        nodesByLocation.remove(locations[node]);
+
+        int last = --nodeCount;
+        if (node != last) {
+            locations[node] = locations[last];
+            capacities[node] = capacities[last];
+            inputSides[node] = inputSides[last];
+            outputSides[node] = outputSides[last];
+            neighbourCounts[node] = neighbourCounts[last];
+            System.arraycopy(adjacency, last * MAX_NEIGHBOURS, adjacency, node * MAX_NEIGHBOURS, MAX_NEIGHBOURS);
+            volumes[node] = volumes[last];
+            solvedVolumes[node] = solvedVolumes[last];
+            nodesByLocation.put(locations[node], node);
+            for (Side side : Side.values()) {
+                int neighbour = getNeighbour(node, side);
+                if (neighbour != NO_NODE) {
+                    relink(neighbour, last, node);
+                }
+            }
+        }
+    }
+
+    private int getNeighbour(int node, Side side) {
+        long location = locations[node];
+        Vector3i direction = side.getVector3i();
+        return nodesByLocation.get(BlockLocations.pack(BlockLocations.unpackX(location) + direction.x,
+                BlockLocations.unpackY(location) + direction.y, BlockLocations.unpackZ(location) + direction.z));
+    }
+
+    private void link(int from, int to) {
+        int first = from * MAX_NEIGHBOURS;
+        for (int a = first; a < first + neighbourCounts[from]; a++) {
+            if (adjacency[a] == to) {
+                return;
+            }
+        }
+        adjacency[first + neighbourCounts[from]++] = to;
+    }
+
+    private void unlink(int from, int to) {
+        int first = from * MAX_NEIGHBOURS;
+        for (int a = first; a < first + neighbourCounts[from]; a++) {
+            if (adjacency[a] == to) {
+                adjacency[a] = adjacency[first + --neighbourCounts[from]];
+                return;
+            }
+        }
+    }
+
+    private void relink(int from, int oldTo, int newTo) {
+        int first = from * MAX_NEIGHBOURS;
+        for (int a = first; a < first + neighbourCounts[from]; a++) {
+            if (adjacency[a] == oldTo) {
+                adjacency[a] = newTo;
+                return;
+            }
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > locations.length) {
+            int newCapacity = Math.max(capacity, locations.length * 2);
+            locations = Arrays.copyOf(locations, newCapacity);
+            capacities = Arrays.copyOf(capacities, newCapacity);
+            inputSides = Arrays.copyOf(inputSides, newCapacity);
+            outputSides = Arrays.copyOf(outputSides, newCapacity);
+            neighbourCounts = Arrays.copyOf(neighbourCounts, newCapacity);
+            adjacency = Arrays.copyOf(adjacency, newCapacity * MAX_NEIGHBOURS);
+            volumes = Arrays.copyOf(volumes, newCapacity);
+            solvedVolumes = Arrays.copyOf(solvedVolumes, newCapacity);
+            scratchVolumes = new float[newCapacity];
+            pressures = new float[newCapacity];
+            outflows = new float[newCapacity];
+        }
+    }
+
+    void markSolved() {
+        solved = true;
+    }
+
+    /**
+     * Makes the volumes computed by the last solve the current ones.
+     */
+    public void applySolution() {
+        if (solved) {
+            float[] previousVolumes = volumes;
+            volumes = solvedVolumes;
+            solvedVolumes = previousVolumes;
+            solved = false;
+        }
+    }
+}
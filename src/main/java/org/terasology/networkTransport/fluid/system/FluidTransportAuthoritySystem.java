@@ -0,0 +1,427 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.fluid.system;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import gnu.trove.map.TLongFloatMap;
+import gnu.trove.map.hash.TLongFloatHashMap;
+import org.terasology.blockNetwork.BlockNetworkUtil;
+import org.terasology.blockNetwork.EfficientBlockNetwork;
+import org.terasology.blockNetwork.EfficientNetworkTopologyListener;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.fluid.component.FluidTransporterComponent;
+import org.terasology.networkTransport.fluid.component.FluidVolumeComponent;
+import org.terasology.networkTransport.network.BlockLocations;
+import org.terasology.networkTransport.network.NetworkLocationIndex;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+import org.terasology.world.WorldProvider;
+import org.terasology.world.block.BeforeDeactivateBlocks;
+import org.terasology.world.block.Block;
+import org.terasology.world.block.BlockComponent;
+import org.terasology.world.block.OnActivatedBlocks;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Transports fluids through networks of blocks. The flow in each network is solved every tick, networks being
+ * independent are solved in parallel. Solved volumes are applied on the game thread, network by network in the order
+ * the networks were created in, so the simulation stays reproducible.
+ * <p>
+ * Blocks added to or removed from a network are applied to its state in place. When networks are split or merged,
+ * the fluid is kept per block location, and the states of the resulting networks are built before the next solve.
+ * Fluid of unloaded blocks is stored on their block entities, blocks without entities keep it only while the game
+ * runs.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(FluidTransportRegistry.class)
+public class FluidTransportAuthoritySystem extends BaseComponentSystem implements FluidTransportRegistry, UpdateSubscriberSystem {
+    private static final int SOLVER_ITERATIONS = 4;
+    private static final float FLOW_CONDUCTANCE = 2f;
+    private static final int PARALLEL_NODE_THRESHOLD = 4096;
+
+    @In
+    private WorldProvider worldProvider;
+
+    private Map<String, EfficientBlockNetwork<FluidTransportNetworkNode>> fluidTransportNetworks = Maps.newHashMap();
+
+    private Map<String, NetworkLocationIndex<FluidTransportNetworkNode>> fluidNetworkLocationIndices = Maps.newHashMap();
+
+    private Map<String, Map<Network2<FluidTransportNetworkNode>, FluidNetworkState>> fluidNetworkStates = Maps.newLinkedHashMap();
+
+    private Map<String, Set<Network2<FluidTransportNetworkNode>>> dirtyFluidNetworks = Maps.newHashMap();
+
+    private Map<String, TLongFloatMap> carriedVolumes = Maps.newHashMap();
+
+    private Map<String, TLongFloatMap> unloadedVolumes = Maps.newHashMap();
+
+    private List<FluidNetworkState> solvedStates = Lists.newArrayList();
+
+    private ForkJoinPool solverPool;
+
+    @Override
+    public void initialise() {
+        solverPool = new ForkJoinPool();
+    }
+
+    @Override
+    public void shutdown() {
+        solverPool.shutdown();
+    }
+
+    /**
+     * Rebuilds the states of networks modified since the last tick, solves the flow in all the networks and applies
+     * the results.
+     *
+     * @param delta The time (in seconds) since the last engine update.
+     */
+    @Override
+    public void update(float delta) {
+        for (String transporterType : fluidNetworkStates.keySet()) {
+            rebuildDirtyStates(transporterType);
+        }
+
+        for (Map<Network2<FluidTransportNetworkNode>, FluidNetworkState> statesOfType : fluidNetworkStates.values()) {
+            solvedStates.addAll(statesOfType.values());
+        }
+        if (!solvedStates.isEmpty()) {
+            solverPool.invoke(new SolveTask(solvedStates, 0, solvedStates.size(), delta));
+            for (FluidNetworkState state : solvedStates) {
+                state.applySolution();
+            }
+            solvedStates.clear();
+        }
+    }
+
+    @Override
+    public void registerFluidTransporterType(String transporterType) {
+        EfficientBlockNetwork<FluidTransportNetworkNode> blockNetwork = new EfficientBlockNetwork<>();
+        fluidTransportNetworks.put(transporterType, blockNetwork);
+        fluidNetworkLocationIndices.put(transporterType, new NetworkLocationIndex<>());
+        fluidNetworkStates.put(transporterType, new LinkedHashMap<>());
+        dirtyFluidNetworks.put(transporterType, Sets.newLinkedHashSet());
+        carriedVolumes.put(transporterType, new TLongFloatHashMap());
+        unloadedVolumes.put(transporterType, new TLongFloatHashMap());
+        blockNetwork.addTopologyListener(new TransporterTypeNetworkTopologyListener(transporterType));
+    }
+
+    @Override
+    public Network2<FluidTransportNetworkNode> findNetworkAt(String transporterType, Vector3i location) {
+        return fluidNetworkLocationIndices.get(transporterType).getNetworkAt(location);
+    }
+
+    @Override
+    public float addFluid(String transporterType, Vector3i location, float volume) {
+        long packedLocation = BlockLocations.pack(location);
+        FluidNetworkState state = getStateAt(transporterType, location);
+        return state != null ? state.addVolume(state.getNodeIndex(packedLocation), volume) : 0;
+    }
+
+    @Override
+    public float removeFluid(String transporterType, Vector3i location, float volume) {
+        long packedLocation = BlockLocations.pack(location);
+        FluidNetworkState state = getStateAt(transporterType, location);
+        return state != null ? state.removeVolume(state.getNodeIndex(packedLocation), volume) : 0;
+    }
+
+    @Override
+    public float getFluidVolume(String transporterType, Vector3i location) {
+        long packedLocation = BlockLocations.pack(location);
+        FluidNetworkState state = getStateAt(transporterType, location);
+        return state != null ? state.getVolume(state.getNodeIndex(packedLocation)) : 0;
+    }
+
+    private FluidNetworkState getStateAt(String transporterType, Vector3i location) {
+        validateTransporterType(transporterType);
+        Network2<FluidTransportNetworkNode> network = fluidNetworkLocationIndices.get(transporterType).getNetworkAt(location);
+        if (network == null) {
+            return null;
+        }
+        if (dirtyFluidNetworks.get(transporterType).contains(network)) {
+            rebuildDirtyStates(transporterType);
+        }
+        FluidNetworkState state = fluidNetworkStates.get(transporterType).get(network);
+        if (state == null || state.getNodeIndex(BlockLocations.pack(location)) == -1) {
+            return null;
+        }
+        return state;
+    }
+
+    private void rebuildDirtyStates(String transporterType) {
+        Set<Network2<FluidTransportNetworkNode>> dirtyNetworks = dirtyFluidNetworks.get(transporterType);
+        if (!dirtyNetworks.isEmpty()) {
+            for (Network2<FluidTransportNetworkNode> network : dirtyNetworks) {
+                rebuildState(transporterType, network);
+            }
+            dirtyNetworks.clear();
+            // Fluid left in locations, that are no longer part of any network, is lost
+            carriedVolumes.get(transporterType).clear();
+        }
+    }
+
+    /**
+     * Builds the state of the network, filled with the fluid carried over from its locations. The state of a network
+     * existing before takes its place, so that the states are kept in the order the networks were created in.
+     */
+    private void rebuildState(String transporterType, Network2<FluidTransportNetworkNode> network) {
+        FluidNetworkState state = new FluidNetworkState(network.getNetworkingNodes());
+        restoreCarriedVolumes(transporterType, state, 0);
+        fluidNetworkStates.get(transporterType).put(network, state);
+    }
+
+    private void restoreCarriedVolumes(String transporterType, FluidNetworkState state, int firstNode) {
+        TLongFloatMap carriedVolumesOfType = carriedVolumes.get(transporterType);
+        if (!carriedVolumesOfType.isEmpty()) {
+            for (int i = firstNode; i < state.getNodeCount(); i++) {
+                if (carriedVolumesOfType.containsKey(state.getLocation(i))) {
+                    state.addVolume(i, carriedVolumesOfType.remove(state.getLocation(i)));
+                }
+            }
+        }
+    }
+
+    @ReceiveEvent
+    public void prefabTransporterLoaded(OnActivatedBlocks event, EntityRef blockTypeEntity, FluidTransporterComponent fluidTransporter) {
+        String transporterType = fluidTransporter.transporterType;
+        validateTransporterType(transporterType);
+        Set<FluidTransportNetworkNode> transportNodes = Sets.newHashSet();
+        TLongFloatMap unloadedVolumesOfType = unloadedVolumes.get(transporterType);
+        for (Vector3i location : event.getBlockPositions()) {
+            transportNodes.add(toNode(location, worldProvider.getBlock(location), fluidTransporter));
+            long packedLocation = BlockLocations.pack(location);
+            if (unloadedVolumesOfType.containsKey(packedLocation)) {
+                carryVolume(transporterType, packedLocation, unloadedVolumesOfType.remove(packedLocation));
+            }
+        }
+        fluidTransportNetworks.get(transporterType).addNetworkingBlocks(transportNodes, NetworkChangeReason.CHUNK_EVENT);
+    }
+
+    @ReceiveEvent
+    public void prefabTransporterUnloaded(BeforeDeactivateBlocks event, EntityRef blockTypeEntity, FluidTransporterComponent fluidTransporter) {
+        String transporterType = fluidTransporter.transporterType;
+        validateTransporterType(transporterType);
+        Set<FluidTransportNetworkNode> transportNodes = Sets.newHashSet();
+        TLongFloatMap unloadedVolumesOfType = unloadedVolumes.get(transporterType);
+        for (Vector3i location : event.getBlockPositions()) {
+            transportNodes.add(toNode(location, worldProvider.getBlock(location), fluidTransporter));
+            float volume = getFluidVolume(transporterType, location);
+            if (volume > 0) {
+                unloadedVolumesOfType.put(BlockLocations.pack(location), volume);
+            }
+        }
+        fluidTransportNetworks.get(transporterType).removeNetworkingBlocks(transportNodes, NetworkChangeReason.CHUNK_EVENT);
+    }
+
+    @ReceiveEvent
+    public void transporterAdded(OnActivatedComponent event, EntityRef blockEntity, FluidTransporterComponent fluidTransporter, BlockComponent block) {
+        String transporterType = fluidTransporter.transporterType;
+        validateTransporterType(transporterType);
+        Vector3i location = new Vector3i(block.getPosition());
+        FluidVolumeComponent fluidVolume = blockEntity.getComponent(FluidVolumeComponent.class);
+        if (fluidVolume != null) {
+            carryVolume(transporterType, BlockLocations.pack(location), fluidVolume.volume);
+            blockEntity.removeComponent(FluidVolumeComponent.class);
+        }
+        fluidTransportNetworks.get(transporterType).addNetworkingBlock(toNode(location, block.getBlock(), fluidTransporter),
+                NetworkChangeReason.WORLD_CHANGE);
+    }
+
+    @ReceiveEvent
+    public void transporterUpdated(OnChangedComponent event, EntityRef blockEntity, FluidTransporterComponent fluidTransporter, BlockComponent block) {
+        String transporterType = fluidTransporter.transporterType;
+        validateTransporterType(transporterType);
+        Vector3i location = new Vector3i(block.getPosition());
+        EfficientBlockNetwork<FluidTransportNetworkNode> fluidTransportNetwork = fluidTransportNetworks.get(transporterType);
+        Collection<FluidTransportNetworkNode> oldTransportNodes = fluidTransportNetwork.getNetworkingNodesAt(location);
+        if (oldTransportNodes.size() > 0) {
+            fluidTransportNetwork.removeNetworkingBlocks(oldTransportNodes, NetworkChangeReason.WORLD_CHANGE);
+        }
+        fluidTransportNetwork.addNetworkingBlock(toNode(location, block.getBlock(), fluidTransporter), NetworkChangeReason.WORLD_CHANGE);
+    }
+
+    @ReceiveEvent
+    public void transporterRemoved(BeforeDeactivateComponent event, EntityRef blockEntity, FluidTransporterComponent fluidTransporter, BlockComponent block) {
+        String transporterType = fluidTransporter.transporterType;
+        validateTransporterType(transporterType);
+        Vector3i location = new Vector3i(block.getPosition());
+        float volume = getFluidVolume(transporterType, location);
+        if (volume > 0) {
+            FluidVolumeComponent fluidVolume = new FluidVolumeComponent();
+            fluidVolume.volume = volume;
+            blockEntity.addComponent(fluidVolume);
+        }
+        fluidTransportNetworks.get(transporterType).removeNetworkingBlock(toNode(location, block.getBlock(), fluidTransporter),
+                NetworkChangeReason.WORLD_CHANGE);
+    }
+
+    private void carryVolume(String transporterType, long location, float volume) {
+        carriedVolumes.get(transporterType).adjustOrPutValue(location, volume, volume);
+    }
+
+    private FluidTransportNetworkNode toNode(Vector3i location, Block block, FluidTransporterComponent fluidTransporter) {
+        byte connections = BlockNetworkUtil.getResultConnections(block, fluidTransporter.connectionSides);
+        return new FluidTransportNetworkNode(location, connections, fluidTransporter.capacity);
+    }
+
+    private void validateTransporterType(String transporterType) {
+        if (!fluidTransportNetworks.containsKey(transporterType)) {
+            throw new IllegalStateException("Unable to locate fluid transporter type " + transporterType);
+        }
+    }
+
+    private static final class SolveTask extends RecursiveAction {
+        private final List<FluidNetworkState> states;
+        private final int from;
+        private final int to;
+        private final float deltaSeconds;
+
+        private SolveTask(List<FluidNetworkState> states, int from, int to, float deltaSeconds) {
+            this.states = states;
+            this.from = from;
+            this.to = to;
+            this.deltaSeconds = deltaSeconds;
+        }
+
+        @Override
+        protected void compute() {
+            int nodeCount = 0;
+            for (int i = from; i < to; i++) {
+                nodeCount += states.get(i).getNodeCount();
+            }
+            if (to - from == 1 || nodeCount <= PARALLEL_NODE_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    FluidFlowSolver.solve(states.get(i), deltaSeconds, SOLVER_ITERATIONS, FLOW_CONDUCTANCE);
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SolveTask(states, from, middle, deltaSeconds), new SolveTask(states, middle, to, deltaSeconds));
+            }
+        }
+    }
+
+    private final class TransporterTypeNetworkTopologyListener implements EfficientNetworkTopologyListener<FluidTransportNetworkNode> {
+        private String transporterType;
+
+        private TransporterTypeNetworkTopologyListener(String transporterType) {
+            this.transporterType = transporterType;
+        }
+
+        @Override
+        public void networkAdded(Network2<FluidTransportNetworkNode> network, NetworkChangeReason reason) {
+            fluidNetworkLocationIndices.get(transporterType).networkAdded(network);
+            dirtyFluidNetworks.get(transporterType).add(network);
+        }
+
+        @Override
+        public void networkRemoved(Network2<FluidTransportNetworkNode> network, NetworkChangeReason reason) {
+            fluidNetworkLocationIndices.get(transporterType).networkRemoved(network);
+            fluidNetworkStates.get(transporterType).remove(network);
+            dirtyFluidNetworks.get(transporterType).remove(network);
+        }
+
+        @Override
+        public void networkSplit(Network2<FluidTransportNetworkNode> oldNetwork,
+                                 Set<? extends Network2<FluidTransportNetworkNode>> resultNetworks, NetworkChangeReason reason) {
+            fluidNetworkLocationIndices.get(transporterType).networkSplit(oldNetwork, resultNetworks);
+            carryVolumes(oldNetwork);
+            fluidNetworkStates.get(transporterType).remove(oldNetwork);
+            dirtyFluidNetworks.get(transporterType).remove(oldNetwork);
+            dirtyFluidNetworks.get(transporterType).addAll(resultNetworks);
+        }
+
+        @Override
+        public void networksMerged(Set<? extends Network2<FluidTransportNetworkNode>> oldNetworks,
+                                   Network2<FluidTransportNetworkNode> newNetwork, NetworkChangeReason reason) {
+            fluidNetworkLocationIndices.get(transporterType).networksMerged(oldNetworks, newNetwork);
+            for (Network2<FluidTransportNetworkNode> oldNetwork : oldNetworks) {
+                carryVolumes(oldNetwork);
+                fluidNetworkStates.get(transporterType).remove(oldNetwork);
+                dirtyFluidNetworks.get(transporterType).remove(oldNetwork);
+            }
+            carryVolumes(newNetwork);
+            dirtyFluidNetworks.get(transporterType).add(newNetwork);
+        }
+
+        @Override
+        public void networkingNodesAdded(Network2<FluidTransportNetworkNode> network, Set<FluidTransportNetworkNode> networkingNodes, NetworkChangeReason reason) {
+            fluidNetworkLocationIndices.get(transporterType).nodesAdded(network, networkingNodes);
+            FluidNetworkState state = getCleanState(network);
+            if (state != null) {
+                int firstAdded = state.getNodeCount();
+                state.addNodes(networkingNodes);
+                restoreCarriedVolumes(transporterType, state, firstAdded);
+            }
+        }
+
+        @Override
+        public void networkingNodesRemoved(Network2<FluidTransportNetworkNode> network, Set<FluidTransportNetworkNode> networkingNodes, NetworkChangeReason reason) {
+            fluidNetworkLocationIndices.get(transporterType).nodesRemoved(network, networkingNodes);
+            FluidNetworkState state = getCleanState(network);
+            if (state != null) {
+                state.removeNodes(networkingNodes);
+            }
+        }
+
+        /**
+         * @return State of the network to edit in place, or <code>null</code> if it is going to be rebuilt anyway.
+         */
+        private FluidNetworkState getCleanState(Network2<FluidTransportNetworkNode> network) {
+            FluidNetworkState state = fluidNetworkStates.get(transporterType).get(network);
+            if (state == null) {
+                dirtyFluidNetworks.get(transporterType).add(network);
+                return null;
+            }
+            return dirtyFluidNetworks.get(transporterType).contains(network) ? null : state;
+        }
+
+        /**
+         * Keeps the fluid of the network's nodes by location, until the states of the networks now containing these
+         * locations are rebuilt. The state of a network waiting for a rebuild was carried over already.
+         */
+        private void carryVolumes(Network2<FluidTransportNetworkNode> network) {
+            FluidNetworkState state = fluidNetworkStates.get(transporterType).get(network);
+            if (state != null && !dirtyFluidNetworks.get(transporterType).contains(network)) {
+                TLongFloatMap carriedVolumesOfType = carriedVolumes.get(transporterType);
+                for (int i = 0; i < state.getNodeCount(); i++) {
+                    if (state.getVolume(i) > 0) {
+                        carriedVolumesOfType.adjustOrPutValue(state.getLocation(i), state.getVolume(i), state.getVolume(i));
+                    }
+                }
+            }
+        }
+    }
+}
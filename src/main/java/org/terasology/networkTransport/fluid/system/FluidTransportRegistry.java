@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.fluid.system;
+
+import org.terasology.blockNetwork.Network2;
+import org.terasology.math.geom.Vector3i;
+
+public interface FluidTransportRegistry {
+    void registerFluidTransporterType(String transporterType);
+
+    Network2<FluidTransportNetworkNode> findNetworkAt(String transporterType, Vector3i location);
+
+    /**
+     * Adds fluid into the network block at the specified location, up to the block's free capacity.
+     *
+     * @return Volume actually added, 0 if there is no network block at the location.
+     */
+    float addFluid(String transporterType, Vector3i location, float volume);
+
+    /**
+     * Removes fluid from the network block at the specified location, up to the volume the block holds.
+     *
+     * @return Volume actually removed, 0 if there is no network block at the location.
+     */
+    float removeFluid(String transporterType, Vector3i location, float volume);
+
+    /**
+     * @return Volume of fluid in the network block at the specified location, 0 if there is no network block there.
+     */
+    float getFluidVolume(String transporterType, Vector3i location);
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.network;
+
+import org.terasology.blockNetwork.ImmutableBlockLocation;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+
+/**
+ * Packs block coordinates into a single long, so they can be used as keys of primitive maps. X and Z get 24 bits
+ * each, Y gets 16 bits, so X and Z range from -8388608 to 8388607, and Y from -32768 to 32767.
+ */
+public final class BlockLocations {
+    private BlockLocations() {
+    }
+
+    /**
+     * @throws IllegalArgumentException If any of the coordinates is out of the range that can be packed.
+     */
+    public static long pack(int x, int y, int z) {
+        if ((x << 8) >> 8 != x || (short) y != y || (z << 8) >> 8 != z) {
+            throw new IllegalArgumentException("Block location (" + x + ", " + y + ", " + z + ") can't be packed");
+        }
+        return ((long) (x & 0xFFFFFF) << 40) | ((long) (y & 0xFFFF) << 24) | (z & 0xFFFFFF);
+    }
+
+    public static long pack(Vector3i location) {
+        return pack(location.x, location.y, location.z);
+    }
+
+    public static long pack(ImmutableBlockLocation location) {
+        return pack(location.x, location.y, location.z);
+    }
+
+    /**
+     * Packs the location of the block containing the position, the same block as <code>new Vector3i(position)</code>
+     * (blocks are centred on integer coordinates), without creating the vector.
+     */
+    public static long pack(Vector3f position) {
+        return pack((int) Math.floor(position.x + 0.5f), (int) Math.floor(position.y + 0.5f), (int) Math.floor(position.z + 0.5f));
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 40);
+    }
+
+    public static int unpackY(long packed) {
+        return (short) (packed >> 24);
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) ((packed << 40) >> 40);
+    }
+
+    public static Vector3i unpack(long packed) {
+        return new Vector3i(unpackX(packed), unpackY(packed), unpackZ(packed));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.network;
+
+import com.google.common.collect.Maps;
+import gnu.trove.iterator.TLongIterator;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkNode;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps block locations to the networking nodes placed there and the networks these nodes belong to. The index is
+ * meant to be kept up to date from the topology listener callbacks of a block network, so that finding the network
+ * at a location does not require scanning all the networks.
+ *
+ * @param <T> Type of the network nodes.
+ */
+public class NetworkLocationIndex<T extends NetworkNode> {
+    private TLongObjectMap<List<IndexedNode<T>>> nodesByLocation = new TLongObjectHashMap<>();
+    private Map<Network2<T>, TLongSet> locationsByNetwork = Maps.newHashMap();
+
+    public void networkAdded(Network2<T> network) {
+        nodesAdded(network, network.getNetworkingNodes());
+    }
+
+    public void networkRemoved(Network2<T> network) {
+        TLongSet locations = locationsByNetwork.remove(network);
+        if (locations != null) {
+            TLongIterator iterator = locations.iterator();
+            while (iterator.hasNext()) {
+                removeEntriesOfNetwork(iterator.next(), network);
+            }
+        }
+    }
+
+    public void networkSplit(Network2<T> oldNetwork, Collection<? extends Network2<T>> resultNetworks) {
+        networkRemoved(oldNetwork);
+        for (Network2<T> resultNetwork : resultNetworks) {
+            networkAdded(resultNetwork);
+        }
+    }
+
+    public void networksMerged(Collection<? extends Network2<T>> oldNetworks, Network2<T> newNetwork) {
+        for (Network2<T> oldNetwork : oldNetworks) {
+            networkRemoved(oldNetwork);
+        }
+        networkAdded(newNetwork);
+    }
+
+    public void nodesAdded(Network2<T> network, Collection<? extends T> nodes) {
+        TLongSet networkLocations = locationsByNetwork.get(network);
+        if (networkLocations == null) {
+            networkLocations = new TLongHashSet();
+            locationsByNetwork.put(network, networkLocations);
+        }
+        for (T node : nodes) {
+            long location = BlockLocations.pack(node.location);
+            List<IndexedNode<T>> indexedNodes = nodesByLocation.get(location);
+            if (indexedNodes == null) {
+                indexedNodes = new ArrayList<>(1);
+                nodesByLocation.put(location, indexedNodes);
+            }
+            IndexedNode<T> indexedNode = findIndexedNode(indexedNodes, node);
+            if (indexedNode == null) {
+                indexedNodes.add(new IndexedNode<>(node, network));
+            } else if (indexedNode.network != network) {
+                Network2<T> previousNetwork = indexedNode.network;
+                indexedNode.network = network;
+                removeLocationOfNetworkIfUnused(location, previousNetwork, indexedNodes);
+            }
+            networkLocations.add(location);
+        }
+    }
+
+    public void nodesRemoved(Network2<T> network, Collection<? extends T> nodes) {
+        for (T node : nodes) {
+            long location = BlockLocations.pack(node.location);
+            List<IndexedNode<T>> indexedNodes = nodesByLocation.get(location);
+            if (indexedNodes != null) {
+                IndexedNode<T> indexedNode = findIndexedNode(indexedNodes, node);
+                if (indexedNode != null && indexedNode.network == network) {
+                    indexedNodes.remove(indexedNode);
+                    removeLocationOfNetworkIfUnused(location, network, indexedNodes);
+                    if (indexedNodes.isEmpty()) {
+                        nodesByLocation.remove(location);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the network with any node at the specified location.
+     *
+     * @return Network or <code>null</code> if there is no node at the location.
+     */
+    public Network2<T> getNetworkAt(int x, int y, int z) {
+        List<IndexedNode<T>> indexedNodes = nodesByLocation.get(BlockLocations.pack(x, y, z));
+        if (indexedNodes == null || indexedNodes.isEmpty()) {
+            return null;
+        }
+        return indexedNodes.get(0).network;
+    }
+
+    public Network2<T> getNetworkAt(Vector3i location) {
+        return getNetworkAt(location.x, location.y, location.z);
+    }
+
+    /**
+     * Finds the network with a node at the specified location, that has an input (or output) on the specified side.
+     *
+     * @return Network or <code>null</code> if there is no such node.
+     */
+    public Network2<T> getNetworkAt(Vector3i location, Side connectionOnSide, boolean input) {
+        List<IndexedNode<T>> indexedNodes = nodesByLocation.get(BlockLocations.pack(location));
+        if (indexedNodes != null) {
+            for (IndexedNode<T> indexedNode : indexedNodes) {
+                byte nodeSides = input ? indexedNode.node.inputSides : indexedNode.node.outputSides;
+                if (SideBitFlag.hasSide(nodeSides, connectionOnSide)) {
+                    return indexedNode.network;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if there is any node of the network at the location packed with {@link BlockLocations#pack}.
+     */
+    public boolean hasNodeOfNetworkAt(long location, Network2<T> network) {
+        List<IndexedNode<T>> indexedNodes = nodesByLocation.get(location);
+        if (indexedNodes != null) {
+            for (IndexedNode<T> indexedNode : indexedNodes) {
+                if (indexedNode.network == network) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds all the nodes at the specified location belonging to the specified network to the passed collection.
+     */
+    public void collectNodesAt(int x, int y, int z, Network2<T> network, Collection<? super T> result) {
+        List<IndexedNode<T>> indexedNodes = nodesByLocation.get(BlockLocations.pack(x, y, z));
+        if (indexedNodes != null) {
+            for (IndexedNode<T> indexedNode : indexedNodes) {
+                if (indexedNode.network == network) {
+                    result.add(indexedNode.node);
+                }
+            }
+        }
+    }
+
+    private void removeEntriesOfNetwork(long location, Network2<T> network) {
+        List<IndexedNode<T>> indexedNodes = nodesByLocation.get(location);
+        if (indexedNodes != null) {
+            indexedNodes.removeIf(indexedNode -> indexedNode.network == network);
+            if (indexedNodes.isEmpty()) {
+                nodesByLocation.remove(location);
+            }
+        }
+    }
+
+    private void removeLocationOfNetworkIfUnused(long location, Network2<T> network, List<IndexedNode<T>> indexedNodes) {
+        for (IndexedNode<T> indexedNode : indexedNodes) {
+            if (indexedNode.network == network) {
+                return;
+            }
+        }
+        TLongSet networkLocations = locationsByNetwork.get(network);
+        if (networkLocations != null) {
+            networkLocations.remove(location);
+        }
+    }
+
+    private IndexedNode<T> findIndexedNode(List<IndexedNode<T>> indexedNodes, T node) {
+        for (IndexedNode<T> indexedNode : indexedNodes) {
+            if (indexedNode.node.equals(node)) {
+                return indexedNode;
+            }
+        }
+        return null;
+    }
+
+    private static final class IndexedNode<T extends NetworkNode> {
+        private final T node;
+        private Network2<T> network;
+
+        private IndexedNode(T node, Network2<T> network) {
+            this.node = node;
+            this.network = network;
+        }
+    }
+}
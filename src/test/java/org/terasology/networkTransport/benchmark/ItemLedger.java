@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.benchmark;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of every simulated item from being routed until it leaves the networks, to check that no item is lost or
+ * handed back more than once. Items are numbered consecutively from 0.
+ */
+final class ItemLedger {
+    private final BitSet inFlight = new BitSet();
+    private int routed;
+    private int inFlightCount;
+    private int arrived;
+    private int removed;
+    private int discarded;
+    private int duplicated;
+
+    int route() {
+        int itemId = routed++;
+        inFlight.set(itemId);
+        inFlightCount++;
+        return itemId;
+    }
+
+    void arrived(int itemId) {
+        if (leave(itemId)) {
+            arrived++;
+        }
+    }
+
+    /**
+     * Item was removed from its network, because its block was removed.
+     */
+    void removed(int itemId) {
+        if (leave(itemId)) {
+            removed++;
+        }
+    }
+
+    /**
+     * Item was loaded into a network, that its stored route is no longer valid in.
+     */
+    void discarded(int itemId) {
+        if (leave(itemId)) {
+            discarded++;
+        }
+    }
+
+    private boolean leave(int itemId) {
+        if (!inFlight.get(itemId)) {
+            duplicated++;
+            return false;
+        }
+        inFlight.clear(itemId);
+        inFlightCount--;
+        return true;
+    }
+
+    boolean isInFlight(int itemId) {
+        return inFlight.get(itemId);
+    }
+
+    int getRouted() {
+        return routed;
+    }
+
+    int getInFlight() {
+        return inFlightCount;
+    }
+
+    int getArrived() {
+        return arrived;
+    }
+
+    int getRemoved() {
+        return removed;
+    }
+
+    int getDiscarded() {
+        return discarded;
+    }
+
+    int getDuplicated() {
+        return duplicated;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.benchmark;
+
+import com.google.common.collect.Lists;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.entity.system.EntityTransportNetworkNode;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic network layouts for the simulator. Nodes accept and output entities on all their connected sides, so items
+ * can be routed both ways.
+ */
+enum SimulationTopology {
+    /**
+     * Single straight belt along the x axis. Removing any node splits it.
+     */
+    BELT {
+        @Override
+        EntityTransportNetworkNode[] createNodes(int nodeCount) {
+            byte sides = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+            EntityTransportNetworkNode[] nodes = new EntityTransportNetworkNode[nodeCount];
+            for (int x = 0; x < nodeCount; x++) {
+                nodes[x] = new EntityTransportNetworkNode(new Vector3i(x, 0, 0), sides, sides);
+            }
+            return nodes;
+        }
+
+        @Override
+        Vector3i randomLocationNear(Vector3i location, int distance, int nodeCount, Random random) {
+            return new Vector3i(randomCoordinateNear(location.x, distance, nodeCount, random), 0, 0);
+        }
+
+        @Override
+        List<EntityTransportNetworkNode> randomCut(EntityTransportNetworkNode[] nodes, Random random) {
+            return Lists.newArrayList(nodes[random.nextInt(nodes.length)]);
+        }
+    },
+    /**
+     * Square grid in the xz plane, each block connected to its four neighbours. Only removing a whole column splits it.
+     */
+    GRID {
+        @Override
+        EntityTransportNetworkNode[] createNodes(int nodeCount) {
+            int width = getWidth(nodeCount);
+            byte sides = SideBitFlag.getSides(Side.LEFT, Side.RIGHT, Side.FRONT, Side.BACK);
+            EntityTransportNetworkNode[] nodes = new EntityTransportNetworkNode[width * width];
+            for (int z = 0; z < width; z++) {
+                for (int x = 0; x < width; x++) {
+                    nodes[z * width + x] = new EntityTransportNetworkNode(new Vector3i(x, 0, z), sides, sides);
+                }
+            }
+            return nodes;
+        }
+
+        @Override
+        Vector3i randomLocationNear(Vector3i location, int distance, int nodeCount, Random random) {
+            int width = getWidth(nodeCount);
+            return new Vector3i(randomCoordinateNear(location.x, distance / 2, width, random), 0,
+                    randomCoordinateNear(location.z, distance / 2, width, random));
+        }
+
+        @Override
+        List<EntityTransportNetworkNode> randomCut(EntityTransportNetworkNode[] nodes, Random random) {
+            int width = getWidth(nodes.length);
+            int x = random.nextInt(width);
+            List<EntityTransportNetworkNode> cut = Lists.newArrayListWithCapacity(width);
+            for (int z = 0; z < width; z++) {
+                cut.add(nodes[z * width + x]);
+            }
+            return cut;
+        }
+
+        private int getWidth(int nodeCount) {
+            return Math.max(1, (int) Math.sqrt(nodeCount));
+        }
+    };
+
+    abstract EntityTransportNetworkNode[] createNodes(int nodeCount);
+
+    /**
+     * @return Location of a node at most the distance (in blocks travelled) away from the location.
+     */
+    abstract Vector3i randomLocationNear(Vector3i location, int distance, int nodeCount, Random random);
+
+    /**
+     * @return Nodes, that split the network in two when removed.
+     */
+    abstract List<EntityTransportNetworkNode> randomCut(EntityTransportNetworkNode[] nodes, Random random);
+
+    private static int randomCoordinateNear(int coordinate, int distance, int size, Random random) {
+        int result = coordinate + random.nextInt(2 * distance + 1) - distance;
+        return Math.max(0, Math.min(size - 1, result));
+    }
+}
@@ -0,0 +1,471 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.benchmark;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import gnu.trove.iterator.TLongIntIterator;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.terasology.blockNetwork.EfficientBlockNetwork;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.Side;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.entity.component.RoutedEntityComponent;
+import org.terasology.networkTransport.entity.component.RoutingProgressComponent;
+import org.terasology.networkTransport.entity.system.EntityTransportAuthoritySystem;
+import org.terasology.networkTransport.entity.system.EntityTransportHandler;
+import org.terasology.networkTransport.entity.system.EntityTransportNetworkNode;
+import org.terasology.networkTransport.entity.system.RoutedEntity;
+import org.terasology.networkTransport.entity.system.TransportRoute;
+import org.terasology.networkTransport.network.BlockLocations;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Headless soak test of the transport system: routes items through a synthetic network tick by tick, while the network
+ * is being split and merged, its chunks unloaded and loaded again and the game saved. After all the items were routed,
+ * the network is restored and the remaining items are drained. Reports the tick rate and the peak heap usage, and
+ * checks that every item routed left the networks exactly once, and that each save stored every item in flight
+ * exactly once, and that no entity outlives its item. When run from the command line, the report is printed and the
+ * simulator exits with status 1 if any check failed.
+ * <p>
+ * Options are passed as <code>name=value</code> arguments, e.g.
+ * <code>topology=GRID nodes=250000 items=5000000 splitInterval=20 chunkChurnInterval=10 saveInterval=500</code>.
+ * Intervals are in ticks, 0 turns the event off. The defaults make a soak test of a few minutes,
+ * {@link TransportSimulatorTest} runs a small configuration of each topology as part of the module tests.
+ */
+public final class TransportSimulator {
+    private static final String TRANSPORTER_TYPE = "simulation";
+    private static final int CHUNK_SHIFT = 5;
+    private static final int MAX_REPORTED_VIOLATIONS = 10;
+
+    private final SimulationTopology topology;
+    private final int nodeCount;
+    private final int itemCount;
+    private final int itemsPerTick;
+    private final long tickMillis;
+    private final long millisPerUnit;
+    private final int routeLength;
+    private final int splitInterval;
+    private final int chunkChurnInterval;
+    private final int chunkUnloadedTicks;
+    private final int saveInterval;
+    private final Random random;
+
+    private final EngineStandIns.Clock clock = new EngineStandIns.Clock();
+    private final SimulatedEntities entities = new SimulatedEntities();
+    private final EntityTransportAuthoritySystem system = new EntityTransportAuthoritySystem();
+    private final ItemLedger ledger = new ItemLedger();
+    private final EfficientBlockNetwork<EntityTransportNetworkNode> blockNetwork;
+    private final EntityTransportNetworkNode[] nodes;
+    private final Vector3i[] sinks;
+
+    private final TLongObjectMap<List<EntityTransportNetworkNode>> chunks = new TLongObjectHashMap<>();
+    private final long[] chunkPositions;
+    private final TLongIntMap unloadedChunkReloadTicks = new TLongIntHashMap();
+    private final TLongObjectMap<List<SimulatedEntity>> storedEntities = new TLongObjectHashMap<>();
+    private final Set<SimulatedEntity> unroutedEntities = Sets.newHashSet();
+    private final List<SimulatedEntity> loadingEntities = Lists.newArrayList();
+    private Set<EntityTransportNetworkNode> cut = Sets.newHashSet();
+
+    private int tick;
+    private int unroutable;
+    private int violations;
+    private final List<String> reportedViolations = Lists.newArrayList();
+
+    private TransportSimulator(Map<String, String> options) {
+        topology = SimulationTopology.valueOf(options.getOrDefault("topology", "BELT"));
+        nodeCount = intOption(options, "nodes", 100000);
+        itemCount = intOption(options, "items", 2000000);
+        itemsPerTick = intOption(options, "itemsPerTick", 2000);
+        tickMillis = intOption(options, "tickMillis", 50);
+        millisPerUnit = intOption(options, "millisPerUnit", 100);
+        routeLength = intOption(options, "routeLength", 64);
+        splitInterval = intOption(options, "splitInterval", 25);
+        chunkChurnInterval = intOption(options, "chunkChurnInterval", 10);
+        chunkUnloadedTicks = intOption(options, "chunkUnloadedTicks", 40);
+        saveInterval = intOption(options, "saveInterval", 1000);
+        random = new Random(intOption(options, "seed", 0));
+
+        EngineStandIns.inject(system, "time", EngineStandIns.time(clock));
+        EngineStandIns.inject(system, "networkSystem", EngineStandIns.networkSystem());
+        EngineStandIns.inject(system, "entityManager", EngineStandIns.entityManager(entities));
+        system.initialise();
+        system.registerEntityTransportHandler(TRANSPORTER_TYPE, new LedgerHandler());
+        Map<String, EfficientBlockNetwork<EntityTransportNetworkNode>> networks = EngineStandIns.read(system, "entityTransportNetworks");
+        blockNetwork = networks.get(TRANSPORTER_TYPE);
+
+        nodes = topology.createNodes(nodeCount);
+        for (EntityTransportNetworkNode node : nodes) {
+            long chunkPosition = getChunkPosition(node);
+            List<EntityTransportNetworkNode> chunkNodes = chunks.get(chunkPosition);
+            if (chunkNodes == null) {
+                chunkNodes = Lists.newArrayList();
+                chunks.put(chunkPosition, chunkNodes);
+            }
+            chunkNodes.add(node);
+        }
+        chunkPositions = chunks.keys();
+        blockNetwork.addNetworkingBlocks(Sets.newHashSet(nodes), NetworkChangeReason.WORLD_CHANGE);
+
+        sinks = new Vector3i[intOption(options, "sinks", 16)];
+        for (int i = 0; i < sinks.length; i++) {
+            EntityTransportNetworkNode sink = nodes[random.nextInt(nodes.length)];
+            sinks[i] = new Vector3i(sink.location.x, sink.location.y, sink.location.z);
+        }
+    }
+
+    public static void main(String[] args) {
+        SimulationReport report = simulate(args);
+        System.out.print(report);
+        if (!report.isPassed()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the simulation with the options passed as <code>name=value</code> arguments.
+     */
+    static SimulationReport simulate(String... args) {
+        Map<String, String> options = Maps.newHashMap();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator == -1) {
+                throw new IllegalArgumentException("Expected name=value, got: " + arg);
+            }
+            options.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+        return new TransportSimulator(options).run();
+    }
+
+    private SimulationReport run() {
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            memoryPool.resetPeakUsage();
+        }
+        long start = System.nanoTime();
+        while (ledger.getRouted() < itemCount) {
+            if (splitInterval > 0 && tick % splitInterval == 0) {
+                toggleCut();
+            }
+            if (chunkChurnInterval > 0 && tick % chunkChurnInterval == 0) {
+                unloadRandomChunk();
+            }
+            reloadChunks(false);
+            if (saveInterval > 0 && tick > 0 && tick % saveInterval == 0) {
+                save();
+            }
+            routeItems();
+            advance();
+        }
+        long routingEnd = System.nanoTime();
+        int routingTicks = tick;
+
+        if (!cut.isEmpty()) {
+            toggleCut();
+        }
+        reloadChunks(true);
+        int drainDeadline = tick + (int) (4 * routeLength * millisPerUnit / tickMillis) + 1000;
+        while ((ledger.getInFlight() > 0 || !loadingEntities.isEmpty()) && tick < drainDeadline) {
+            advance();
+        }
+        save();
+        if (ledger.getInFlight() == 0 && entities.size() > 0) {
+            violation(entities.size() + " entities of items, that left the networks, were not destroyed");
+        }
+
+        return report(routingTicks, (routingEnd - start) / 1e9);
+    }
+
+    private void advance() {
+        clock.gameTime += tickMillis;
+        system.update(tickMillis / 1000f);
+        tick++;
+        if (!loadingEntities.isEmpty()) {
+            // Loaded entities are either routed again or destroyed
+            loadingEntities.removeIf(entity -> {
+                boolean merged = !entity.exists() || system.findNetworkOfRoutedEntity(entity) != null;
+                if (merged) {
+                    unroutedEntities.remove(entity);
+                }
+                return merged;
+            });
+        }
+    }
+
+    private void routeItems() {
+        for (int i = 0; i < itemsPerTick && ledger.getRouted() < itemCount; i++) {
+            Vector3i sink = sinks[random.nextInt(sinks.length)];
+            Vector3i source = topology.randomLocationNear(sink, routeLength, nodeCount, random);
+            Network2<EntityTransportNetworkNode> network = system.findNetworkAt(TRANSPORTER_TYPE, source, Side.LEFT, true);
+            TransportRoute route = network != null
+                    ? system.planRoute(TRANSPORTER_TYPE, network, source, Side.LEFT, sink, Side.RIGHT, millisPerUnit) : null;
+            if (route == null) {
+                unroutable++;
+                continue;
+            }
+            system.routeItemThroughNetwork(TRANSPORTER_TYPE, network, ledger.route(), route, route.getTransportDuration());
+        }
+    }
+
+    /**
+     * Removes a random cut (splitting the network) or adds the removed cut back (merging the parts).
+     */
+    private void toggleCut() {
+        if (cut.isEmpty()) {
+            cut.addAll(topology.randomCut(nodes, random));
+            blockNetwork.removeNetworkingBlocks(filterLoaded(cut), NetworkChangeReason.WORLD_CHANGE);
+        } else {
+            Set<EntityTransportNetworkNode> restored = cut;
+            cut = Sets.newHashSet();
+            blockNetwork.addNetworkingBlocks(filterLoaded(restored), NetworkChangeReason.WORLD_CHANGE);
+        }
+    }
+
+    private void unloadRandomChunk() {
+        long chunkPosition = chunkPositions[random.nextInt(chunkPositions.length)];
+        if (unloadedChunkReloadTicks.containsKey(chunkPosition)) {
+            return;
+        }
+        Set<EntityTransportNetworkNode> chunkNodes = filterNotCut(chunks.get(chunkPosition));
+        unloadedChunkReloadTicks.put(chunkPosition, tick + chunkUnloadedTicks);
+        blockNetwork.removeNetworkingBlocks(chunkNodes, NetworkChangeReason.CHUNK_EVENT);
+
+        // Items in the unloaded blocks were stored into entities, which get unloaded with the chunk
+        List<SimulatedEntity> stored = Lists.newArrayList();
+        for (SimulatedEntity entity : entities.getEntities()) {
+            if (entity.hasComponent(RoutingProgressComponent.class) && !unroutedEntities.contains(entity)
+                    && system.findNetworkOfRoutedEntity(entity) == null) {
+                stored.add(entity);
+            }
+        }
+        unroutedEntities.addAll(stored);
+        storedEntities.put(chunkPosition, stored);
+    }
+
+    private void reloadChunks(boolean all) {
+        List<SimulatedEntity> loaded = Lists.newArrayList();
+        TLongIntIterator iterator = unloadedChunkReloadTicks.iterator();
+        while (iterator.hasNext()) {
+            iterator.advance();
+            if (all || iterator.value() <= tick) {
+                long chunkPosition = iterator.key();
+                iterator.remove();
+                blockNetwork.addNetworkingBlocks(filterNotCut(chunks.get(chunkPosition)), NetworkChangeReason.CHUNK_EVENT);
+                loaded.addAll(storedEntities.remove(chunkPosition));
+            }
+        }
+        for (SimulatedEntity entity : loaded) {
+            system.routedEntityLoaded(null, entity, entity.getComponent(RoutedEntityComponent.class));
+        }
+        loadingEntities.addAll(loaded);
+    }
+
+    /**
+     * Saves the game and checks, that the routed entities, the entities created for saving the lightweight items and
+     * the stored entities hold each item in flight exactly once, and that no entity created for saving outlives the
+     * save.
+     */
+    private void save() {
+        int entityCount = entities.size();
+        system.preSave();
+        BitSet savedItems = new BitSet();
+        int savedRoutedItems = 0;
+        for (SimulatedEntity entity : entities.getEntities()) {
+            SimulatedItemComponent item = entity.getComponent(SimulatedItemComponent.class);
+            if (item == null || !entity.hasComponent(RoutingProgressComponent.class)) {
+                continue;
+            }
+            if (!unroutedEntities.contains(entity)) {
+                savedRoutedItems++;
+            }
+            if (savedItems.get(item.itemId)) {
+                violation("Item " + item.itemId + " saved more than once");
+            } else if (!ledger.isInFlight(item.itemId)) {
+                violation("Item " + item.itemId + " saved after leaving the networks");
+            }
+            savedItems.set(item.itemId);
+        }
+        int routedItems = 0;
+        for (Network2<EntityTransportNetworkNode> network : system.getNetworks(TRANSPORTER_TYPE)) {
+            routedItems += system.getRoutedEntityCount(TRANSPORTER_TYPE, network);
+        }
+        if (routedItems != savedRoutedItems) {
+            violation(routedItems + " items routed, but " + savedRoutedItems + " saved");
+        }
+        if (savedItems.cardinality() != ledger.getInFlight()) {
+            violation(ledger.getInFlight() + " items in flight, but " + savedItems.cardinality() + " saved");
+        }
+        system.postSave();
+        if (entities.size() != entityCount) {
+            violation((entities.size() - entityCount) + " entities created for saving were left behind");
+        }
+    }
+
+    private Set<EntityTransportNetworkNode> filterLoaded(Collection<EntityTransportNetworkNode> candidates) {
+        Set<EntityTransportNetworkNode> result = Sets.newHashSet();
+        for (EntityTransportNetworkNode node : candidates) {
+            if (!unloadedChunkReloadTicks.containsKey(getChunkPosition(node))) {
+                result.add(node);
+            }
+        }
+        return result;
+    }
+
+    private Set<EntityTransportNetworkNode> filterNotCut(Collection<EntityTransportNetworkNode> candidates) {
+        Set<EntityTransportNetworkNode> result = Sets.newHashSet(candidates);
+        result.removeAll(cut);
+        return result;
+    }
+
+    private void violation(String message) {
+        if (violations++ < MAX_REPORTED_VIOLATIONS) {
+            reportedViolations.add("Tick " + tick + ": " + message);
+        }
+    }
+
+    private SimulationReport report(int routingTicks, double routingSeconds) {
+        long peakHeap = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                peakHeap += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("Topology: %s, %d nodes, %d sinks%n", topology, nodes.length, sinks.length));
+        summary.append(String.format("Ticks: %d routing (%.1f ticks/s), %d in total%n", routingTicks, routingTicks / routingSeconds, tick));
+        summary.append(String.format("Peak heap: %d MB%n", peakHeap >> 20));
+        summary.append(String.format("Items: %d routed, %d unroutable, %d arrived, %d removed, %d discarded%n", ledger.getRouted(),
+                unroutable, ledger.getArrived(), ledger.getRemoved(), ledger.getDiscarded()));
+        summary.append(String.format("Checks: %d lost, %d duplicated, %d other violations%n", ledger.getInFlight(),
+                ledger.getDuplicated(), violations));
+        return new SimulationReport(summary.toString(), ledger.getInFlight(), ledger.getDuplicated(), violations, reportedViolations);
+    }
+
+    private static long getChunkPosition(EntityTransportNetworkNode node) {
+        return BlockLocations.pack(node.location.x >> CHUNK_SHIFT, node.location.y >> CHUNK_SHIFT, node.location.z >> CHUNK_SHIFT);
+    }
+
+    private static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    /**
+     * Accounts every item leaving the networks in the ledger.
+     */
+    private final class LedgerHandler implements EntityTransportHandler {
+        @Override
+        public void networkModified(Network2<EntityTransportNetworkNode> network, Collection<RoutedEntity> routedEntities) {
+            // Items keep their routes and arrive as planned
+        }
+
+        @Override
+        public void entityDiscoveredInNetwork(EntityRef entity, Network2<EntityTransportNetworkNode> network, long progress) {
+            ledger.discarded(entity.getComponent(SimulatedItemComponent.class).itemId);
+        }
+
+        @Override
+        public void entityMovedBetweenNetworks(EntityRef entity, long progress, Network2<EntityTransportNetworkNode> fromNetwork,
+                                               Network2<EntityTransportNetworkNode> toNetwork) {
+        }
+
+        @Override
+        public void entityRemovedFromNetwork(EntityRef entity, long progress, Network2<EntityTransportNetworkNode> network) {
+            ledger.removed(entity.getComponent(SimulatedItemComponent.class).itemId);
+        }
+
+        @Override
+        public void entityArrived(EntityRef entity) {
+            ledger.arrived(entity.getComponent(SimulatedItemComponent.class).itemId);
+        }
+
+        @Override
+        public boolean routedItemArrived(Object payload) {
+            ledger.arrived((Integer) payload);
+            return true;
+        }
+
+        @Override
+        public void routedItemMaterialized(EntityRef entity, Object payload) {
+            SimulatedItemComponent item = new SimulatedItemComponent();
+            item.itemId = (Integer) payload;
+            entity.addComponent(item);
+        }
+    }
+
+    /**
+     * Outcome of a simulation: the summary of the measurements, and the results of the checks. Only the first few
+     * violations are kept with their messages.
+     */
+    static final class SimulationReport {
+        private final String summary;
+        private final int lost;
+        private final int duplicated;
+        private final int violationCount;
+        private final List<String> violations;
+
+        private SimulationReport(String summary, int lost, int duplicated, int violationCount, List<String> violations) {
+            this.summary = summary;
+            this.lost = lost;
+            this.duplicated = duplicated;
+            this.violationCount = violationCount;
+            this.violations = violations;
+        }
+
+        int getLost() {
+            return lost;
+        }
+
+        int getDuplicated() {
+            return duplicated;
+        }
+
+        int getViolationCount() {
+            return violationCount;
+        }
+
+        List<String> getViolations() {
+            return violations;
+        }
+
+        boolean isPassed() {
+            return lost == 0 && duplicated == 0 && violationCount == 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            for (String violation : violations) {
+                result.append(violation).append(System.lineSeparator());
+            }
+            return result.append(summary).toString();
+        }
+    }
+}
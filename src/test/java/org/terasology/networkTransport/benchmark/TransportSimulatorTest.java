@@ -0,0 +1,57 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.benchmark;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the transport simulator with a small configuration, with all the topology events happening often, so that the
+ * item ledger checks run with every build. Soak tests with large configurations are run through
+ * {@link TransportSimulator#main}.
+ */
+public class TransportSimulatorTest {
+    private static final String[] SMALL_CONFIGURATION = {
+            "nodes=2000", "items=20000", "itemsPerTick=200", "routeLength=32", "sinks=4",
+            "splitInterval=5", "chunkChurnInterval=3", "chunkUnloadedTicks=8", "saveInterval=20"};
+
+    @Test
+    public void testBelt() {
+        assertPassed(simulate("topology=BELT"));
+    }
+
+    @Test
+    public void testGrid() {
+        assertPassed(simulate("topology=GRID"));
+    }
+
+    private static void assertPassed(TransportSimulator.SimulationReport report) {
+        assertEquals(report.toString(), Collections.emptyList(), report.getViolations());
+        assertEquals(report.toString(), 0, report.getLost());
+        assertEquals(report.toString(), 0, report.getDuplicated());
+        assertEquals(report.toString(), 0, report.getViolationCount());
+    }
+
+    private static TransportSimulator.SimulationReport simulate(String topology) {
+        String[] args = new String[SMALL_CONFIGURATION.length + 1];
+        System.arraycopy(SMALL_CONFIGURATION, 0, args, 0, SMALL_CONFIGURATION.length);
+        args[SMALL_CONFIGURATION.length] = topology;
+        return TransportSimulator.simulate(args);
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.energy.system;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.benchmark.EngineStandIns;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EnergyTransportAuthoritySystemTest {
+    private static final String TRANSPORTER_TYPE = "energy";
+    private static final byte SIDES = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+
+    private EnergyTransportAuthoritySystem energyTransportSystem;
+    private EnergyTransportAuthoritySystem.TransporterTypeNetworkTopologyListener topologyListener;
+    private List<EnergyTransportNetworkNode> nodes = Lists.newArrayList();
+
+    @Before
+    public void setup() {
+        energyTransportSystem = new EnergyTransportAuthoritySystem();
+        energyTransportSystem.registerEnergyTransporterType(TRANSPORTER_TYPE);
+        topologyListener = energyTransportSystem.new TransporterTypeNetworkTopologyListener(TRANSPORTER_TYPE);
+        for (int x = 0; x < 3; x++) {
+            nodes.add(new EnergyTransportNetworkNode(new Vector3i(x, 0, 0), SIDES, 10));
+        }
+    }
+
+    @Test
+    public void testSplitIntoExistingNetworkKeepsAttachments() {
+        Network2<EnergyTransportNetworkNode> network = EngineStandIns.network(nodes);
+        topologyListener.networkAdded(network, NetworkChangeReason.WORLD_CHANGE);
+        energyTransportSystem.addEnergyProducer(TRANSPORTER_TYPE, new Vector3i(0, 0, 0), deltaMillis -> 5);
+        TestConsumer consumer = new TestConsumer(3);
+        energyTransportSystem.addEnergyConsumer(TRANSPORTER_TYPE, new Vector3i(2, 0, 0), consumer);
+        energyTransportSystem.getBuffer(TRANSPORTER_TYPE, network).setStored(15);
+
+        // The middle block is removed, the network of the last block is known before the split
+        Network2<EnergyTransportNetworkNode> producing = EngineStandIns.network(nodes.subList(0, 1));
+        Network2<EnergyTransportNetworkNode> consuming = EngineStandIns.network(nodes.subList(2, 3));
+        topologyListener.networkAdded(consuming, NetworkChangeReason.WORLD_CHANGE);
+        topologyListener.networkSplit(network, Sets.newHashSet(producing, consuming), NetworkChangeReason.WORLD_CHANGE);
+
+        NetworkEnergyBuffer producingBuffer = energyTransportSystem.getBuffer(TRANSPORTER_TYPE, producing);
+        NetworkEnergyBuffer consumingBuffer = energyTransportSystem.getBuffer(TRANSPORTER_TYPE, consuming);
+        assertEquals(1, producingBuffer.getProducerCount());
+        assertEquals(1, consumingBuffer.getConsumerCount());
+        assertEquals(5, consumingBuffer.getStored(), 0.0001f);
+
+        producingBuffer.tick(100);
+        assertEquals(10, producingBuffer.getStored(), 0.0001f);
+        consumingBuffer.tick(100);
+        assertEquals(3, consumer.supplied, 0.0001f);
+        assertEquals(2, consumingBuffer.getStored(), 0.0001f);
+    }
+
+    @Test
+    public void testSplitIntoNewNetworks() {
+        Network2<EnergyTransportNetworkNode> network = EngineStandIns.network(nodes);
+        topologyListener.networkAdded(network, NetworkChangeReason.WORLD_CHANGE);
+        TestConsumer consumer = new TestConsumer(3);
+        energyTransportSystem.addEnergyConsumer(TRANSPORTER_TYPE, new Vector3i(2, 0, 0), consumer);
+
+        Network2<EnergyTransportNetworkNode> first = EngineStandIns.network(nodes.subList(0, 1));
+        Network2<EnergyTransportNetworkNode> second = EngineStandIns.network(nodes.subList(2, 3));
+        topologyListener.networkSplit(network, Sets.newHashSet(first, second), NetworkChangeReason.WORLD_CHANGE);
+
+        assertEquals(0, energyTransportSystem.getBuffer(TRANSPORTER_TYPE, first).getConsumerCount());
+        assertEquals(1, energyTransportSystem.getBuffer(TRANSPORTER_TYPE, second).getConsumerCount());
+        assertNull(energyTransportSystem.getBuffer(TRANSPORTER_TYPE, network));
+    }
+
+    private static final class TestConsumer implements EnergyConsumer {
+        private final float demand;
+        private float supplied;
+
+        private TestConsumer(float demand) {
+            this.demand = demand;
+        }
+
+        @Override
+        public float getEnergyDemand(long deltaMillis) {
+            return demand;
+        }
+
+        @Override
+        public void energySupplied(float energy) {
+            supplied += energy;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.energy.system;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NetworkEnergyBufferTest {
+    @Test
+    public void testSurplusIsStoredUpToCapacity() {
+        NetworkEnergyBuffer buffer = new NetworkEnergyBuffer();
+        buffer.addCapacity(50);
+        buffer.attach(new EnergyAttachment(0, deltaMillis -> deltaMillis, null));
+        TestConsumer consumer = new TestConsumer(30);
+        buffer.attach(new EnergyAttachment(0, null, consumer));
+
+        buffer.tick(40);
+        assertEquals(30, consumer.supplied, 0.0001f);
+        assertEquals(10, buffer.getStored(), 0.0001f);
+
+        buffer.tick(100);
+        assertEquals(50, buffer.getStored(), 0.0001f);
+    }
+
+    @Test
+    public void testShortageIsSharedProportionally() {
+        NetworkEnergyBuffer buffer = new NetworkEnergyBuffer();
+        buffer.attach(new EnergyAttachment(0, deltaMillis -> 30, null));
+        TestConsumer small = new TestConsumer(20);
+        TestConsumer large = new TestConsumer(40);
+        buffer.attach(new EnergyAttachment(0, null, small));
+        buffer.attach(new EnergyAttachment(0, null, large));
+
+        buffer.tick(10);
+        assertEquals(10, small.supplied, 0.0001f);
+        assertEquals(20, large.supplied, 0.0001f);
+        assertEquals(0, buffer.getStored(), 0.0001f);
+    }
+
+    @Test
+    public void testDetach() {
+        NetworkEnergyBuffer buffer = new NetworkEnergyBuffer();
+        EnergyAttachment first = new EnergyAttachment(0, deltaMillis -> 1, null);
+        EnergyAttachment second = new EnergyAttachment(0, deltaMillis -> 2, null);
+        buffer.attach(first);
+        buffer.attach(second);
+        buffer.detach(first);
+        assertNull(first.buffer);
+        assertEquals(1, buffer.getProducerCount());
+        assertEquals(0, second.slot);
+
+        buffer.removeCapacity(10);
+        assertEquals(0, buffer.getCapacity(), 0f);
+    }
+
+    private static final class TestConsumer implements EnergyConsumer {
+        private final float demand;
+        private float supplied;
+
+        private TestConsumer(float demand) {
+            this.demand = demand;
+        }
+
+        @Override
+        public float getEnergyDemand(long deltaMillis) {
+            return demand;
+        }
+
+        @Override
+        public void energySupplied(float energy) {
+            supplied += energy;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConveyorNetworkStateTest {
+    @Test
+    public void testSaturatedConveyorMovesAsWhole() {
+        // Three blocks in a line: 0 -> 1 -> 2, two slots each
+        ConveyorNetworkState state = new ConveyorNetworkState(new long[]{0, 1, 2}, new int[]{1, 2, -1}, new byte[]{0, 0, 0}, 2);
+        int item = 1;
+        for (int node = 2; node >= 0; node--) {
+            for (int slot = 1; slot >= 0; slot--) {
+                state.setItem(node, slot, item++);
+            }
+        }
+        int[] delivered = new int[1];
+        state.step((node, deliveredItem) -> {
+            assertEquals(2, node);
+            delivered[0] = deliveredItem;
+            return true;
+        });
+        assertEquals(1, delivered[0]);
+        assertEquals(5, state.getItemCount());
+        assertEquals(2, state.getItem(2, 1));
+        assertEquals(3, state.getItem(2, 0));
+        assertEquals(4, state.getItem(1, 1));
+        assertEquals(6, state.getItem(0, 1));
+        assertTrue(state.isEntryFree(0));
+    }
+
+    @Test
+    public void testBlockedExitQueuesItems() {
+        ConveyorNetworkState state = new ConveyorNetworkState(new long[]{0}, new int[]{-1}, new byte[]{0}, 4);
+        state.setItem(0, 3, 1);
+        assertTrue(state.insert(0, 2));
+        assertFalse(state.insert(0, 3));
+
+        for (int step = 0; step < 5; step++) {
+            state.step((node, item) -> false);
+        }
+        assertEquals(1, state.getItem(0, 3));
+        assertEquals(2, state.getItem(0, 2));
+        assertEquals(ConveyorNetworkState.NO_ITEM, state.getItem(0, 1));
+        assertEquals(2, state.getItemCount());
+
+        state.step((node, item) -> true);
+        assertEquals(2, state.getItem(0, 3));
+        assertEquals(1, state.getItemCount());
+    }
+
+    @Test
+    public void testLoopKeepsItems() {
+        ConveyorNetworkState state = new ConveyorNetworkState(new long[]{0, 1, 2}, new int[]{1, 2, 0}, new byte[]{0, 0, 0}, 2);
+        state.setItem(0, 0, 1);
+        state.setItem(1, 1, 2);
+        for (int step = 0; step < 20; step++) {
+            state.step((node, item) -> {
+                fail();
+                return false;
+            });
+            assertEquals(2, state.getItemCount());
+        }
+    }
+}
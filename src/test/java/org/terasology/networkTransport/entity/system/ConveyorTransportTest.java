@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.benchmark.EngineStandIns;
+import org.terasology.networkTransport.network.NetworkLocationIndex;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ConveyorTransportTest {
+    private static final long STEP_MILLIS = 100;
+
+    private List<Object> deliveredPayloads = Lists.newArrayList();
+    private List<Object> removedPayloads = Lists.newArrayList();
+    private List<NetworkChangeReason> removalReasons = Lists.newArrayList();
+    private Runnable onDelivery;
+
+    private ConveyorTransport conveyorTransport;
+    private long gameTime;
+
+    @Before
+    public void setup() {
+        ConveyorTransportHandler handler = new ConveyorTransportHandler() {
+            @Override
+            public boolean itemDelivered(Network2<EntityTransportNetworkNode> network, Vector3i location, Side exitSide, Object payload) {
+                deliveredPayloads.add(payload);
+                if (onDelivery != null) {
+                    onDelivery.run();
+                }
+                return true;
+            }
+
+            @Override
+            public void itemRemovedFromNetwork(Vector3i location, Object payload, NetworkChangeReason reason) {
+                removedPayloads.add(payload);
+                removalReasons.add(reason);
+            }
+        };
+        conveyorTransport = new ConveyorTransport(handler, new NetworkLocationIndex<>(), new TransportMetrics(), 2, STEP_MILLIS);
+        conveyorTransport.update(gameTime);
+    }
+
+    @Test
+    public void testItemIsDelivered() {
+        Network2<EntityTransportNetworkNode> network = createConveyor(0, 3);
+        conveyorTransport.networkAdded(network, NetworkChangeReason.WORLD_CHANGE);
+        assertTrue(conveyorTransport.insert(new Vector3i(0, 0, 0), "item"));
+
+        advance(6);
+        assertEquals(Collections.singletonList("item"), deliveredPayloads);
+        assertEquals(0, conveyorTransport.getItemCount(network));
+    }
+
+    @Test
+    public void testSplitKeepsItemsInResultNetworks() {
+        Network2<EntityTransportNetworkNode> network = createConveyor(0, 4);
+        conveyorTransport.networkAdded(network, NetworkChangeReason.WORLD_CHANGE);
+        assertTrue(conveyorTransport.insert(new Vector3i(0, 0, 0), "item"));
+
+        List<EntityTransportNetworkNode> nodes = Lists.newArrayList(network.getNetworkingNodes());
+        Network2<EntityTransportNetworkNode> first = EngineStandIns.network(nodes.subList(0, 2));
+        Network2<EntityTransportNetworkNode> second = EngineStandIns.network(nodes.subList(2, 4));
+        conveyorTransport.networkSplit(network, Sets.newHashSet(first, second), NetworkChangeReason.WORLD_CHANGE);
+
+        advance(1);
+        assertTrue(removedPayloads.isEmpty());
+        assertEquals(1, conveyorTransport.getItemCount(first));
+    }
+
+    @Test
+    public void testItemsLeftOutsideOfNetworksKeepChangeReason() {
+        Network2<EntityTransportNetworkNode> network = createConveyor(0, 3);
+        conveyorTransport.networkAdded(network, NetworkChangeReason.WORLD_CHANGE);
+        assertTrue(conveyorTransport.insert(new Vector3i(0, 0, 0), "item"));
+
+        // The chunk with the first block is unloaded
+        List<EntityTransportNetworkNode> nodes = Lists.newArrayList(network.getNetworkingNodes());
+        Network2<EntityTransportNetworkNode> remaining = EngineStandIns.network(nodes.subList(1, 3));
+        conveyorTransport.networkSplit(network, Collections.singleton(remaining), NetworkChangeReason.CHUNK_EVENT);
+
+        advance(1);
+        assertEquals(Collections.singletonList("item"), removedPayloads);
+        assertEquals(Collections.singletonList(NetworkChangeReason.CHUNK_EVENT), removalReasons);
+    }
+
+    @Test
+    public void testTopologyChangeOnDeliveryIsDeferred() {
+        Network2<EntityTransportNetworkNode> delivering = createConveyor(0, 1);
+        Network2<EntityTransportNetworkNode> removed = createConveyor(10, 3);
+        conveyorTransport.networkAdded(delivering, NetworkChangeReason.WORLD_CHANGE);
+        conveyorTransport.networkAdded(removed, NetworkChangeReason.WORLD_CHANGE);
+        assertTrue(conveyorTransport.insert(new Vector3i(0, 0, 0), "delivered"));
+        assertTrue(conveyorTransport.insert(new Vector3i(10, 0, 0), "removed"));
+
+        onDelivery = () -> {
+            conveyorTransport.networkRemoved(removed, NetworkChangeReason.WORLD_CHANGE);
+            // Still stepping, the removal must not have happened yet
+            assertTrue(removedPayloads.isEmpty());
+        };
+        advance(2);
+        assertEquals(Collections.singletonList("delivered"), deliveredPayloads);
+        assertEquals(Collections.singletonList("removed"), removedPayloads);
+        assertFalse(conveyorTransport.getNetworks().contains(removed));
+    }
+
+    private void advance(int steps) {
+        for (int i = 0; i < steps; i++) {
+            gameTime += STEP_MILLIS;
+            conveyorTransport.update(gameTime);
+        }
+    }
+
+    /**
+     * Creates a straight conveyor along the x axis, each block leading into the next one.
+     */
+    private static Network2<EntityTransportNetworkNode> createConveyor(int startX, int length) {
+        List<EntityTransportNetworkNode> nodes = Lists.newArrayList();
+        for (int x = startX; x < startX + length; x++) {
+            nodes.add(new EntityTransportNetworkNode(new Vector3i(x, 0, 0), SideBitFlag.getSides(Side.LEFT), SideBitFlag.getSides(Side.RIGHT)));
+        }
+        return EngineStandIns.network(nodes);
+    }
+}
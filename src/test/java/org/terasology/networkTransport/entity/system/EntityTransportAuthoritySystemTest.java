@@ -0,0 +1,231 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+import org.terasology.blockNetwork.EfficientBlockNetwork;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.network.NetworkComponent;
+import org.terasology.networkTransport.benchmark.EngineStandIns;
+import org.terasology.networkTransport.benchmark.SimulatedEntities;
+import org.terasology.networkTransport.entity.component.ReplicatedRouteComponent;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the transport system on the engine stand-ins, with a single straight network along the x axis.
+ */
+public class EntityTransportAuthoritySystemTest {
+    private static final String TRANSPORTER_TYPE = "test";
+    private static final long MILLIS_PER_UNIT = 1000;
+    private static final int NETWORK_LENGTH = 10;
+    private static final long TICK_MILLIS = 100;
+
+    private EngineStandIns.Clock clock = new EngineStandIns.Clock();
+    private SimulatedEntities entities = new SimulatedEntities();
+    private EntityTransportAuthoritySystem entityTransportSystem = new EntityTransportAuthoritySystem();
+    private List<Object> arrivedPayloads = Lists.newArrayList();
+    private List<EntityRef> arrivedEntities = Lists.newArrayList();
+    private Network2<EntityTransportNetworkNode> network;
+
+    @Before
+    public void setup() {
+        EngineStandIns.inject(entityTransportSystem, "time", EngineStandIns.time(clock));
+        EngineStandIns.inject(entityTransportSystem, "networkSystem", EngineStandIns.networkSystem());
+        EngineStandIns.inject(entityTransportSystem, "entityManager", EngineStandIns.entityManager(entities));
+        entityTransportSystem.initialise();
+        entityTransportSystem.registerEntityTransportHandler(TRANSPORTER_TYPE, new RecordingHandler());
+
+        byte sides = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+        Set<EntityTransportNetworkNode> nodes = Sets.newHashSet();
+        for (int x = 0; x < NETWORK_LENGTH; x++) {
+            nodes.add(new EntityTransportNetworkNode(new Vector3i(x, 0, 0), sides, sides));
+        }
+        Map<String, EfficientBlockNetwork<EntityTransportNetworkNode>> blockNetworks = EngineStandIns.read(entityTransportSystem, "entityTransportNetworks");
+        blockNetworks.get(TRANSPORTER_TYPE).addNetworkingBlocks(nodes, NetworkChangeReason.WORLD_CHANGE);
+        network = entityTransportSystem.findNetworkAt(TRANSPORTER_TYPE, new Vector3i(0, 0, 0), Side.RIGHT, true);
+    }
+
+    @Test
+    public void testNetworkStaysAwakeWithoutPlayers() {
+        entityTransportSystem.setDormancyThresholds(1000, 10);
+        LinearTransportRoute route = createRoute(0, NETWORK_LENGTH - 1);
+        entityTransportSystem.routeItemThroughNetwork(TRANSPORTER_TYPE, network, "item", route, route.getTransportDuration());
+
+        advance(5000);
+        assertFalse(entityTransportSystem.isNetworkDormant(network));
+        advance(route.getTransportDuration());
+        assertEquals(Collections.singletonList("item"), arrivedPayloads);
+    }
+
+    @Test
+    public void testRerouteItemStackedInPacket() {
+        entityTransportSystem.setItemStackingWindow(TRANSPORTER_TYPE, 1000);
+        LinearTransportRoute route = createRoute(0, NETWORK_LENGTH - 1);
+        long firstId = entityTransportSystem.routeItemThroughNetwork(TRANSPORTER_TYPE, network, "item", route, route.getTransportDuration());
+        long secondId = entityTransportSystem.routeItemThroughNetwork(TRANSPORTER_TYPE, network, "item", route, route.getTransportDuration());
+        long thirdId = entityTransportSystem.routeItemThroughNetwork(TRANSPORTER_TYPE, network, "item", route, route.getTransportDuration());
+        assertEquals(3, Sets.newHashSet(firstId, secondId, thirdId).size());
+        assertEquals(2, entityTransportSystem.getTransportMetrics(TRANSPORTER_TYPE).getStackedCount());
+
+        LinearTransportRoute shortRoute = createRoute(0, 4);
+        entityTransportSystem.rerouteItemThroughNetwork(TRANSPORTER_TYPE, network, secondId, shortRoute, shortRoute.getTransportDuration());
+        assertEquals(3, entityTransportSystem.getRoutedEntityCount(TRANSPORTER_TYPE, network));
+        advance(shortRoute.getTransportDuration() + TICK_MILLIS);
+        assertEquals(1, arrivedPayloads.size());
+        assertEquals(2, entityTransportSystem.getRoutedEntityCount(TRANSPORTER_TYPE, network));
+
+        // Rerouting the first item of the packet leaves the rest travelling on
+        entityTransportSystem.rerouteItemThroughNetwork(TRANSPORTER_TYPE, network, firstId, route, route.getTransportDuration());
+        advance(route.getTransportDuration() - shortRoute.getTransportDuration());
+        assertEquals(2, arrivedPayloads.size());
+        assertEquals(1, entityTransportSystem.getRoutedEntityCount(TRANSPORTER_TYPE, network));
+        advance(route.getTransportDuration());
+        assertEquals(3, arrivedPayloads.size());
+        assertEquals(0, entityTransportSystem.getRoutedEntityCount(TRANSPORTER_TYPE, network));
+    }
+
+    @Test
+    public void testLookUpItemStackedInPacket() {
+        entityTransportSystem.setItemStackingWindow(TRANSPORTER_TYPE, 1000);
+        LinearTransportRoute route = createRoute(0, NETWORK_LENGTH - 1);
+        long firstId = entityTransportSystem.routeItemThroughNetwork(TRANSPORTER_TYPE, network, "item", route, route.getTransportDuration());
+        long secondId = entityTransportSystem.routeItemThroughNetwork(TRANSPORTER_TYPE, network, "item", route, route.getTransportDuration());
+        long thirdId = entityTransportSystem.routeItemThroughNetwork(TRANSPORTER_TYPE, network, "item", route, route.getTransportDuration());
+
+        EntityRef secondEntity = entityTransportSystem.getRoutedItemEntity(secondId);
+        assertTrue(secondEntity.exists());
+        assertEquals(network, entityTransportSystem.findNetworkOfRoutedEntity(secondEntity));
+        EntityRef firstEntity = entityTransportSystem.getRoutedItemEntity(firstId);
+        assertTrue(firstEntity.exists());
+        assertNotEquals(secondEntity, firstEntity);
+        assertEquals(3, entityTransportSystem.getRoutedEntityCount(TRANSPORTER_TYPE, network));
+
+        // Only the items looked up got entities, the third one arrives as a lightweight item
+        advance(route.getTransportDuration() + TICK_MILLIS);
+        assertEquals(Collections.singletonList("item"), arrivedPayloads);
+        assertEquals(Sets.newHashSet(secondEntity, firstEntity), Sets.newHashSet(arrivedEntities));
+        assertEquals(EntityRef.NULL, entityTransportSystem.getRoutedItemEntity(thirdId));
+    }
+
+    @Test
+    public void testRouteReplicatedFromHeadlessServerToClient() {
+        EngineStandIns.inject(entityTransportSystem, "networkSystem", EngineStandIns.headlessServer());
+        advance(TICK_MILLIS);
+        LinearTransportRoute route = createRoute(0, NETWORK_LENGTH - 1);
+        EntityRef entity = entityTransportSystem.routeEntityThroughNetwork(TRANSPORTER_TYPE, network, route, route.getTransportDuration());
+        ReplicatedRouteComponent replicatedRoute = entity.getComponent(ReplicatedRouteComponent.class);
+        assertNotNull(replicatedRoute);
+        assertEquals(NetworkComponent.ReplicateMode.ALWAYS, entity.getComponent(NetworkComponent.class).replicateMode);
+
+        // The client gets a copy of the replicated fields only
+        EntityTransportClientSystem clientSystem = new EntityTransportClientSystem();
+        EngineStandIns.inject(clientSystem, "time", EngineStandIns.time(clock));
+        EntityRef clientEntity = EngineStandIns.entityManager(new SimulatedEntities()).create();
+        ReplicatedRouteComponent clientRoute = new ReplicatedRouteComponent();
+        clientRoute.path = replicatedRoute.path;
+        clientRoute.millisPerUnit = replicatedRoute.millisPerUnit;
+        clientRoute.routingStart = replicatedRoute.routingStart;
+        clientEntity.addComponent(clientRoute);
+        clientSystem.routeReplicated(null, clientEntity, clientRoute);
+
+        advance(3000);
+        clientSystem.update(TICK_MILLIS / 1000f);
+        Vector3f expected = route.getPosition(clock.gameTime - replicatedRoute.routingStart);
+        assertEquals(expected, clientEntity.getComponent(LocationComponent.class).getWorldPosition());
+    }
+
+    @Test
+    public void testLightweightItemReplicatedOnlyOnceMaterialized() {
+        EngineStandIns.inject(entityTransportSystem, "networkSystem", EngineStandIns.headlessServer());
+        advance(TICK_MILLIS);
+        LinearTransportRoute route = createRoute(0, NETWORK_LENGTH - 1);
+        long itemId = entityTransportSystem.routeItemThroughNetwork(TRANSPORTER_TYPE, network, "item", route, route.getTransportDuration());
+        assertEquals(0, entities.size());
+
+        EntityRef entity = entityTransportSystem.getRoutedItemEntity(itemId);
+        assertNotNull(entity.getComponent(ReplicatedRouteComponent.class));
+        assertTrue(entity.hasComponent(NetworkComponent.class));
+    }
+
+    private void advance(long millis) {
+        long endTime = clock.gameTime + millis;
+        while (clock.gameTime < endTime) {
+            clock.gameTime += TICK_MILLIS;
+            entityTransportSystem.update(TICK_MILLIS / 1000f);
+        }
+    }
+
+    private static LinearTransportRoute createRoute(int fromX, int toX) {
+        LinearTransportRoute route = new LinearTransportRoute(new Vector3f(fromX, 0, 0), MILLIS_PER_UNIT);
+        for (int x = fromX + 1; x <= toX; x++) {
+            route.addPoint(new Vector3f(x, 0, 0));
+        }
+        route.seal();
+        return route;
+    }
+
+    private final class RecordingHandler implements EntityTransportHandler {
+        @Override
+        public void networkModified(Network2<EntityTransportNetworkNode> network, Collection<RoutedEntity> routedEntities) {
+        }
+
+        @Override
+        public void entityDiscoveredInNetwork(EntityRef entity, Network2<EntityTransportNetworkNode> network, long progress) {
+        }
+
+        @Override
+        public void entityMovedBetweenNetworks(EntityRef entity, long progress, Network2<EntityTransportNetworkNode> fromNetwork,
+                                               Network2<EntityTransportNetworkNode> toNetwork) {
+        }
+
+        @Override
+        public void entityRemovedFromNetwork(EntityRef entity, long progress, Network2<EntityTransportNetworkNode> network) {
+        }
+
+        @Override
+        public void entityArrived(EntityRef entity) {
+            arrivedEntities.add(entity);
+        }
+
+        @Override
+        public boolean routedItemArrived(Object payload) {
+            arrivedPayloads.add(payload);
+            return true;
+        }
+
+        @Override
+        public boolean canStackItems(Object packetPayload, Object payload) {
+            return packetPayload.equals(payload);
+        }
+    }
+}
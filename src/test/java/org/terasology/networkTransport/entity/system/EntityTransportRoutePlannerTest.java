@@ -0,0 +1,157 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.benchmark.EngineStandIns;
+import org.terasology.networkTransport.network.NetworkLocationIndex;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EntityTransportRoutePlannerTest {
+    private static final byte SIDES = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+
+    private List<EntityTransportNetworkNode> nodes = Lists.newArrayList();
+    private Network2<EntityTransportNetworkNode> network;
+    private NetworkLocationIndex<EntityTransportNetworkNode> networkLocationIndex;
+    private EntityTransportRoutePlanner routePlanner;
+
+    @Before
+    public void setup() {
+        for (int x = 0; x < 5; x++) {
+            nodes.add(new EntityTransportNetworkNode(new Vector3i(x, 0, 0), SIDES, SIDES));
+        }
+        network = EngineStandIns.network(nodes);
+        networkLocationIndex = new NetworkLocationIndex<>();
+        networkLocationIndex.networkAdded(network);
+        routePlanner = new EntityTransportRoutePlanner(networkLocationIndex);
+    }
+
+    @Test
+    public void testPlannedRouteIsShared() {
+        EntityTransportRoutePlanner.RoutePlan routePlan = prepareRoutePlan(new Vector3i(0, 0, 0), new Vector3i(4, 0, 0));
+        EntityTransportRoutePlanner.computeRoutePlan(routePlan, routePlan.snapshot.join());
+        assertTrue(routePlanner.isRoutePlanCurrent(routePlan));
+
+        LinearTransportRoute route = routePlanner.applyRoutePlan(routePlan);
+        assertEquals(5, route.getPointCount());
+        assertTrue(route.isSealed());
+        assertSame(route, routePlanner.planRoute(network, new Vector3i(0, 0, 0), Side.LEFT, new Vector3i(4, 0, 0), Side.RIGHT, 100));
+    }
+
+    @Test
+    public void testSnapshotIsSharedUntilModified() {
+        EntityTransportRoutePlanner.RoutePlan first = prepareRoutePlan(new Vector3i(0, 0, 0), new Vector3i(4, 0, 0));
+        EntityTransportRoutePlanner.RoutePlan second = prepareRoutePlan(new Vector3i(1, 0, 0), new Vector3i(3, 0, 0));
+        assertSame(first.snapshot, second.snapshot);
+
+        routePlanner.nodesRemoved(network, Collections.singleton(nodes.get(2)));
+        EntityTransportRoutePlanner.RoutePlan third = prepareRoutePlan(new Vector3i(0, 0, 0), new Vector3i(4, 0, 0));
+        assertNotSame(first.snapshot, third.snapshot);
+    }
+
+    @Test
+    public void testPlanIsOutdatedByModification() {
+        EntityTransportRoutePlanner.RoutePlan routePlan = prepareRoutePlan(new Vector3i(0, 0, 0), new Vector3i(4, 0, 0));
+        EntityTransportNetworkNode addedNode = new EntityTransportNetworkNode(new Vector3i(5, 0, 0), SIDES, SIDES);
+        nodes.add(addedNode);
+        networkLocationIndex.nodesAdded(network, Collections.singleton(addedNode));
+        routePlanner.nodesAdded(network, Collections.singleton(addedNode));
+        EntityTransportRoutePlanner.computeRoutePlan(routePlan, routePlan.snapshot.join());
+        assertFalse(routePlanner.isRoutePlanCurrent(routePlan));
+    }
+
+    @Test
+    public void testPlanIsOutdatedByNetworkRemoval() {
+        EntityTransportRoutePlanner.RoutePlan routePlan = prepareRoutePlan(new Vector3i(0, 0, 0), new Vector3i(4, 0, 0));
+        routePlanner.networkRemoved(network);
+        assertFalse(routePlanner.isRoutePlanCurrent(routePlan));
+    }
+
+    @Test
+    public void testNoPlanWithoutNodes() {
+        assertNull(prepareRoutePlan(new Vector3i(0, 0, 0), new Vector3i(7, 0, 0)));
+        assertNull(prepareRoutePlan(new Vector3i(0, 1, 0), new Vector3i(4, 0, 0)));
+    }
+
+    @Test
+    public void testPlanWithoutPath() {
+        networkLocationIndex.nodesRemoved(network, Collections.singleton(nodes.get(2)));
+        routePlanner.nodesRemoved(network, Collections.singleton(nodes.get(2)));
+        nodes.remove(2);
+        EntityTransportRoutePlanner.RoutePlan routePlan = prepareRoutePlan(new Vector3i(0, 0, 0), new Vector3i(4, 0, 0));
+        EntityTransportRoutePlanner.computeRoutePlan(routePlan, routePlan.snapshot.join());
+        assertTrue(routePlanner.isRoutePlanCurrent(routePlan));
+        assertNull(routePlanner.applyRoutePlan(routePlan));
+    }
+
+    @Test
+    public void testRemovalEvictsOnlyRoutesThroughRemovedNodes() {
+        LinearTransportRoute keptRoute = planRoute(new Vector3i(0, 0, 0), new Vector3i(1, 0, 0));
+        LinearTransportRoute evictedRoute = planRoute(new Vector3i(2, 0, 0), new Vector3i(4, 0, 0));
+        routePlanner.retainRoute(keptRoute);
+        routePlanner.retainRoute(evictedRoute);
+
+        networkLocationIndex.nodesRemoved(network, Collections.singleton(nodes.get(3)));
+        routePlanner.nodesRemoved(network, Collections.singleton(nodes.get(3)));
+        assertSame(keptRoute, planRoute(new Vector3i(0, 0, 0), new Vector3i(1, 0, 0)));
+        assertNull(planRoute(new Vector3i(2, 0, 0), new Vector3i(4, 0, 0)));
+    }
+
+    @Test
+    public void testAdditionEvictsOnlyRoutesItCouldShorten() {
+        LinearTransportRoute route = planRoute(new Vector3i(0, 0, 0), new Vector3i(4, 0, 0));
+        routePlanner.retainRoute(route);
+
+        EntityTransportNetworkNode unconnectedNode = new EntityTransportNetworkNode(new Vector3i(0, 1, 0), SIDES, SIDES);
+        networkLocationIndex.nodesAdded(network, Collections.singleton(unconnectedNode));
+        routePlanner.nodesAdded(network, Collections.singleton(unconnectedNode));
+        assertSame(route, planRoute(new Vector3i(0, 0, 0), new Vector3i(4, 0, 0)));
+
+        EntityTransportNetworkNode connectedNode = new EntityTransportNetworkNode(new Vector3i(5, 0, 0), SIDES, SIDES);
+        networkLocationIndex.nodesAdded(network, Collections.singleton(connectedNode));
+        routePlanner.nodesAdded(network, Collections.singleton(connectedNode));
+        assertNotSame(route, planRoute(new Vector3i(0, 0, 0), new Vector3i(4, 0, 0)));
+    }
+
+    @Test
+    public void testUnusedRoutesAreEvicted() {
+        LinearTransportRoute usedRoute = planRoute(new Vector3i(0, 0, 0), new Vector3i(4, 0, 0));
+        LinearTransportRoute unusedRoute = planRoute(new Vector3i(4, 0, 0), new Vector3i(0, 0, 0));
+        routePlanner.retainRoute(usedRoute);
+
+        routePlanner.evictUnusedRoutes();
+        assertSame(usedRoute, planRoute(new Vector3i(0, 0, 0), new Vector3i(4, 0, 0)));
+        assertNotSame(unusedRoute, planRoute(new Vector3i(4, 0, 0), new Vector3i(0, 0, 0)));
+    }
+
+    private LinearTransportRoute planRoute(Vector3i from, Vector3i to) {
+        return routePlanner.planRoute(network, from, Side.LEFT, to, Side.RIGHT, 100);
+    }
+
+    private EntityTransportRoutePlanner.RoutePlan prepareRoutePlan(Vector3i from, Vector3i to) {
+        return routePlanner.prepareRoutePlan(network, from, Side.LEFT, to, Side.RIGHT, 100, Runnable::run);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import org.junit.Test;
+import org.terasology.math.geom.Vector3f;
+
+import java.util.Arrays;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+public class LinearTransportRouteCodecTest {
+    @Test
+    public void testRoundTrip() {
+        LinearTransportRoute route = new LinearTransportRoute(new Vector3f(-100, 20, 3000), 500);
+        route.addPoint(new Vector3f(-99, 20, 3000));
+        route.addPoint(new Vector3f(-99, 21, 3000));
+        route.addPoint(new Vector3f(-99, 21, 2990));
+
+        String path = LinearTransportRouteCodec.encode(route);
+        assertNotNull(path);
+        LinearTransportRoute decoded = LinearTransportRouteCodec.decode(path, 500);
+        assertEquals(route.getPointCount(), decoded.getPointCount());
+        assertEquals(route.getTransportDuration(), decoded.getTransportDuration());
+        for (int i = 0; i < route.getPointCount(); i++) {
+            assertEquals(route.getPoint(i, new Vector3f()), decoded.getPoint(i, new Vector3f()));
+        }
+    }
+
+    @Test
+    public void testNonBlockCentreNotEncoded() {
+        LinearTransportRoute route = new LinearTransportRoute(new Vector3f(0, 0, 0), 1000);
+        route.addPoint(new Vector3f(0.5f, 0, 0));
+        assertNull(LinearTransportRouteCodec.encode(route));
+    }
+
+    @Test
+    public void testMalformedPath() {
+        assertNull(LinearTransportRouteCodec.decode("not base64!", 1000));
+    }
+
+    @Test
+    public void testTruncatedPath() {
+        LinearTransportRoute route = new LinearTransportRoute(new Vector3f(-100, 20, 3000), 500);
+        route.addPoint(new Vector3f(-99, 20, 3000));
+        byte[] bytes = Base64.getDecoder().decode(LinearTransportRouteCodec.encode(route));
+
+        // Cuts the z coordinate of the first point in the middle, and the last coordinate as a whole
+        assertNull(LinearTransportRouteCodec.decode(Base64.getEncoder().encodeToString(Arrays.copyOf(bytes, 4)), 500));
+        assertNull(LinearTransportRouteCodec.decode(Base64.getEncoder().encodeToString(Arrays.copyOf(bytes, bytes.length - 1)), 500));
+        // Continuation bit set on the last byte
+        assertNull(LinearTransportRouteCodec.decode(Base64.getEncoder().encodeToString(new byte[]{0, 0, (byte) 0x80}), 500));
+        // Number longer than an int
+        byte[] tooLong = {0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01};
+        assertNull(LinearTransportRouteCodec.decode(Base64.getEncoder().encodeToString(tooLong), 500));
+    }
+}
@@ -55,4 +55,36 @@ public class LinearTransportRouteTest {
         assertEquals(new Vector3f(3, 2, 0), route.getPosition(5000));
         assertEquals(new Vector3f(3, 2, 0), route.getPosition(7000));
     }
+
+    @Test
+    public void testPositionIntoPassedVector() {
+        LinearTransportRoute route = new LinearTransportRoute(new Vector3f(0, 0, 0), 1000);
+        route.addPoint(new Vector3f(3, 0, 0));
+        route.addPoint(new Vector3f(3, 2, 0));
+        Vector3f out = new Vector3f();
+        assertSame(out, route.getPosition(4500, out));
+        assertEquals(new Vector3f(3, 1.5f, 0), out);
+        route.getPosition(7000, out);
+        assertEquals(new Vector3f(3, 2, 0), out);
+    }
+
+    @Test
+    public void testWithManyPoints() {
+        LinearTransportRoute route = new LinearTransportRoute(new Vector3f(0, 0, 0), 100);
+        for (int i = 1; i <= 100; i++) {
+            route.addPoint(new Vector3f(i, 0, 0));
+        }
+        assertEquals(10000, route.getTransportDuration());
+        assertEquals(new Vector3f(42.5f, 0, 0), route.getPosition(4250));
+        assertEquals(new Vector3f(99, 0, 0), route.getPosition(9900));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSealedRouteCantBeModified() {
+        LinearTransportRoute route = new LinearTransportRoute(new Vector3f(0, 0, 0), 100);
+        route.addPoint(new Vector3f(1, 0, 0));
+        route.seal();
+        assertTrue(route.isSealed());
+        route.addPoint(new Vector3f(2, 0, 0));
+    }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import org.junit.Test;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+
+import static org.junit.Assert.*;
+
+public class NetworkGraphSnapshotTest {
+    @Test
+    public void testShortestPathAlongLine() {
+        NetworkGraphSnapshot snapshot = NetworkGraphSnapshot.create(createLine(5, SideBitFlag.getSides(Side.LEFT, Side.RIGHT)));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, snapshot.findPath(new int[]{0}, 4));
+        assertArrayEquals(new int[]{4, 3, 2}, snapshot.findPath(new int[]{4}, 2));
+    }
+
+    @Test
+    public void testClosestSourceIsChosen() {
+        NetworkGraphSnapshot snapshot = NetworkGraphSnapshot.create(createLine(5, SideBitFlag.getSides(Side.LEFT, Side.RIGHT)));
+        assertArrayEquals(new int[]{3, 4}, snapshot.findPath(new int[]{0, 3}, 4));
+        assertArrayEquals(new int[]{2}, snapshot.findPath(new int[]{0, 2}, 2));
+    }
+
+    @Test
+    public void testOneWayConnections() {
+        Side towardsEnd = sideTowards(1, 0, 0);
+        EntityTransportNetworkNode[] nodes = new EntityTransportNetworkNode[4];
+        for (int x = 0; x < nodes.length; x++) {
+            nodes[x] = new EntityTransportNetworkNode(new Vector3i(x, 0, 0), SideBitFlag.getSides(towardsEnd.reverse()),
+                    SideBitFlag.getSides(towardsEnd));
+        }
+        NetworkGraphSnapshot snapshot = NetworkGraphSnapshot.create(nodes);
+        assertArrayEquals(new int[]{0, 1, 2, 3}, snapshot.findPath(new int[]{0}, 3));
+        assertNull(snapshot.findPath(new int[]{3}, 0));
+    }
+
+    @Test
+    public void testDisconnectedNodes() {
+        byte sides = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+        EntityTransportNetworkNode[] nodes = {
+                new EntityTransportNetworkNode(new Vector3i(0, 0, 0), sides, sides),
+                new EntityTransportNetworkNode(new Vector3i(2, 0, 0), sides, sides)
+        };
+        NetworkGraphSnapshot snapshot = NetworkGraphSnapshot.create(nodes);
+        assertNull(snapshot.findPath(new int[]{0}, 1));
+        assertEquals(1, snapshot.getNodeIndex(nodes[1]));
+        assertEquals(-1, snapshot.getNodeIndex(new EntityTransportNetworkNode(new Vector3i(1, 0, 0), sides, sides)));
+    }
+
+    private static EntityTransportNetworkNode[] createLine(int length, byte sides) {
+        EntityTransportNetworkNode[] nodes = new EntityTransportNetworkNode[length];
+        for (int x = 0; x < length; x++) {
+            nodes[x] = new EntityTransportNetworkNode(new Vector3i(x, 0, 0), sides, sides);
+        }
+        return nodes;
+    }
+
+    private static Side sideTowards(int x, int y, int z) {
+        for (Side side : Side.values()) {
+            Vector3i direction = side.getVector3i();
+            if (direction.x == x && direction.y == y && direction.z == z) {
+                return side;
+            }
+        }
+        throw new IllegalArgumentException("No side towards " + x + ", " + y + ", " + z);
+    }
+}
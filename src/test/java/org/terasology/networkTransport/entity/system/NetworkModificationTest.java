@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Sets;
+import org.junit.Test;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class NetworkModificationTest {
+    private static final byte SIDES = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+
+    private final EntityTransportNetworkNode first = createNode(0);
+    private final EntityTransportNetworkNode second = createNode(1);
+
+    @Test
+    public void testEmpty() {
+        NetworkModification modification = new NetworkModification();
+        assertTrue(modification.isEmpty());
+        modification.nodesAdded(Collections.emptySet());
+        assertTrue(modification.isEmpty());
+    }
+
+    @Test
+    public void testAddedAndRemovedNodes() {
+        NetworkModification modification = new NetworkModification();
+        modification.nodesAdded(Collections.singleton(first));
+        modification.nodesRemoved(Collections.singleton(second));
+        assertFalse(modification.isEmpty());
+        assertEquals(Collections.singleton(first), modification.getAddedNodes());
+        assertEquals(Collections.singleton(second), modification.getRemovedNodes());
+    }
+
+    @Test
+    public void testAddingRemovedNodeCancelsOut() {
+        NetworkModification modification = new NetworkModification();
+        modification.nodesRemoved(Sets.newHashSet(first, second));
+        modification.nodesAdded(Collections.singleton(first));
+        assertEquals(Collections.emptySet(), modification.getAddedNodes());
+        assertEquals(Collections.singleton(second), modification.getRemovedNodes());
+    }
+
+    @Test
+    public void testRemovingAddedNodeCancelsOut() {
+        NetworkModification modification = new NetworkModification();
+        modification.nodesAdded(Collections.singleton(first));
+        modification.nodesRemoved(Collections.singleton(createNode(0)));
+        assertTrue(modification.isEmpty());
+    }
+
+    @Test
+    public void testNodeWithOtherSidesDoesNotCancelOut() {
+        NetworkModification modification = new NetworkModification();
+        modification.nodesRemoved(Collections.singleton(first));
+        EntityTransportNetworkNode replacement = new EntityTransportNetworkNode(new Vector3i(0, 0, 0), SIDES, SideBitFlag.getSides(Side.RIGHT));
+        modification.nodesAdded(Collections.singleton(replacement));
+        assertEquals(Collections.singleton(replacement), modification.getAddedNodes());
+        assertEquals(Collections.singleton(first), modification.getRemovedNodes());
+    }
+
+    @Test
+    public void testMergeCoalesces() {
+        NetworkModification modification = new NetworkModification();
+        modification.nodesAdded(Collections.singleton(first));
+        modification.nodesRemoved(Collections.singleton(second));
+
+        NetworkModification merged = new NetworkModification();
+        merged.nodesAdded(Collections.singleton(second));
+        merged.nodesRemoved(Collections.singleton(first));
+        modification.merge(merged);
+        assertTrue(modification.isEmpty());
+    }
+
+    @Test
+    public void testMergeKeepsNetChanges() {
+        NetworkModification modification = new NetworkModification();
+        modification.nodesAdded(Collections.singleton(first));
+
+        NetworkModification merged = new NetworkModification();
+        merged.nodesRemoved(Collections.singleton(second));
+        modification.merge(merged);
+        assertEquals(Collections.singleton(first), modification.getAddedNodes());
+        assertEquals(Collections.singleton(second), modification.getRemovedNodes());
+    }
+
+    private static EntityTransportNetworkNode createNode(int x) {
+        return new EntityTransportNetworkNode(new Vector3i(x, 0, 0), SIDES, SIDES);
+    }
+}
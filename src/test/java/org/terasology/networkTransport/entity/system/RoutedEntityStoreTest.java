@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RoutedEntityStoreTest {
+    private static final byte SIDES = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+
+    private RoutedEntityStore store;
+
+    @Before
+    public void setup() {
+        store = new RoutedEntityStore();
+    }
+
+    @Test
+    public void testPutAndGet() {
+        LinearTransportRoute route = createRoute(0, 3);
+        store.put(-1, EntityRef.NULL, "payload", route, 500);
+        assertEquals(1, store.size());
+        assertTrue(store.contains(-1));
+
+        RoutedEntity routedEntity = store.get(-1);
+        assertEquals("payload", routedEntity.payload);
+        assertSame(route, routedEntity.transportRoute);
+        assertEquals(500, routedEntity.routingStart);
+        assertEquals(1, routedEntity.count);
+        assertNull(store.get(-2));
+        assertEquals(-1, store.getSlot(-2));
+    }
+
+    @Test
+    public void testPutReplacesEntityWithSameId() {
+        store.put(-1, EntityRef.NULL, "first", createRoute(0, 3), 0);
+        store.put(-1, EntityRef.NULL, "second", createRoute(10, 3), 0, 4);
+        assertEquals(1, store.size());
+        assertEquals("second", store.get(-1).payload);
+        assertEquals(4, store.get(-1).count);
+        assertEquals(Collections.emptySet(), collectAffectedByRemovalAt(1));
+        assertEquals(Sets.newHashSet(-1L), collectAffectedByRemovalAt(11));
+    }
+
+    @Test
+    public void testRemoveMovesLastEntityIntoSlot() {
+        for (int i = 1; i <= 20; i++) {
+            store.put(-i, EntityRef.NULL, i, createRoute(i * 10, 3), i);
+        }
+        assertTrue(store.remove(-3));
+        assertFalse(store.remove(-3));
+        assertEquals(19, store.size());
+        assertFalse(store.contains(-3));
+        for (int i = 1; i <= 20; i++) {
+            if (i != 3) {
+                int slot = store.getSlot(-i);
+                assertEquals(-i, store.getId(slot));
+                assertEquals(i, store.getPayload(slot));
+                assertEquals(i, store.getRoutingStart(slot));
+            }
+        }
+        assertEquals(19, store.getRoutedEntities().size());
+        assertEquals(Collections.emptySet(), collectAffectedByRemovalAt(31));
+    }
+
+    @Test
+    public void testItemCountIncludesStackedItems() {
+        store.put(-1, EntityRef.NULL, null, createRoute(0, 3), 0, 3);
+        store.put(-2, EntityRef.NULL, null, createRoute(0, 3), 0);
+        assertEquals(2, store.size());
+        assertEquals(4, store.getItemCount());
+
+        store.setCount(store.getSlot(-1), 5);
+        assertEquals(6, store.getItemCount());
+        store.put(-1, EntityRef.NULL, null, createRoute(0, 3), 0, 2);
+        assertEquals(3, store.getItemCount());
+        store.remove(-1);
+        assertEquals(1, store.getItemCount());
+    }
+
+    @Test
+    public void testRerouteUpdatesIndex() {
+        store.put(-1, EntityRef.NULL, null, createRoute(0, 3), 0);
+        assertTrue(store.reroute(-1, createRoute(10, 3), 200));
+        assertFalse(store.reroute(-2, createRoute(10, 3), 200));
+        assertEquals(200, store.get(-1).routingStart);
+        assertEquals(Collections.emptySet(), collectAffectedByRemovalAt(1));
+        assertEquals(Sets.newHashSet(-1L), collectAffectedByRemovalAt(12));
+    }
+
+    @Test
+    public void testCollectAffectedByAddedNeighbour() {
+        store.put(-1, EntityRef.NULL, null, createRoute(0, 3), 0);
+        store.put(-2, EntityRef.NULL, null, createRoute(10, 3), 0);
+
+        Set<Long> affected = collectAffected(Collections.singleton(createNode(4)), Collections.emptySet());
+        assertEquals(Sets.newHashSet(-1L), affected);
+        affected = collectAffected(Collections.singleton(createNode(6)), Collections.emptySet());
+        assertEquals(Collections.emptySet(), affected);
+    }
+
+    @Test
+    public void testRouteWithUnknownBlocksIsAlwaysAffected() {
+        store.put(-1, EntityRef.NULL, null, new TransportRoute() {
+            @Override
+            public Vector3f getPosition(long progress) {
+                return new Vector3f();
+            }
+
+            @Override
+            public long getTransportDuration() {
+                return 0;
+            }
+        }, 0);
+        assertEquals(Sets.newHashSet(-1L), collectAffectedByRemovalAt(100));
+        store.remove(-1);
+        assertEquals(Collections.emptySet(), collectAffectedByRemovalAt(100));
+    }
+
+    @Test
+    public void testIndexIsRebuilt() {
+        store.setIndexed(false);
+        store.put(-1, EntityRef.NULL, null, createRoute(0, 3), 0);
+        assertFalse(store.isIndexed());
+        store.setIndexed(true);
+        assertEquals(Sets.newHashSet(-1L), collectAffectedByRemovalAt(2));
+    }
+
+    @Test
+    public void testFillPositions() {
+        store.put(-1, EntityRef.NULL, null, createRoute(0, 3), 0);
+        store.put(-2, EntityRef.NULL, null, createRoute(10, 3), 0);
+        FloatBuffer positionBuffer = FloatBuffer.allocate(6);
+        LongBuffer idBuffer = LongBuffer.allocate(2);
+
+        assertEquals(2, store.fillPositions(150, positionBuffer, idBuffer, null, null, new Vector3f()));
+        assertArrayEquals(new float[]{1.5f, 0, 0, 11.5f, 0, 0}, positionBuffer.array(), 0.0001f);
+        assertArrayEquals(new long[]{-1, -2}, idBuffer.array());
+
+        positionBuffer.clear();
+        idBuffer.clear();
+        assertEquals(1, store.fillPositions(150, positionBuffer, idBuffer, new Vector3f(5, -1, -1), new Vector3f(20, 1, 1), new Vector3f()));
+        assertEquals(-2, idBuffer.get(0));
+    }
+
+    @Test
+    public void testPacketIsWrittenOnce() {
+        store.put(-1, EntityRef.NULL, null, createRoute(0, 3), 0, 3);
+        LongBuffer idBuffer = LongBuffer.allocate(3);
+        assertEquals(1, store.fillPositions(0, FloatBuffer.allocate(9), idBuffer, null, null, new Vector3f()));
+        assertEquals(-1, idBuffer.get(0));
+    }
+
+    @Test
+    public void testFillPositionsStopsWhenBufferIsFull() {
+        store.put(-1, EntityRef.NULL, null, createRoute(0, 3), 0);
+        store.put(-2, EntityRef.NULL, null, createRoute(10, 3), 0);
+        assertEquals(1, store.fillPositions(0, FloatBuffer.allocate(5), LongBuffer.allocate(2), null, null, new Vector3f()));
+    }
+
+    private Set<Long> collectAffectedByRemovalAt(int x) {
+        return collectAffected(Collections.emptySet(), Collections.singleton(createNode(x)));
+    }
+
+    private Set<Long> collectAffected(Set<EntityTransportNetworkNode> addedNodes, Set<EntityTransportNetworkNode> removedNodes) {
+        List<RoutedEntity> affected = Lists.newArrayList();
+        store.collectAffected(addedNodes, removedNodes, affected);
+        Set<Long> affectedIds = Sets.newHashSet();
+        for (RoutedEntity routedEntity : affected) {
+            affectedIds.add(routedEntity.id);
+        }
+        return affectedIds;
+    }
+
+    private static EntityTransportNetworkNode createNode(int x) {
+        return new EntityTransportNetworkNode(new Vector3i(x, 0, 0), SIDES, SIDES);
+    }
+
+    /**
+     * Route along the x axis, taking 100ms per block.
+     */
+    private static LinearTransportRoute createRoute(int startX, int length) {
+        LinearTransportRoute route = new LinearTransportRoute(new Vector3f(startX, 0, 0), 100);
+        route.addPoint(new Vector3f(startX + length, 0, 0));
+        route.seal();
+        return route;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TimingWheelTest {
+    @Test
+    public void testExpiresOnTime() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 0);
+        wheel.schedule("a", 25);
+        List<String> expired = Lists.newArrayList();
+        wheel.advance(24, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(30, expired);
+        assertEquals(Arrays.asList("a"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testExpiresFromHigherLevels() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+        wheel.schedule("near", 100);
+        wheel.schedule("far", 70000);
+        wheel.schedule("veryFar", 20000000);
+        List<String> expired = Lists.newArrayList();
+        for (long time = 0; time < 70000; time += 16) {
+            wheel.advance(time, expired);
+        }
+        assertEquals(Arrays.asList("near"), expired);
+        wheel.advance(70000, expired);
+        assertEquals(Arrays.asList("near", "far"), expired);
+        wheel.advance(19999999, expired);
+        assertEquals(2, expired.size());
+        wheel.advance(20000000, expired);
+        assertEquals(Arrays.asList("near", "far", "veryFar"), expired);
+    }
+
+    @Test
+    public void testCancelAndReschedule() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 0);
+        TimingWheel.Timer<String> cancelled = wheel.schedule("cancelled", 50);
+        TimingWheel.Timer<String> rescheduled = wheel.schedule("rescheduled", 50);
+        wheel.cancel(cancelled);
+        wheel.reschedule(rescheduled, 5000);
+        assertEquals(1, wheel.size());
+        List<String> expired = Lists.newArrayList();
+        wheel.advance(4990, expired);
+        assertTrue(expired.isEmpty());
+        wheel.advance(5000, expired);
+        assertEquals(Arrays.asList("rescheduled"), expired);
+        assertFalse(rescheduled.isScheduled());
+    }
+
+    @Test
+    public void testOverdueTimerExpiresOnNextAdvance() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 1000);
+        wheel.schedule("overdue", 500);
+        List<String> expired = Lists.newArrayList();
+        wheel.advance(1000, expired);
+        assertEquals(Arrays.asList("overdue"), expired);
+    }
+}
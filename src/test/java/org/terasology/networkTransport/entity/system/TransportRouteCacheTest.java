@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.entity.system;
+
+import gnu.trove.set.hash.TLongHashSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.benchmark.EngineStandIns;
+import org.terasology.networkTransport.network.BlockLocations;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class TransportRouteCacheTest {
+    private static final byte SIDES = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+    private static final long MILLIS_PER_UNIT = 100;
+
+    private TransportRouteCache routeCache;
+    private Network2<EntityTransportNetworkNode> network;
+    private EntityTransportNetworkNode source;
+    private EntityTransportNetworkNode destination;
+
+    @Before
+    public void setup() {
+        routeCache = new TransportRouteCache();
+        network = createNetwork();
+        source = new EntityTransportNetworkNode(new Vector3i(0, 0, 0), SIDES, SIDES);
+        destination = new EntityTransportNetworkNode(new Vector3i(3, 0, 0), SIDES, SIDES);
+    }
+
+    @Test
+    public void testRouteIsSharedAndSealed() {
+        LinearTransportRoute route = createRoute();
+        routeCache.put(network, source, destination, route);
+        assertTrue(route.isSealed());
+        assertSame(route, routeCache.get(network, source, destination, MILLIS_PER_UNIT));
+        assertSame(route, routeCache.get(network, new EntityTransportNetworkNode(new Vector3i(0, 0, 0), SIDES, SIDES),
+                new EntityTransportNetworkNode(new Vector3i(3, 0, 0), SIDES, SIDES), MILLIS_PER_UNIT));
+        assertEquals(1, routeCache.size());
+    }
+
+    @Test
+    public void testRouteIsKeyedBySpeedAndNetwork() {
+        routeCache.put(network, source, destination, createRoute());
+        assertNull(routeCache.get(network, source, destination, MILLIS_PER_UNIT * 2));
+        assertNull(routeCache.get(network, destination, source, MILLIS_PER_UNIT));
+        assertNull(routeCache.get(createNetwork(), source, destination, MILLIS_PER_UNIT));
+    }
+
+    @Test
+    public void testRouteIsEvictedOnLastRelease() {
+        LinearTransportRoute route = createRoute();
+        routeCache.put(network, source, destination, route);
+        routeCache.retain(route);
+        routeCache.retain(route);
+
+        routeCache.release(route);
+        assertSame(route, routeCache.get(network, source, destination, MILLIS_PER_UNIT));
+        routeCache.release(route);
+        assertNull(routeCache.get(network, source, destination, MILLIS_PER_UNIT));
+        assertEquals(0, routeCache.size());
+    }
+
+    @Test
+    public void testRoutesAreEvictedOnNetworkChange() {
+        LinearTransportRoute route = createRoute();
+        routeCache.put(network, source, destination, route);
+        routeCache.retain(route);
+        Network2<EntityTransportNetworkNode> otherNetwork = createNetwork();
+        LinearTransportRoute otherRoute = createRoute();
+        routeCache.put(otherNetwork, source, destination, otherRoute);
+
+        routeCache.networkChanged(network);
+        assertNull(routeCache.get(network, source, destination, MILLIS_PER_UNIT));
+        assertSame(otherRoute, routeCache.get(otherNetwork, source, destination, MILLIS_PER_UNIT));
+        assertEquals(1, routeCache.size());
+    }
+
+    @Test
+    public void testReleasingEvictedRouteHasNoEffect() {
+        LinearTransportRoute route = createRoute();
+        routeCache.put(network, source, destination, route);
+        routeCache.retain(route);
+        routeCache.networkChanged(network);
+
+        // A new route along the same path must not be evicted by the users of the old one
+        LinearTransportRoute newRoute = createRoute();
+        routeCache.put(network, source, destination, newRoute);
+        routeCache.retain(newRoute);
+        routeCache.release(route);
+        routeCache.release(route);
+        assertSame(newRoute, routeCache.get(network, source, destination, MILLIS_PER_UNIT));
+        assertEquals(1, routeCache.size());
+    }
+
+    @Test
+    public void testReleasingUncachedRouteHasNoEffect() {
+        LinearTransportRoute route = createRoute();
+        routeCache.put(network, source, destination, route);
+        routeCache.retain(route);
+        routeCache.release(createRoute());
+        assertSame(route, routeCache.get(network, source, destination, MILLIS_PER_UNIT));
+    }
+
+    @Test
+    public void testRoutesThroughBlocksAreEvicted() {
+        LinearTransportRoute route = createRoute();
+        routeCache.put(network, source, destination, route);
+        routeCache.retain(route);
+
+        routeCache.evictRoutesThrough(network, new TLongHashSet(new long[]{BlockLocations.pack(0, 1, 0)}));
+        assertSame(route, routeCache.get(network, source, destination, MILLIS_PER_UNIT));
+        routeCache.evictRoutesThrough(network, new TLongHashSet(new long[]{BlockLocations.pack(2, 0, 0)}));
+        assertNull(routeCache.get(network, source, destination, MILLIS_PER_UNIT));
+        assertEquals(0, routeCache.size());
+    }
+
+    @Test
+    public void testUnretainedRoutesAreEvicted() {
+        LinearTransportRoute route = createRoute();
+        routeCache.put(network, source, destination, route);
+        routeCache.evictUnusedRoutes();
+        assertNull(routeCache.get(network, source, destination, MILLIS_PER_UNIT));
+
+        routeCache.put(network, source, destination, route);
+        routeCache.retain(route);
+        routeCache.evictUnusedRoutes();
+        assertSame(route, routeCache.get(network, source, destination, MILLIS_PER_UNIT));
+    }
+
+    private static Network2<EntityTransportNetworkNode> createNetwork() {
+        return EngineStandIns.network(Collections.emptySet());
+    }
+
+    private static LinearTransportRoute createRoute() {
+        LinearTransportRoute route = new LinearTransportRoute(new Vector3f(0, 0, 0), MILLIS_PER_UNIT);
+        route.addPoint(new Vector3f(3, 0, 0));
+        return route;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.fluid.system;
+
+import org.junit.Test;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.network.BlockLocations;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class FluidFlowSolverTest {
+    private static final byte SIDES = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+
+    @Test
+    public void testFlowConservesVolumeAndEvensPressure() {
+        // Three nodes in a line: 0 - 1 - 2
+        FluidNetworkState state = new FluidNetworkState(Arrays.asList(createNode(0, 10), createNode(1, 10), createNode(2, 20)));
+        state.addVolume(0, 10);
+
+        for (int tick = 0; tick < 2000; tick++) {
+            FluidFlowSolver.solve(state, 0.05f, 4, 2f);
+            state.applySolution();
+            assertEquals(10, state.getTotalVolume(), 0.001f);
+        }
+        assertEquals(2.5f, state.getVolume(0), 0.01f);
+        assertEquals(2.5f, state.getVolume(1), 0.01f);
+        assertEquals(5f, state.getVolume(2), 0.01f);
+    }
+
+    @Test
+    public void testSolutionNotVisibleUntilApplied() {
+        FluidNetworkState state = new FluidNetworkState(Arrays.asList(createNode(0, 10), createNode(1, 10)));
+        state.addVolume(0, 10);
+
+        FluidFlowSolver.solve(state, 0.05f, 4, 2f);
+        assertEquals(10, state.getVolume(0), 0f);
+        state.applySolution();
+        assertTrue(state.getVolume(1) > 0);
+        assertTrue(state.getVolume(0) < 10);
+    }
+
+    @Test
+    public void testAddAndRemoveRespectLimits() {
+        FluidNetworkState state = new FluidNetworkState(Collections.singleton(createNode(5, 10)));
+        assertEquals(0, state.getNodeIndex(BlockLocations.pack(5, 0, 0)));
+        assertEquals(-1, state.getNodeIndex(BlockLocations.pack(6, 0, 0)));
+        assertEquals(10, state.addVolume(0, 15), 0f);
+        assertEquals(10, state.removeVolume(0, 15), 0f);
+    }
+
+    @Test
+    public void testNodesAreAddedAndRemovedInPlace() {
+        FluidNetworkState state = new FluidNetworkState(Arrays.asList(createNode(2, 10), createNode(0, 10), createNode(1, 10)));
+        assertEquals(0, state.getNodeIndex(BlockLocations.pack(0, 0, 0)));
+        assertEquals(2, state.getNodeIndex(BlockLocations.pack(2, 0, 0)));
+        state.addVolume(0, 6);
+        state.addVolume(2, 3);
+
+        // Removing the first node moves the last one in its place, keeping its fluid and connections
+        state.removeNodes(Collections.singleton(createNode(0, 10)));
+        assertEquals(2, state.getNodeCount());
+        assertEquals(-1, state.getNodeIndex(BlockLocations.pack(0, 0, 0)));
+        assertEquals(0, state.getNodeIndex(BlockLocations.pack(2, 0, 0)));
+        assertEquals(3, state.getTotalVolume(), 0f);
+        assertEquals(1, state.neighbourCounts[0]);
+        assertEquals(1, state.adjacency[0]);
+
+        state.addNodes(Collections.singleton(createNode(3, 10)));
+        assertEquals(2, state.getNodeIndex(BlockLocations.pack(3, 0, 0)));
+        assertEquals(2, state.neighbourCounts[0]);
+        for (int tick = 0; tick < 2000; tick++) {
+            FluidFlowSolver.solve(state, 0.05f, 4, 2f);
+            state.applySolution();
+        }
+        assertEquals(1f, state.getVolume(state.getNodeIndex(BlockLocations.pack(1, 0, 0))), 0.01f);
+        assertEquals(1f, state.getVolume(state.getNodeIndex(BlockLocations.pack(3, 0, 0))), 0.01f);
+    }
+
+    private static FluidTransportNetworkNode createNode(int x, float capacity) {
+        return new FluidTransportNetworkNode(new Vector3i(x, 0, 0), SIDES, capacity);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.fluid.system;
+
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Test;
+import org.terasology.blockNetwork.EfficientBlockNetwork;
+import org.terasology.blockNetwork.Network2;
+import org.terasology.blockNetwork.NetworkChangeReason;
+import org.terasology.math.Side;
+import org.terasology.math.SideBitFlag;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.networkTransport.benchmark.EngineStandIns;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FluidTransportAuthoritySystemTest {
+    private static final String TRANSPORTER_TYPE = "test";
+    private static final byte SIDES = SideBitFlag.getSides(Side.LEFT, Side.RIGHT);
+
+    private FluidTransportAuthoritySystem fluidTransportSystem = new FluidTransportAuthoritySystem();
+    private EfficientBlockNetwork<FluidTransportNetworkNode> blockNetwork;
+
+    @Before
+    public void setup() {
+        fluidTransportSystem.initialise();
+        fluidTransportSystem.registerFluidTransporterType(TRANSPORTER_TYPE);
+        Map<String, EfficientBlockNetwork<FluidTransportNetworkNode>> blockNetworks = EngineStandIns.read(fluidTransportSystem, "fluidTransportNetworks");
+        blockNetwork = blockNetworks.get(TRANSPORTER_TYPE);
+        Set<FluidTransportNetworkNode> nodes = Sets.newHashSet();
+        for (int x = 0; x < 4; x++) {
+            nodes.add(createNode(x));
+        }
+        blockNetwork.addNetworkingBlocks(nodes, NetworkChangeReason.WORLD_CHANGE);
+    }
+
+    @Test
+    public void testBlockEditsAreAppliedInPlace() {
+        assertEquals(5, fluidTransportSystem.addFluid(TRANSPORTER_TYPE, new Vector3i(0, 0, 0), 5), 0f);
+        Network2<FluidTransportNetworkNode> network = fluidTransportSystem.findNetworkAt(TRANSPORTER_TYPE, new Vector3i(0, 0, 0));
+        FluidNetworkState state = getState(network);
+
+        blockNetwork.addNetworkingBlock(createNode(4), NetworkChangeReason.WORLD_CHANGE);
+        assertSame(state, getState(network));
+        assertEquals(5, state.getNodeCount());
+        assertEquals(5, fluidTransportSystem.addFluid(TRANSPORTER_TYPE, new Vector3i(4, 0, 0), 5), 0f);
+
+        blockNetwork.removeNetworkingBlock(createNode(0), NetworkChangeReason.WORLD_CHANGE);
+        assertSame(state, getState(network));
+        assertEquals(4, state.getNodeCount());
+        assertEquals(0, fluidTransportSystem.getFluidVolume(TRANSPORTER_TYPE, new Vector3i(0, 0, 0)), 0f);
+        assertEquals(5, fluidTransportSystem.getFluidVolume(TRANSPORTER_TYPE, new Vector3i(4, 0, 0)), 0f);
+    }
+
+    private FluidNetworkState getState(Network2<FluidTransportNetworkNode> network) {
+        Map<String, Map<Network2<FluidTransportNetworkNode>, FluidNetworkState>> states = EngineStandIns.read(fluidTransportSystem, "fluidNetworkStates");
+        return states.get(TRANSPORTER_TYPE).get(network);
+    }
+
+    private static FluidTransportNetworkNode createNode(int x) {
+        return new FluidTransportNetworkNode(new Vector3i(x, 0, 0), SIDES, 10);
+    }
+}
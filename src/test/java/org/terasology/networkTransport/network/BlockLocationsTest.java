@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.networkTransport.network;
+
+import org.junit.Test;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+
+import static org.junit.Assert.*;
+
+public class BlockLocationsTest {
+    @Test
+    public void testPositiveCoordinates() {
+        long packed = BlockLocations.pack(12, 34, 56);
+        assertEquals(new Vector3i(12, 34, 56), BlockLocations.unpack(packed));
+    }
+
+    @Test
+    public void testNegativeCoordinates() {
+        long packed = BlockLocations.pack(-12, -34, -56);
+        assertEquals(-12, BlockLocations.unpackX(packed));
+        assertEquals(-34, BlockLocations.unpackY(packed));
+        assertEquals(-56, BlockLocations.unpackZ(packed));
+    }
+
+    @Test
+    public void testDistinctNeighbours() {
+        assertNotEquals(BlockLocations.pack(0, 0, 0), BlockLocations.pack(0, 0, -1));
+        assertNotEquals(BlockLocations.pack(0, 0, -1), BlockLocations.pack(0, -1, 0));
+        assertNotEquals(BlockLocations.pack(0, -1, 0), BlockLocations.pack(-1, 0, 0));
+    }
+
+    @Test
+    public void testPositionPackedAsItsBlock() {
+        Vector3f[] positions = {new Vector3f(1.4f, 2.6f, 0), new Vector3f(-0.6f, -1.4f, -0.5f), new Vector3f(0.49f, 0.5f, -2.51f)};
+        for (Vector3f position : positions) {
+            assertEquals(BlockLocations.pack(new Vector3i(position)), BlockLocations.pack(position));
+        }
+    }
+
+    @Test
+    public void testBoundaryCoordinates() {
+        assertEquals(new Vector3i(8388607, 32767, 8388607), BlockLocations.unpack(BlockLocations.pack(8388607, 32767, 8388607)));
+        assertEquals(new Vector3i(-8388608, -32768, -8388608), BlockLocations.unpack(BlockLocations.pack(-8388608, -32768, -8388608)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testXOutOfRange() {
+        BlockLocations.pack(8388608, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testYOutOfRange() {
+        BlockLocations.pack(0, -32769, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZOutOfRange() {
+        BlockLocations.pack(0, 0, -8388609);
+    }
+}